@@ -0,0 +1,17 @@
+#!/bin/bash
+# Compila i executa els benchmarks JMH amb el perfilador de GC (taxa d'assignació).
+#
+#   ./run.sh                               tots els benchmarks
+#   ./run.sh Broadcast                     només els que coincideixen amb el patró
+#   ./run.sh Broadcast -p connections=10   amb paràmetres de JMH
+#   SKIP_BUILD=1 ./run.sh ...              sense tornar a compilar
+#
+# Per comparar un canvi: executar-ho abans i després i mirar score i gc.alloc.rate.norm.
+
+cd "$(dirname "$0")" || exit 1
+
+if [[ -z "$SKIP_BUILD" ]]; then
+    mvn -q -B package || exit 1
+fi
+
+java -jar target/benchmarks.jar -prof gc "$@"
@@ -0,0 +1,109 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jugades: comprovar si hi ha quatre en ratlla ({@link Bitboard#isWin}, el que abans era
+ * {@code checkWinner}) i aplicar una jugada sencera a la sala ({@link GameRoom#processPlay}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dc4.turnSeconds=0", "-Dc4.rematchSeconds=3600"})
+public class BoardBenchmark {
+
+    // tableros de ejemplo (columnas jugadas desde el vacio): apertura, medio juego, casi lleno
+    private static final String[] BOARDS = {
+        "3",
+        "33242",
+        "3324215566",
+        "332421556601100",
+        "33242155660110044225566",
+        "000111222444555666333000111222444",
+    };
+
+    // una partida que gana el rojo en la jugada 13 (columnas de rojo y amarillo alternadas)
+    private static final int[] GAME = {6, 4, 2, 3, 5, 5, 5, 1, 2, 3, 2, 4, 2};
+
+    private final Bitboard[] boards = new Bitboard[BOARDS.length];
+
+    private RoomShard shard;
+    private TimerWheel timers;
+    private GameRoom room;
+    private String red;
+    private String yellow;
+    private final String[] pieceIds = new String[GAME.length];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < BOARDS.length; i++) {
+            boards[i] = new Bitboard();
+            String moves = BOARDS[i];
+            for (int m = 0; m < moves.length(); m++) {
+                boards[i].play(moves.charAt(m) - '0', m % 2);
+            }
+        }
+
+        shard = new RoomShard(0);
+        timers = new TimerWheel(10, 512);
+        room = new GameRoom(1, FakeSockets.server(), shard, timers, null, null, null, (conn, reason) -> { });
+        WebSocket a = FakeSockets.open(false);
+        WebSocket b = FakeSockets.open(false);
+        red = room.join(a, "red").name;
+        yellow = room.join(b, "yellow").name;
+        for (int m = 0; m < GAME.length; m++) {
+            pieceIds[m] = (m % 2 == 0 ? "R_" : "Y_") + String.format("%02d", m / 2);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        timers.stop();
+        shard.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public int isWin() {
+        int wins = 0;
+        for (Bitboard board : boards) {
+            if (board.isWin(0) || board.isWin(1)) {
+                wins++;
+            }
+        }
+        return wins;
+    }
+
+    /**
+     * Una partida sencera fins que guanya el vermell; el resultat és per jugada i inclou
+     * la part proporcional de tornar a posar les fitxes per a la partida següent.
+     */
+    @Benchmark
+    @OperationsPerInvocation(13)
+    public int processPlay() {
+        int played = 0;
+        for (int m = 0; m < GAME.length; m++) {
+            if (room.processPlay(m % 2 == 0 ? red : yellow, GAME[m], pieceIds[m])) {
+                played++;
+            }
+        }
+        room.resetScores();
+        return played;
+    }
+}
@@ -0,0 +1,85 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost d'un tick d'una sala ({@link GameRoom#broadcastStatus}) segons el nombre de
+ * connexions i el format: calcular el delta, codificar-lo i repartir-lo.
+ *
+ * Les connexions són de mentida ({@link FakeSockets}), així que no inclou escriure al
+ * socket. {@code mouseDelta} és el cas habitual (un jugador mou el ratolí) i
+ * {@code idle} el d'una sala parada.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dc4.turnSeconds=0", "-Dc4.rematchSeconds=3600"})
+public class BroadcastBenchmark {
+
+    private static final long PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1) / RoomShard.ACTIVE_FPS;
+
+    @Param({"2", "10", "100"})
+    public int connections;
+
+    @Param({"json", "binary"})
+    public String format;
+
+    private RoomShard shard;
+    private TimerWheel timers;
+    private GameRoom room;
+    private WebSocket[] conns;
+    private long now;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        shard = new RoomShard(0);
+        timers = new TimerWheel(10, 512);
+        room = new GameRoom(1, FakeSockets.server(), shard, timers, null, null, null, (conn, reason) -> { });
+        conns = new WebSocket[connections];
+        for (int i = 0; i < connections; i++) {
+            conns[i] = FakeSockets.open("binary".equals(format));
+            conns[i].setAttachment(new ConnectionState(() -> { }, () -> { }));
+            room.join(conns[i], "p" + i);
+        }
+        // el primer tick envia el estado completo a todos
+        now = System.nanoTime();
+        room.broadcastStatus(now, PERIOD_NANOS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timers.stop();
+        shard.stop();
+    }
+
+    @Benchmark
+    public boolean mouseDelta() {
+        tick++;
+        now += PERIOD_NANOS;
+        room.updateMouse(conns[tick % connections], 100 + tick % 500, 100 + tick % 300, -1, -1);
+        return room.broadcastStatus(now, PERIOD_NANOS);
+    }
+
+    @Benchmark
+    public boolean idle() {
+        now += PERIOD_NANOS;
+        return room.broadcastStatus(now, PERIOD_NANOS);
+    }
+}
@@ -0,0 +1,203 @@
+package com.server;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import javax.net.ssl.SSLSession;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.java_websocket.server.WebSocketServer;
+
+import com.shared.BinaryCodec;
+
+/**
+ * Connexions i servidor de mentida per als benchmarks: accepten tot el que s'hi envia
+ * i no ho escriuen enlloc, així es mesura només el que fa el servidor per preparar-ho.
+ */
+final class FakeSockets {
+
+    private static final Draft DRAFT = new Draft_6455();
+    private static final IProtocol BINARY = new Protocol(BinaryCodec.PROTOCOL);
+
+    private FakeSockets() {
+    }
+
+    /**
+     * Una connexió oberta que descarta el que rep.
+     *
+     * @param binary si ha negociat el format binari
+     */
+    static WebSocket open(boolean binary) {
+        return new Socket(binary ? BINARY : null);
+    }
+
+    // una clase normal y no un Proxy: el proxy reservaria memoria en cada llamada y
+    // falsearia la tasa de asignacion que mide el perfilador de GC
+    private static final class Socket implements WebSocket {
+
+        private final IProtocol protocol;
+        private Object attachment;
+
+        Socket(IProtocol protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public void close(int code, String message) {
+        }
+
+        @Override
+        public void close(int code) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void closeConnection(int code, String message) {
+        }
+
+        @Override
+        public void send(String text) {
+        }
+
+        @Override
+        public void send(ByteBuffer bytes) {
+        }
+
+        @Override
+        public void send(byte[] bytes) {
+        }
+
+        @Override
+        public void sendFrame(Framedata framedata) {
+        }
+
+        @Override
+        public void sendFrame(Collection<Framedata> frames) {
+        }
+
+        @Override
+        public void sendPing() {
+        }
+
+        @Override
+        public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) {
+        }
+
+        @Override
+        public boolean hasBufferedData() {
+            return false;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteSocketAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalSocketAddress() {
+            return null;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosing() {
+            return false;
+        }
+
+        @Override
+        public boolean isFlushAndClose() {
+            return false;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public Draft getDraft() {
+            return DRAFT;
+        }
+
+        @Override
+        public ReadyState getReadyState() {
+            return ReadyState.OPEN;
+        }
+
+        @Override
+        public String getResourceDescriptor() {
+            return "/";
+        }
+
+        @Override
+        public <T> void setAttachment(T attachment) {
+            this.attachment = attachment;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T getAttachment() {
+            return (T) attachment;
+        }
+
+        @Override
+        public boolean hasSSLSupport() {
+            return false;
+        }
+
+        @Override
+        public SSLSession getSSLSession() {
+            return null;
+        }
+
+        @Override
+        public IProtocol getProtocol() {
+            return protocol;
+        }
+    }
+
+    /** Un servidor sense arrencar, només per als {@code broadcast} de les sales. */
+    static WebSocketServer server() {
+        return new WebSocketServer(new InetSocketAddress(0)) {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, ByteBuffer message) {
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+            }
+
+            @Override
+            public void onStart() {
+            }
+        };
+    }
+}
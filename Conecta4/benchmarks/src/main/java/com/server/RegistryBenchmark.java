@@ -0,0 +1,62 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Registre de clients: llegir la instantània dels membres i recórrer-la (el que fa cada
+ * tick), i buscar el nom d'una connexió (el que fa cada missatge).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @Param({"2", "10", "100"})
+    public int connections;
+
+    private ClientRegistry registry;
+    private WebSocket[] conns;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new ClientRegistry(GameRoom.PLAYER_NAMES);
+        conns = new WebSocket[connections];
+        for (int i = 0; i < connections; i++) {
+            conns[i] = FakeSockets.open(false);
+            registry.add(conns[i], "p" + i);
+        }
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole bh) {
+        ClientRegistry.Members members = registry.snapshot();
+        for (int i = 0; i < members.size(); i++) {
+            bh.consume(members.socket(i));
+            bh.consume(members.name(i));
+        }
+    }
+
+    @Benchmark
+    public String nameBySocket() {
+        next = next + 1 == connections ? 0 : next + 1;
+        return registry.nameBySocket(conns[next]);
+    }
+}
@@ -0,0 +1,116 @@
+package com.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cerca en paral·lel: temps segons el nombre de fils.
+ *
+ * Cerca unes quantes posicions d'obertura a una profunditat fixa i sense límit de
+ * temps. Amb {@code threads=0} és la cerca seqüencial de {@link Solver}; amb més, la de
+ * {@link ParallelSearch}. L'acceleració és el temps amb 1 fil dividit pel temps amb N.
+ * El comptador {@code nodes} són els nodes visitats durant la iteració. Que totes les
+ * variants triïn la mateixa jugada ho comprova {@code ParallelSearchTest} a cada build.
+ *
+ * Les taules de transposicions es mantenen entre cerques, com les del bot.
+ *
+ * <pre>
+ * ./run.sh Solver -p threads=0,1,2,4,8,16 -p depth=20
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"18"})
+    public int depth;
+
+    // posiciones de apertura: columnas jugadas desde el tablero vacio
+    private static final String[] POSITIONS = {"", "3", "33", "332", "3324", "33241", "332415", "2"};
+
+    private static final int TABLE_BITS = 22;
+
+    private final long[][] positions = new long[POSITIONS.length][];
+    private Solver solver;
+    private ParallelSearch search;
+
+    /** Nodes visitats en cada iteració. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < POSITIONS.length; i++) {
+            positions[i] = position(POSITIONS[i]);
+        }
+        if (threads == 0) {
+            solver = new Solver(TABLE_BITS);
+        } else {
+            search = new ParallelSearch(threads, TABLE_BITS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (search != null) {
+            search.stop();
+        }
+    }
+
+    /** Totes les posicions una vegada; el resultat és per a la sèrie sencera. */
+    @Benchmark
+    public int search(Nodes counter) {
+        int cols = 0;
+        for (long[] pos : positions) {
+            if (search == null) {
+                cols += solver.bestMove(pos[0], pos[1], depth, Long.MAX_VALUE / 4);
+                counter.nodes += solver.nodes();
+            } else {
+                ParallelSearch.Result r = search.bestMove(pos[0], pos[1], depth, Long.MAX_VALUE / 4);
+                cols += r.column;
+                counter.nodes += r.nodes;
+            }
+        }
+        return cols;
+    }
+
+    // {fichas del que mueve, todas las fichas} despues de jugar las columnas
+    private static long[] position(String moves) {
+        Bitboard board = new Bitboard();
+        for (int i = 0; i < moves.length(); i++) {
+            board.play(moves.charAt(i) - '0', i % 2 == 0 ? Bitboard.RED : Bitboard.YELLOW);
+        }
+        int toMove = moves.length() % 2 == 0 ? Bitboard.RED : Bitboard.YELLOW;
+        long current = board.pieces(toMove);
+        return new long[] {current, current | board.pieces(1 - toMove)};
+    }
+}
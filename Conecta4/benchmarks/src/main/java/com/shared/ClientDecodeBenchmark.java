@@ -0,0 +1,102 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * El que fa el client amb cada estat que rep ({@code wsMessage} i
+ * {@code onBinaryMessage} de {@code com.client.Main}) fins a tenir el
+ * {@link ServerUpdate}, sense la part de JavaFX: llegir el JSON, mirar el tipus i
+ * convertir-lo; o descodificar el format binari.
+ *
+ * Els missatges són els que escriu el servidor ({@link JsonUpdateWriter},
+ * {@link BinaryCodec}): un estat complet amb dos jugadors i 42 fitxes, i un delta amb el
+ * ratolí d'un jugador.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientDecodeBenchmark {
+
+    private String keyframeJson;
+    private String deltaJson;
+    private byte[] keyframeBinary;
+    private byte[] deltaBinary;
+
+    @Setup
+    public void setup() {
+        ServerUpdate keyframe = new ServerUpdate(true);
+        ClientData red = new ClientData("Bulbasaur", "GREEN", 120, 340, -1, -1);
+        red.role = "R";
+        ClientData yellow = new ClientData("Pikachu", "YELLOW", 412, 233, 3, 5);
+        yellow.role = "Y";
+        keyframe.clients.add(red);
+        keyframe.clients.add(yellow);
+        for (int i = 0; i < 21; i++) {
+            keyframe.objects.add(new GameObject("R_" + String.format("%02d", i), 515 + (i % 2) * 45, 60 + (i / 2) * 30, 1, 1));
+            keyframe.objects.add(new GameObject("Y_" + String.format("%02d", i), 605 + (i % 2) * 45, 60 + (i / 2) * 30, 1, 1));
+        }
+        keyframe.currentTurn = "R";
+        keyframe.scoreR = 0;
+        keyframe.scoreY = 0;
+        keyframe.roundWinner = "";
+        keyframe.gameWinner = "";
+
+        ServerUpdate delta = new ServerUpdate(false);
+        delta.clients.add(new ClientData("Pikachu", "YELLOW", 415, 236, 3, 5));
+
+        JsonUpdateWriter writer = new JsonUpdateWriter();
+        keyframeJson = StandardCharsets.UTF_8.decode(writer.write(keyframe)).toString();
+        deltaJson = StandardCharsets.UTF_8.decode(writer.write(delta)).toString();
+        keyframeBinary = BinaryCodec.encodeUpdate(keyframe);
+        deltaBinary = BinaryCodec.encodeUpdate(delta);
+    }
+
+    @Benchmark
+    public ServerUpdate keyframeJson() {
+        return decodeJson(keyframeJson);
+    }
+
+    @Benchmark
+    public ServerUpdate deltaJson() {
+        return decodeJson(deltaJson);
+    }
+
+    @Benchmark
+    public ServerUpdate keyframeBinary() {
+        return BinaryCodec.decodeUpdate(ByteBuffer.wrap(keyframeBinary));
+    }
+
+    @Benchmark
+    public ServerUpdate deltaBinary() {
+        return BinaryCodec.decodeUpdate(ByteBuffer.wrap(deltaBinary));
+    }
+
+    // lo mismo que wsMessage para serverData y serverDelta
+    private static ServerUpdate decodeJson(String message) {
+        JSONObject msgObj = new JSONObject(message);
+        switch (msgObj.getString("type")) {
+            case ServerUpdate.T_SERVER_DATA:
+            case ServerUpdate.T_SERVER_DELTA:
+                return ServerUpdate.fromJSON(msgObj);
+            default:
+                return null;
+        }
+    }
+}
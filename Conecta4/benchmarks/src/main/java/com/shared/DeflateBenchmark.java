@@ -0,0 +1,141 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost de {@link DeflateExtension} per missatge enviat, i quant ocupa després.
+ *
+ * Comprimeix una seqüència d'estats com els d'una partida (el ratolí es mou, les fitxes
+ * baixen) en JSON o binari, amb i sense context entre missatges i amb dos nivells del
+ * zlib. Els comptadors {@code rawBytes} i {@code wireBytes} són els bytes abans i després
+ * de comprimir durant la iteració: la proporció és l'estalvi d'amplada de banda.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeflateBenchmark {
+
+    @Param({"deltaJson", "keyframeJson", "deltaBinary", "keyframeBinary"})
+    public String message;
+
+    @Param({"true", "false"})
+    public boolean contextTakeover;
+
+    @Param({"1", "6"})
+    public int level;
+
+    // mensajes distintos seguidos, como los ticks de una partida
+    private static final int SEQUENCE = 64;
+
+    private final byte[][] payloads = new byte[SEQUENCE][];
+    private boolean text;
+    private DeflateExtension extension;
+    private int next;
+
+    /** Bytes abans i després de comprimir en cada iteració. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long rawBytes;
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            rawBytes = 0;
+            wireBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        JsonUpdateWriter writer = new JsonUpdateWriter();
+        boolean keyframe = message.startsWith("keyframe");
+        text = message.endsWith("Json");
+        for (int i = 0; i < SEQUENCE; i++) {
+            ServerUpdate update = keyframe ? keyframe(i) : delta(i);
+            if (text) {
+                ByteBuffer json = writer.write(update);
+                payloads[i] = new byte[json.remaining()];
+                json.get(payloads[i]);
+            } else {
+                payloads[i] = BinaryCodec.encodeUpdate(update);
+            }
+        }
+        // umbral 0: aqui se mide lo que cuesta comprimir cada mensaje
+        extension = new DeflateExtension(0, contextTakeover, level == 1 ? Deflater.BEST_SPEED : level);
+    }
+
+    @Benchmark
+    public DataFrame deflate(Bytes bytes) {
+        byte[] payload = payloads[next];
+        next = (next + 1) % SEQUENCE;
+        DataFrame frame = text ? new TextFrame() : new BinaryFrame();
+        frame.setPayload(ByteBuffer.wrap(payload));
+        extension.encodeFrame(frame);
+        bytes.rawBytes += payload.length;
+        bytes.wireBytes += frame.getPayloadData().remaining();
+        return frame;
+    }
+
+    // el estado completo de una partida empezada: dos jugadores y las 42 fichas
+    private static ServerUpdate keyframe(int tick) {
+        ServerUpdate su = new ServerUpdate(true);
+        ClientData red = new ClientData("Bulbasaur", "GREEN", 120 + tick * 3, 340 - tick, -1, -1);
+        red.role = "R";
+        ClientData yellow = new ClientData("Pikachu", "YELLOW", 412 - tick, 233 + tick * 2, 3, 5);
+        yellow.role = "Y";
+        su.clients.add(red);
+        su.clients.add(yellow);
+        int played = tick % 42;
+        for (int i = 0; i < 21; i++) {
+            su.objects.add(piece("R_", i, i * 2 < played, 515));
+            su.objects.add(piece("Y_", i, i * 2 + 1 < played, 605));
+        }
+        su.currentTurn = played % 2 == 0 ? "R" : "Y";
+        su.scoreR = 0;
+        su.scoreY = 0;
+        su.roundWinner = "";
+        su.gameWinner = "";
+        return su;
+    }
+
+    private static GameObject piece(String prefix, int i, boolean onBoard, int x) {
+        String id = prefix + String.format("%02d", i);
+        if (onBoard) {
+            return new GameObject(id, 25 + (i % 7) * 50 + 25, 325 - (i / 7) * 50 - 25, 1, 1);
+        }
+        return new GameObject(id, x + (i % 2) * 45, 60 + (i / 2) * 30, 1, 1);
+    }
+
+    // lo mas frecuente: solo se mueve el raton de un jugador
+    private static ServerUpdate delta(int tick) {
+        ServerUpdate su = new ServerUpdate(false);
+        int x = 100 + tick * 5;
+        int y = 200 + (tick % 16) * 3;
+        boolean inside = x < 375 && y < 325;
+        su.clients.add(new ClientData("Pikachu", "YELLOW", x, y, inside ? (y - 25) / 50 : -1, inside ? (x - 25) / 50 : -1));
+        return su;
+    }
+}
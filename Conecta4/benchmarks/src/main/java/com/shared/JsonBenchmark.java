@@ -0,0 +1,62 @@
+package com.shared;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversió a JSON i des de JSON de {@link ClientData} i {@link GameObject}, fins al text
+ * (el que es posa i es treu del cable).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private ClientData client;
+    private GameObject object;
+    private String clientText;
+    private String objectText;
+
+    @Setup
+    public void setup() {
+        client = new ClientData("Pikachu", "YELLOW", 412, 233, 3, 5);
+        client.role = "Y";
+        object = new GameObject("R_07", 535, 290, 1, 1);
+        clientText = client.toJSON().toString();
+        objectText = object.toJSON().toString();
+    }
+
+    @Benchmark
+    public String clientToJson() {
+        return client.toJSON().toString();
+    }
+
+    @Benchmark
+    public ClientData clientFromJson() {
+        return ClientData.fromJSON(new JSONObject(clientText));
+    }
+
+    @Benchmark
+    public String objectToJson() {
+        return object.toJSON().toString();
+    }
+
+    @Benchmark
+    public GameObject objectFromJson() {
+        return GameObject.fromJSON(new JSONObject(objectText));
+    }
+}
@@ -0,0 +1,159 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Escriure un estat en JSON amb {@link JsonUpdateWriter} comparat amb
+ * {@code update.toJSON().toString()}.
+ *
+ * Abans de mesurar, comprova que els dos donen els mateixos bytes per a estats aleatoris
+ * amb noms difícils (cometes, {@code </}, caràcters de control, parells suplents); si no,
+ * el benchmark falla. Amb {@code ./run.sh JsonWriter} (que activa {@code -prof gc}) el
+ * {@code gc.alloc.rate.norm} de {@link #writer()} ha de ser 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWriterBenchmark {
+
+    // estados aleatorios que se comparan con toJSON antes de medir
+    private static final int CHECKED_UPDATES = 5000;
+
+    // trozos con los que se montan los nombres
+    private static final String[] PARTS = {
+        "Pikachu", "\"", "\\", "/", "</", "</script>", "\b", "\f", "\n", "\r", "\t",
+        "\u0000", "\u001f", "\u007f", "\u0080", " ", " ", "ñ", "€", "😀",
+        "𐀀", "􏿿", " ", "",
+    };
+
+    private final JsonUpdateWriter writer = new JsonUpdateWriter();
+    private ServerUpdate keyframe;
+    private ServerUpdate delta;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < CHECKED_UPDATES; i++) {
+            check(randomUpdate(random));
+        }
+
+        // una partida a medias: dos jugadores y las 42 fichas
+        keyframe = new ServerUpdate(true);
+        keyframe.clients.add(player("Pikachu", "YELLOW", "Y"));
+        keyframe.clients.add(player("Charizard", "RED", "R"));
+        for (int i = 0; i < 21; i++) {
+            keyframe.objects.add(new GameObject(String.format("R_%02d", i), 535 + i, 290, 1, 1));
+            keyframe.objects.add(new GameObject(String.format("Y_%02d", i), 635 + i, 290, 1, 1));
+        }
+        keyframe.currentTurn = "R";
+        keyframe.scoreR = 0;
+        keyframe.scoreY = 0;
+        keyframe.roundWinner = "";
+        keyframe.gameWinner = "";
+        check(keyframe);
+
+        // lo que cambia en un tick normal: el raton del rival
+        delta = new ServerUpdate(false);
+        delta.clients.add(player("Pikachu", "YELLOW", "Y"));
+        check(delta);
+    }
+
+    @Benchmark
+    public ByteBuffer writer() {
+        return writer.write(keyframe);
+    }
+
+    @Benchmark
+    public byte[] toJson() {
+        return keyframe.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ByteBuffer writerDelta() {
+        return writer.write(delta);
+    }
+
+    @Benchmark
+    public byte[] toJsonDelta() {
+        return delta.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // el escritor tiene que dar exactamente lo mismo que toJSON
+    private void check(ServerUpdate su) {
+        byte[] expected = su.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = writer.write(su);
+        byte[] actual = Arrays.copyOfRange(buf.array(), buf.position(), buf.limit());
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("JsonUpdateWriter differs from toJSON:\n"
+                    + new String(expected, StandardCharsets.UTF_8) + "\n"
+                    + new String(actual, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static ServerUpdate randomUpdate(Random random) {
+        ServerUpdate su = new ServerUpdate(random.nextBoolean());
+        int clients = random.nextInt(4);
+        for (int i = 0; i < clients; i++) {
+            ClientData cd = new ClientData(randomText(random), randomText(random),
+                    random.nextInt(2000) - 1000, random.nextInt(2000) - 1000,
+                    random.nextInt(8) - 1, random.nextInt(9) - 1);
+            cd.role = random.nextInt(4) == 0 ? null : randomText(random);
+            su.clients.add(cd);
+        }
+        int removed = random.nextInt(3);
+        for (int i = 0; i < removed; i++) {
+            su.removedClients.add(randomText(random));
+        }
+        int objects = random.nextInt(6);
+        for (int i = 0; i < objects; i++) {
+            GameObject o = new GameObject(randomText(random), random.nextInt(), random.nextInt(),
+                    random.nextInt(3), random.nextInt(3));
+            o.role = random.nextInt(4) == 0 ? null : randomText(random);
+            su.objects.add(o);
+        }
+        if (random.nextBoolean()) su.currentTurn = randomText(random);
+        if (random.nextBoolean()) su.scoreR = random.nextInt(Integer.MAX_VALUE);
+        if (random.nextBoolean()) su.scoreY = random.nextInt(Integer.MAX_VALUE);
+        if (random.nextBoolean()) su.roundWinner = randomText(random);
+        if (random.nextBoolean()) su.gameWinner = randomText(random);
+        return su;
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int parts = random.nextInt(5);
+        for (int i = 0; i < parts; i++) {
+            if (random.nextInt(4) == 0) {
+                // cualquier caracter, tambien suplentes sueltos
+                sb.append((char) random.nextInt(Character.MAX_VALUE + 1));
+            } else {
+                sb.append(PARTS[random.nextInt(PARTS.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static ClientData player(String name, String color, String role) {
+        ClientData cd = new ClientData(name, color, 412, 233, 3, 5);
+        cd.role = role;
+        return cd;
+    }
+}
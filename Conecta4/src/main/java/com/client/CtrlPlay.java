@@ -11,6 +11,7 @@ import java.util.Set;
 
 import org.json.JSONObject;
 
+import com.shared.BinaryCodec;
 import com.shared.ClientData;
 import com.shared.GameObject;
 
@@ -41,6 +42,19 @@ public class CtrlPlay implements Initializable {
     // la ficha que he seleccionado
     private GameObject selectedObject = null;
 
+    // la ficha que he arrastrado desde el ultimo envio (va con el raton, al mismo ritmo)
+    private boolean dragDirty = false;
+
+    // la ficha que arrastra el contrincante (null si no arrastra ninguna)
+    private GameObject opponentDrag = null;
+
+    // posicion del raton pendiente de enviar
+    private static final int MOUSE_SEND_FPS = 30;
+    private static final long MOUSE_SEND_INTERVAL_NANOS = 1_000_000_000L / MOUSE_SEND_FPS;
+    private boolean mouseDirty = false;
+    private int pendingMouseX, pendingMouseY, pendingRow, pendingCol;
+    private long lastMouseSentAt = 0;
+
     // tamaño de las fichas
     private final double PIECE_RADIUS = 20;
     private final double PIECE_MARGIN = 10;
@@ -111,12 +125,56 @@ public class CtrlPlay implements Initializable {
     public void resetAnimations() {
         animatedPieces.clear();
         fallingPieces.clear();
+        opponentDrag = null;
+    }
+
+    // el servidor nos dice que ficha arrastra el otro jugador (id vacio o null si ninguna)
+    public void setOpponentDrag(String pieceId, int x, int y) {
+        if (pieceId == null || pieceId.isEmpty()) {
+            opponentDrag = null;
+            return;
+        }
+        opponentDrag = new GameObject(pieceId, x, y, 1, 1);
     }
 
     private void setOnMouseMoved(MouseEvent event) {
         double mouseX = event.getX();
         double mouseY = event.getY();
 
+        // solo guardar la ultima posicion, se envia en el siguiente hueco (el ultimo valor gana)
+        pendingMouseX = (int)mouseX;
+        pendingMouseY = (int)mouseY;
+        pendingRow = grid.isPositionInsideGrid(mouseX, mouseY) ? grid.getRow(mouseY) : -1;
+        pendingCol = grid.isPositionInsideGrid(mouseX, mouseY) ? grid.getCol(mouseX) : -1;
+        mouseDirty = true;
+    }
+
+    // enviar la posicion del raton y de la ficha arrastrada como mucho MOUSE_SEND_FPS veces por segundo
+    private void flushMouse() {
+        long now = System.nanoTime();
+        if ((!mouseDirty && !dragDirty) || now - lastMouseSentAt < MOUSE_SEND_INTERVAL_NANOS) {
+            return;
+        }
+        if (Main.wsClient == null || Main.clients == null) {
+            return;
+        }
+        lastMouseSentAt = now;
+
+        if (dragDirty) {
+            dragDirty = false;
+            sendDrag();
+        }
+        if (!mouseDirty) {
+            return;
+        }
+        mouseDirty = false;
+
+        // en binario solo viajan la posicion y la celda
+        if (Main.wsClient.isBinary()) {
+            Main.wsClient.safeSend(BinaryCodec.encodeMouse(pendingMouseX, pendingMouseY, pendingRow, pendingCol));
+            return;
+        }
+
         String color = Main.clients.stream()
             .filter(c -> c.name.equals(Main.clientName))
             .map(c -> c.color)
@@ -127,20 +185,36 @@ public class CtrlPlay implements Initializable {
         ClientData cd = new ClientData(
             Main.clientName, 
             color,
-            (int)mouseX, 
-            (int)mouseY,  
-            grid.isPositionInsideGrid(mouseX, mouseY) ? grid.getRow(mouseY) : -1,
-            grid.isPositionInsideGrid(mouseX, mouseY) ? grid.getCol(mouseX) : -1
+            pendingMouseX, 
+            pendingMouseY,  
+            pendingRow,
+            pendingCol
         );
 
         // enviar al servidor
         JSONObject msg = new JSONObject();
         msg.put("type", "clientMouseMoving");
         msg.put("value", cd.toJSON());
+        Main.wsClient.safeSend(msg.toString());
+    }
 
-        if (Main.wsClient != null) {
-            Main.wsClient.safeSend(msg.toString());
+    // enviar la ficha que arrastro, o ninguna si ya la he soltado: solo el id y la posicion
+    private void sendDrag() {
+        String pieceId = mouseDragging && selectedObject != null ? selectedObject.id : "";
+        int x = selectedObject != null ? selectedObject.x : 0;
+        int y = selectedObject != null ? selectedObject.y : 0;
+
+        if (Main.wsClient.isBinary()) {
+            Main.wsClient.safeSend(BinaryCodec.encodePieceMoving(BinaryCodec.pieceCode(pieceId), x, y));
+            return;
         }
+
+        JSONObject msg = new JSONObject();
+        msg.put("type", "clientPieceMoving");
+        msg.put("pieceId", pieceId);
+        msg.put("x", x);
+        msg.put("y", y);
+        Main.wsClient.safeSend(msg.toString());
     }
 
     private void onMousePressed(MouseEvent event) {
@@ -176,6 +250,7 @@ public class CtrlPlay implements Initializable {
             
             selectedObject = new GameObject(go.id, go.x, go.y, go.col, go.row);
             mouseDragging = true;
+            dragDirty = true;
             mouseOffsetX = mouseX - go.x;
             mouseOffsetY = mouseY - go.y;
             break;
@@ -190,6 +265,7 @@ public class CtrlPlay implements Initializable {
 
             selectedObject.x = (int)objX;
             selectedObject.y = (int)objY;
+            dragDirty = true;
         }
         setOnMouseMoved(event);
     }
@@ -204,17 +280,27 @@ public class CtrlPlay implements Initializable {
                 int col = grid.getCol(mouseX);
                 
                 // enviamos la jugada al servidor con la columna seleccionada y el ID de la ficha
-                JSONObject msg = new JSONObject();
-                msg.put("type", "clientPlay");
-                msg.put("column", col);
-                msg.put("pieceId", selectedObject.id);
-                
-                if (Main.wsClient != null) {
-                    Main.wsClient.safeSend(msg.toString());
+                if (Main.wsClient != null && Main.wsClient.isBinary()) {
+                    Main.wsClient.safeSend(BinaryCodec.encodePlay(col, selectedObject.id));
+                } else {
+                    JSONObject msg = new JSONObject();
+                    msg.put("type", "clientPlay");
+                    msg.put("column", col);
+                    msg.put("pieceId", selectedObject.id);
+
+                    if (Main.wsClient != null) {
+                        Main.wsClient.safeSend(msg.toString());
+                    }
                 }
             }
 
             mouseDragging = false;
+
+            // avisar ya de que la he soltado (despues de la jugada, que ya la quita)
+            dragDirty = false;
+            if (Main.wsClient != null) {
+                sendDrag();
+            }
             selectedObject = null;
         }
     }
@@ -259,6 +345,8 @@ public class CtrlPlay implements Initializable {
 
     // actualizar el juego y las animaciones
     private void run(double fps) {
+        flushMouse();
+
         if (animationTimer.fps < 1) return;
 
         // actualizar las fichas que estan cayendo
@@ -296,6 +384,11 @@ public class CtrlPlay implements Initializable {
         // dibujar todas las fichas
         drawAllPieces();
         
+        // dibujar la ficha que arrastra el otro jugador
+        if (opponentDrag != null) {
+            drawOpponentDrag(opponentDrag);
+        }
+
         // dibujar la ficha que estoy arrastrando encima de todo
         if (mouseDragging && selectedObject != null) {
             drawDraggedPiece(selectedObject);
@@ -349,6 +442,7 @@ public class CtrlPlay implements Initializable {
             
             // la ficha que esta siendo arrastrada se dibuja al final para que aparezca encima
             if (mouseDragging && selectedObject != null && piece.id.equals(selectedObject.id)) continue;
+            if (opponentDrag != null && piece.id.equals(opponentDrag.id)) continue;
             
             // determinamos el color de la ficha segun su ID
             Color pieceColor;
@@ -557,6 +651,16 @@ public class CtrlPlay implements Initializable {
         gc.strokeOval(piece.x - PIECE_RADIUS, piece.y - PIECE_RADIUS, 2 * PIECE_RADIUS, 2 * PIECE_RADIUS);
     }
 
+    // la ficha del otro jugador donde la tiene ahora, como sus demas fichas (medio transparente)
+    private void drawOpponentDrag(GameObject piece) {
+        Color pieceColor = piece.id.startsWith("R_") ? Color.RED : Color.YELLOW;
+        gc.setFill(pieceColor.deriveColor(0, 1, 1, 0.5));
+        gc.fillOval(piece.x - PIECE_RADIUS, piece.y - PIECE_RADIUS, 2 * PIECE_RADIUS, 2 * PIECE_RADIUS);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(2);
+        gc.strokeOval(piece.x - PIECE_RADIUS, piece.y - PIECE_RADIUS, 2 * PIECE_RADIUS, 2 * PIECE_RADIUS);
+    }
+
     public void drawObject(GameObject obj) {
         double cellSize = grid.getCellSize();
 
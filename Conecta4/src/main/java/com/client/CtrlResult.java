@@ -3,7 +3,7 @@ package com.client;
 import java.net.URL;
 import java.util.ResourceBundle;
 
-import org.json.JSONObject;
+import com.shared.ServerUpdate;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -37,16 +37,16 @@ public class CtrlResult implements Initializable {
     // actualizar la informacion del resultado final
     public void updateResultInfo() {
         // obtener datos del servidor
-        JSONObject serverData = Main.lastServerData;
+        ServerUpdate serverData = Main.lastServerData;
         
         if (serverData == null) {
             return;
         }
 
         // obtener el ganador final
-        String gameWinner = serverData.optString("gameWinner", "");
-        int scoreR = serverData.optInt("scoreR", 0);
-        int scoreY = serverData.optInt("scoreY", 0);
+        String gameWinner = serverData.gameWinner;
+        int scoreR = serverData.scoreR;
+        int scoreY = serverData.scoreY;
 
         // buscar el nombre del ganador en la lista de clientes
         String winnerName = "";
@@ -59,6 +59,11 @@ public class CtrlResult implements Initializable {
             }
         }
 
+        // empate: no hay ganador
+        if (ServerUpdate.DRAW.equals(gameWinner)) {
+            winnerName = "Empate";
+        }
+
         // mostrar el nombre del ganador
         txtPlayerName.setText(winnerName);
 
@@ -5,6 +5,8 @@ import java.util.ResourceBundle;
 
 import org.json.JSONObject;
 
+import com.shared.ServerUpdate;
+
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
@@ -33,16 +35,16 @@ public class CtrlWinner implements Initializable {
     // actualizar la informacion del ganador
     public void updateWinnerInfo() {
         // obtener datos del servidor
-        JSONObject serverData = Main.lastServerData;
+        ServerUpdate serverData = Main.lastServerData;
         
         if (serverData == null) {
             return;
         }
 
         // obtener el ganador de la ronda
-        String roundWinner = serverData.optString("roundWinner", "");
-        int scoreR = serverData.optInt("scoreR", 0);
-        int scoreY = serverData.optInt("scoreY", 0);
+        String roundWinner = serverData.roundWinner;
+        int scoreR = serverData.scoreR;
+        int scoreY = serverData.scoreY;
 
         // buscar el nombre del ganador
         String winnerName = "";
@@ -50,6 +52,8 @@ public class CtrlWinner implements Initializable {
             winnerName = "Charizard"; // nombre del jugador rojo
         } else if (roundWinner.equals("Y")) {
             winnerName = "Pikachu"; // nombre del jugador amarillo
+        } else if (roundWinner.equals(ServerUpdate.DRAW)) {
+            winnerName = "Empate";
         }
 
         // mostrar el nombre del ganador
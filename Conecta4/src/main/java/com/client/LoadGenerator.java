@@ -0,0 +1,549 @@
+package com.client;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.json.JSONObject;
+
+import com.shared.BinaryCodec;
+import com.shared.ClientData;
+import com.shared.DeflateExtension;
+import com.shared.GameObject;
+import com.shared.ServerUpdate;
+
+/**
+ * Generador de càrrega sense interfície: obre moltes connexions contra el servidor i
+ * cadascuna juga com un jugador de veritat, per saber fins on aguanta una sola màquina.
+ *
+ * Cada jugador mou el ratolí {@code mouseHz} vegades per segon mentre juga, quan li toca
+ * pensa una estona, arrossega una fitxa seva fins a una columna amb lloc
+ * ({@code clientPieceMoving}, al mateix ritme que el ratolí) i la deixa anar
+ * ({@code clientPlay}). Quan la partida s'acaba, el vermell demana la revenja i tornen a
+ * començar. Cada cinc segons i al final escriu els missatges i bytes rebuts per segon,
+ * les jugades, la latència des que s'envia una jugada fins al primer estat on la fitxa ja
+ * és al tauler (p50/p99/p999) i les connexions que han fallat o s'han tancat.
+ *
+ * <pre>
+ * java -Xss256k -cp target/classes:... com.client.LoadGenerator [url] [jugadors] [segons] [json|binary] [mouseHz] [connexions per segon]
+ * </pre>
+ *
+ * Cada connexió del client de Java-WebSocket fa servir dos fils (lectura i escriptura);
+ * per a milers de jugadors cal una pila petita ({@code -Xss}) i prou descriptors oberts.
+ * Si el generador comparteix màquina amb el servidor, també li pren CPU. La compressió
+ * s'ofereix com al client ({@code -Dc4.deflate=false} per no fer-la servir).
+ */
+public final class LoadGenerator {
+
+    private static final String T_SERVER_WELCOME = "serverWelcome";
+    private static final String T_COUNTDOWN = "countdown";
+    private static final String T_PIECE_MOVING = "serverPieceMoving";
+
+    // medidas del tablero del servidor (GameRoom): lo que este a la izquierda de
+    // BOARD_RIGHT esta en el tablero, lo demas son las fichas por jugar
+    private static final int GRID_START_X = 25;
+    private static final int GRID_START_Y = 25;
+    private static final int CELL_SIZE = 50;
+    private static final int GRID_COLS = 7;
+    private static final int GRID_ROWS = 6;
+    private static final int BOARD_RIGHT = 400;
+    private static final int CANVAS_WIDTH = 760;
+    private static final int CANVAS_HEIGHT = 420;
+
+    // un humano piensa entre medio segundo y dos y medio; el ultimo tercio arrastra la ficha
+    private static final long THINK_MIN_MILLIS = 500;
+    private static final long THINK_MAX_MILLIS = 2500;
+    private static final long REMATCH_DELAY_MILLIS = 1000;
+    // si en este tiempo la ficha no llega al tablero, la jugada se da por perdida
+    private static final long PLAY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final long REPORT_MILLIS = 5000;
+
+    private static final LongAdder MESSAGES_IN = new LongAdder();
+    private static final LongAdder BYTES_IN = new LongAdder();
+    private static final LongAdder MESSAGES_OUT = new LongAdder();
+    private static final LongAdder BYTES_OUT = new LongAdder();
+    private static final LongAdder PLAYS = new LongAdder();
+    private static final LongAdder DRAGS_IN = new LongAdder();
+    private static final LongAdder PLAYS_LOST = new LongAdder();
+    private static final LongAdder GAMES = new LongAdder();
+    private static final LongAdder OPEN = new LongAdder();
+    private static final LongAdder CONNECT_FAILURES = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder SEND_ERRORS = new LongAdder();
+
+    private static final Latencies LATENCIES = new Latencies();
+
+    private static volatile boolean running = true;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "ws://localhost:3000";
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        boolean binary = args.length > 3 && args[3].equals("binary");
+        int mouseHz = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+        int rampPerSecond = args.length > 5 ? Integer.parseInt(args[5]) : 200;
+
+        URI uri = new URI(url);
+        List<Player> all = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            all.add(new Player(uri, binary, new Random(i)));
+        }
+        System.out.printf("%s, %d players, %ds, %s, mouse %d Hz, %d connections/s%n",
+                url, players, seconds, binary ? "binary" : "json", mouseHz, rampPerSecond);
+
+        // los jugadores se reparten entre unos pocos hilos que les dan cuerda a mouseHz
+        int tickThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        ScheduledExecutorService ticker = Executors.newScheduledThreadPool(tickThreads, r -> {
+            Thread t = new Thread(r, "LoadTicker");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodMicros = 1_000_000L / Math.max(1, mouseHz);
+        for (int s = 0; s < tickThreads; s++) {
+            int slice = s;
+            ticker.scheduleAtFixedRate(() -> {
+                long now = System.currentTimeMillis();
+                for (int i = slice; i < all.size(); i += tickThreads) {
+                    all.get(i).tick(now);
+                }
+            }, 0, periodMicros, TimeUnit.MICROSECONDS);
+        }
+
+        // abrir las conexiones poco a poco, como llegan los jugadores de verdad
+        long start = System.currentTimeMillis();
+        long end = start + TimeUnit.SECONDS.toMillis(seconds);
+        long nextReport = start + REPORT_MILLIS;
+        long[] last = new long[3];
+        int connected = 0;
+        while (System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+            int due = (int) Math.min(players, (now - start) * rampPerSecond / 1000 + 1);
+            while (connected < due) {
+                all.get(connected++).connect();
+            }
+            if (now >= nextReport) {
+                report(now - start, REPORT_MILLIS, last);
+                nextReport += REPORT_MILLIS;
+            }
+            Thread.sleep(10);
+        }
+
+        running = false;
+        ticker.shutdownNow();
+        long elapsed = System.currentTimeMillis() - start;
+        for (Player p : all) {
+            p.close();
+        }
+        summary(elapsed);
+        // los hilos de Java-WebSocket no son daemon y el cierre puede no llegar a todos
+        System.exit(0);
+    }
+
+    // una linea por intervalo con lo que ha pasado desde la anterior
+    private static void report(long elapsedMillis, long intervalMillis, long[] last) {
+        long messages = MESSAGES_IN.sum();
+        long bytes = BYTES_IN.sum();
+        long plays = PLAYS.sum();
+        double secs = intervalMillis / 1000.0;
+        long[] lat = LATENCIES.sinceLastReport();
+        System.out.printf("%5ds open %6d  in %9.0f msg/s %8.2f MB/s  plays %7.1f/s  p50 %7.2f ms  p99 %7.2f ms  failed %d dropped %d%n",
+                elapsedMillis / 1000, OPEN.sum(),
+                (messages - last[0]) / secs, (bytes - last[1]) / secs / 1e6, (plays - last[2]) / secs,
+                percentile(lat, 0.50) / 1e6, percentile(lat, 0.99) / 1e6,
+                CONNECT_FAILURES.sum(), DROPPED.sum());
+        last[0] = messages;
+        last[1] = bytes;
+        last[2] = plays;
+    }
+
+    private static void summary(long elapsedMillis) {
+        double secs = elapsedMillis / 1000.0;
+        long[] lat = LATENCIES.all();
+        System.out.println();
+        System.out.printf("elapsed           %10.1f s%n", secs);
+        System.out.printf("messages in       %10d (%.0f/s)%n", MESSAGES_IN.sum(), MESSAGES_IN.sum() / secs);
+        System.out.printf("bytes in          %10d (%.2f MB/s)%n", BYTES_IN.sum(), BYTES_IN.sum() / secs / 1e6);
+        System.out.printf("messages out      %10d (%.0f/s)%n", MESSAGES_OUT.sum(), MESSAGES_OUT.sum() / secs);
+        System.out.printf("bytes out         %10d (%.2f MB/s)%n", BYTES_OUT.sum(), BYTES_OUT.sum() / secs / 1e6);
+        System.out.printf("plays             %10d (%.1f/s), %d lost%n", PLAYS.sum(), PLAYS.sum() / secs, PLAYS_LOST.sum());
+        System.out.printf("opponent drags in %10d (%.0f/s)%n", DRAGS_IN.sum(), DRAGS_IN.sum() / secs);
+        System.out.printf("games finished    %10d%n", GAMES.sum());
+        System.out.printf("play -> state     p50 %.2f ms  p99 %.2f ms  p999 %.2f ms  max %.2f ms (%d samples)%n",
+                percentile(lat, 0.50) / 1e6, percentile(lat, 0.99) / 1e6, percentile(lat, 0.999) / 1e6,
+                (lat.length == 0 ? 0 : lat[lat.length - 1]) / 1e6, lat.length);
+        System.out.printf("connect failures  %10d%n", CONNECT_FAILURES.sum());
+        System.out.printf("dropped by server %10d%n", DROPPED.sum());
+        System.out.printf("send errors       %10d%n", SEND_ERRORS.sum());
+    }
+
+    // percentil sobre muestras ya ordenadas
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    // bytes en UTF-8 de un texto sin crear el array
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /** Latències de jugada a estat en nanosegons; n'hi ha poques, es guarden totes. */
+    private static final class Latencies {
+
+        private long[] samples = new long[1024];
+        private int count = 0;
+        private int reported = 0;
+
+        synchronized void add(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        synchronized long[] sinceLastReport() {
+            long[] copy = Arrays.copyOfRange(samples, reported, count);
+            reported = count;
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        synchronized long[] all() {
+            long[] copy = Arrays.copyOf(samples, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    /**
+     * Un jugador: una connexió i el seu guió. L'estat arriba pel fil de lectura de la
+     * connexió i el guió avança en un fil del generador; tots dos passen pel monitor del
+     * jugador.
+     */
+    private static final class Player extends WebSocketClient {
+
+        private final boolean binary;
+        private final Random random;
+
+        private boolean opened = false;
+        private String name = null;
+        private ServerUpdate state = null;
+        private boolean started = false;
+        private boolean gameOver = false;
+        private long rematchAt = 0;
+
+        // raton: paseo aleatorio mientras no arrastra
+        private int mouseX;
+        private int mouseY;
+
+        // turno en curso: cuando se empieza a arrastrar y cuando se suelta
+        private long dragAt = 0;
+        private long playAt = 0;
+        private String pieceId = null;
+        private int pieceX;
+        private int pieceY;
+        private int column;
+
+        // jugada enviada que aun no ha vuelto en un estado
+        private String pendingPiece = null;
+        private long pendingSince;
+
+        Player(URI uri, boolean binary, Random random) {
+            super(uri, binary
+                    ? new Draft_6455(DeflateExtension.fromProperties(), List.<IProtocol>of(new Protocol(BinaryCodec.PROTOCOL)))
+                    : new Draft_6455(DeflateExtension.fromProperties()));
+            this.binary = binary;
+            this.random = random;
+            this.mouseX = random.nextInt(CANVAS_WIDTH);
+            this.mouseY = random.nextInt(CANVAS_HEIGHT);
+        }
+
+        @Override
+        public synchronized void onOpen(ServerHandshake handshake) {
+            opened = true;
+            OPEN.increment();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            MESSAGES_IN.increment();
+            BYTES_IN.add(utf8Length(message));
+            JSONObject msgObj = new JSONObject(message);
+            switch (msgObj.optString("type")) {
+                case T_SERVER_WELCOME:
+                    synchronized (this) {
+                        name = msgObj.getString("clientName");
+                    }
+                    break;
+
+                case ServerUpdate.T_SERVER_DATA:
+                case ServerUpdate.T_SERVER_DELTA:
+                    onUpdate(ServerUpdate.fromJSON(msgObj));
+                    break;
+
+                case T_COUNTDOWN:
+                    onCountdown(msgObj.getInt("value"));
+                    break;
+
+                case T_PIECE_MOVING:
+                    DRAGS_IN.increment();
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            MESSAGES_IN.increment();
+            BYTES_IN.add(message.remaining());
+            if (BinaryCodec.peekType(message) == BinaryCodec.T_PIECE_MOVING) {
+                DRAGS_IN.increment();
+                return;
+            }
+            onUpdate(BinaryCodec.decodeUpdate(message));
+        }
+
+        @Override
+        public synchronized void onClose(int code, String reason, boolean remote) {
+            if (!opened) {
+                CONNECT_FAILURES.increment();
+                return;
+            }
+            opened = false;
+            OPEN.decrement();
+            if (running) {
+                DROPPED.increment();
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            // el cierre llega despues por onClose, alli se cuenta
+        }
+
+        private synchronized void onCountdown(int value) {
+            // una cuenta nueva es una partida nueva (otro rival)
+            started = value == 0;
+            gameOver = false;
+            pendingPiece = null;
+            playAt = 0;
+        }
+
+        private synchronized void onUpdate(ServerUpdate update) {
+            long now = System.nanoTime();
+            if (!update.keyframe && state == null) {
+                return;
+            }
+            if (state == null) {
+                state = new ServerUpdate(true);
+            }
+            state.merge(update);
+
+            // la jugada ha vuelto cuando su ficha aparece en el tablero
+            if (pendingPiece != null) {
+                GameObject piece = update.findObject(pendingPiece);
+                if (piece != null && piece.x < BOARD_RIGHT) {
+                    LATENCIES.add(now - pendingSince);
+                    pendingPiece = null;
+                }
+            }
+
+            boolean finished = state.gameWinner != null && !state.gameWinner.isEmpty();
+            if (finished && !gameOver) {
+                gameOver = true;
+                playAt = 0;
+                if ("R".equals(role())) {
+                    GAMES.increment();
+                    rematchAt = System.currentTimeMillis() + REMATCH_DELAY_MILLIS;
+                }
+            } else if (!finished && gameOver) {
+                // revancha: la partida vuelve a empezar sin cuenta atras
+                gameOver = false;
+                rematchAt = 0;
+            }
+        }
+
+        // un paso del guion: mover el raton y, si toca, arrastrar y jugar
+        synchronized void tick(long now) {
+            if (!opened || !started || state == null) {
+                return;
+            }
+            if (gameOver) {
+                if (rematchAt != 0 && now >= rematchAt) {
+                    rematchAt = 0;
+                    send("{\"type\":\"clientRematch\"}");
+                }
+                return;
+            }
+            if (pendingPiece != null && System.nanoTime() - pendingSince > PLAY_TIMEOUT_NANOS) {
+                PLAYS_LOST.increment();
+                pendingPiece = null;
+            }
+
+            String role = role();
+            boolean myTurn = role != null && role.equals(state.currentTurn)
+                    && (state.roundWinner == null || state.roundWinner.isEmpty());
+            if (myTurn && pendingPiece == null && playAt == 0) {
+                planTurn(now, role);
+            }
+
+            if (playAt != 0 && now >= playAt) {
+                play();
+            } else if (playAt != 0 && now >= dragAt) {
+                // arrastrar la ficha hacia la columna, el raton la lleva
+                double t = (double) (now - dragAt) / (playAt - dragAt);
+                mouseX = (int) (pieceX + (columnX(column) - pieceX) * t);
+                mouseY = (int) (pieceY + (GRID_START_Y + CELL_SIZE / 2 - pieceY) * t);
+                sendDrag(pieceId);
+            } else {
+                mouseX = Math.max(0, Math.min(CANVAS_WIDTH, mouseX + random.nextInt(21) - 10));
+                mouseY = Math.max(0, Math.min(CANVAS_HEIGHT, mouseY + random.nextInt(21) - 10));
+            }
+            sendMouse();
+        }
+
+        // elegir ficha y columna, y cuanto se piensa
+        private void planTurn(long now, String role) {
+            int[] heights = new int[GRID_COLS];
+            GameObject free = null;
+            for (GameObject o : state.objects) {
+                if (o.x < BOARD_RIGHT) {
+                    int col = (o.x - GRID_START_X) / CELL_SIZE;
+                    if (col >= 0 && col < GRID_COLS) {
+                        heights[col]++;
+                    }
+                } else if (free == null && role.equals(o.role)) {
+                    free = o;
+                }
+            }
+            int open = 0;
+            for (int h : heights) {
+                if (h < GRID_ROWS) {
+                    open++;
+                }
+            }
+            if (free == null || open == 0) {
+                return;
+            }
+            int pick = random.nextInt(open);
+            for (int c = 0; c < GRID_COLS; c++) {
+                if (heights[c] < GRID_ROWS && pick-- == 0) {
+                    column = c;
+                    break;
+                }
+            }
+            pieceId = free.id;
+            pieceX = free.x;
+            pieceY = free.y;
+            long think = THINK_MIN_MILLIS + (long) (random.nextDouble() * (THINK_MAX_MILLIS - THINK_MIN_MILLIS));
+            playAt = now + think;
+            dragAt = now + think * 2 / 3;
+        }
+
+        private void play() {
+            playAt = 0;
+            pendingPiece = pieceId;
+            pendingSince = System.nanoTime();
+            PLAYS.increment();
+            if (binary) {
+                send(BinaryCodec.encodePlay(column, pieceId));
+            } else {
+                send("{\"type\":\"clientPlay\",\"column\":" + column + ",\"pieceId\":\"" + pieceId + "\"}");
+            }
+            // como el cliente: soltar la ficha despues de la jugada
+            sendDrag(null);
+        }
+
+        // la ficha que arrastra (null si la ha soltado), donde esta el raton
+        private void sendDrag(String id) {
+            if (binary) {
+                send(BinaryCodec.encodePieceMoving(BinaryCodec.pieceCode(id), mouseX, mouseY));
+            } else {
+                send("{\"type\":\"clientPieceMoving\",\"pieceId\":\"" + (id != null ? id : "") + "\",\"x\":" + mouseX
+                        + ",\"y\":" + mouseY + "}");
+            }
+        }
+
+        private void sendMouse() {
+            boolean inside = mouseX >= GRID_START_X && mouseX < GRID_START_X + GRID_COLS * CELL_SIZE
+                    && mouseY >= GRID_START_Y && mouseY < GRID_START_Y + GRID_ROWS * CELL_SIZE;
+            int row = inside ? (mouseY - GRID_START_Y) / CELL_SIZE : -1;
+            int col = inside ? (mouseX - GRID_START_X) / CELL_SIZE : -1;
+            if (binary) {
+                send(BinaryCodec.encodeMouse(mouseX, mouseY, row, col));
+            } else {
+                send("{\"type\":\"clientMouseMoving\",\"value\":{\"mouseX\":" + mouseX + ",\"mouseY\":" + mouseY
+                        + ",\"row\":" + row + ",\"col\":" + col + "}}");
+            }
+        }
+
+        private String role() {
+            if (name == null) {
+                return null;
+            }
+            ClientData me = state.findClient(name);
+            return me != null ? me.role : null;
+        }
+
+        private static int columnX(int column) {
+            return GRID_START_X + column * CELL_SIZE + CELL_SIZE / 2;
+        }
+
+        @Override
+        public void send(String text) {
+            try {
+                super.send(text);
+                MESSAGES_OUT.increment();
+                BYTES_OUT.add(utf8Length(text));
+            } catch (RuntimeException e) {
+                SEND_ERRORS.increment();
+            }
+        }
+
+        @Override
+        public void send(byte[] data) {
+            try {
+                super.send(data);
+                MESSAGES_OUT.increment();
+                BYTES_OUT.add(data.length);
+            } catch (RuntimeException e) {
+                SEND_ERRORS.increment();
+            }
+        }
+    }
+}
@@ -6,8 +6,10 @@ import java.util.List;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.shared.BinaryCodec;
 import com.shared.ClientData;
 import com.shared.GameObject;
+import com.shared.ServerUpdate;
 
 import javafx.animation.PauseTransition;
 import javafx.application.Application;
@@ -27,7 +29,7 @@ public class Main extends Application {
     public static List<ClientData> clients;
     public static List<GameObject> objects;
     public static boolean isMyTurn = false;
-    public static JSONObject lastServerData = null; // datos del servidor
+    public static ServerUpdate lastServerData = null; // estado completo recibido del servidor
 
     public static CtrlConfig ctrlConfig;
     public static CtrlWait ctrlWait;
@@ -115,6 +117,17 @@ public class Main extends Application {
             wsClient = UtilsWS.getSharedInstance(protocol + "://" + host + ":" + port);
     
             wsClient.onMessage((response) -> { Platform.runLater(() -> { wsMessage(response); }); });
+            wsClient.onBinaryMessage((response) -> {
+                // decodificar fuera del hilo de JavaFX, el buffer no se puede guardar
+                if (BinaryCodec.peekType(response) == BinaryCodec.T_PIECE_MOVING) {
+                    int[] drag = new int[3];
+                    BinaryCodec.decodePieceMoving(response, drag);
+                    Platform.runLater(() -> { wsPieceMoving(BinaryCodec.pieceId(drag[0]), drag[1], drag[2]); });
+                    return;
+                }
+                ServerUpdate update = BinaryCodec.decodeUpdate(response);
+                Platform.runLater(() -> { wsBinaryMessage(update); });
+            });
             wsClient.onError((response) -> { Platform.runLater(() -> { wsError(response); }); });
         });
     }
@@ -125,139 +138,29 @@ public class Main extends Application {
         
         JSONObject msgObj = new JSONObject(response);
         switch (msgObj.getString("type")) {
-            case "serverData":
-                // guardar datos del servidor
-                lastServerData = msgObj;
-                
+            case "serverWelcome":
+                // el servidor nos dice nuestro nombre una sola vez al conectar
                 clientName = msgObj.getString("clientName");
+                break;
 
-                JSONArray arrClients = msgObj.getJSONArray("clientsList");
-                List<ClientData> newClients = new ArrayList<>();
-                for (int i = 0; i < arrClients.length(); i++) {
-                    JSONObject obj = arrClients.getJSONObject(i);
-                    newClients.add(ClientData.fromJSON(obj));
-                }
-                clients = newClients;
-
-                JSONArray arrObjects = msgObj.getJSONArray("objectsList");
-                List<GameObject> newObjects = new ArrayList<>();
-                for (int i = 0; i < arrObjects.length(); i++) {
-                    JSONObject obj = arrObjects.getJSONObject(i);
-                    newObjects.add(GameObject.fromJSON(obj));
-                }
-                
-                // Detect pieces that moved to the board (for falling animation)
-                if (objects != null && ctrlPlay != null) {
-                    for (GameObject newObj : newObjects) {
-                        // Buscar si este objeto existia antes
-                        GameObject oldObj = objects.stream()
-                            .filter(o -> o.id.equals(newObj.id))
-                            .findFirst()
-                            .orElse(null);
-                        
-                        // detectar si una ficha fue colocada en el tablero
-                        // la ficha estaba fuera del tablero (x > 400) y ahora esta dentro (x < 400)
-                        // O la Y cambio significativamente (fue colocada en una columna)
-                        if (oldObj != null) {
-                            boolean wasOffBoard = oldObj.x > 400;
-                            boolean isOnBoard = newObj.x < 400;
-                            boolean positionChanged = Math.abs(oldObj.y - newObj.y) > 5;
-                            
-                            // si la ficha paso de fuera a dentro del tablero
-                            if (wasOffBoard && isOnBoard) {
-                                // empezar animacion desde arriba de su columna
-                                double startY = 50.0; // arriba del tablero (25 inicio + 25 centro celda)
-                                double targetY = newObj.y; // posicion final del servidor
-                                
-                                ctrlPlay.startFallingAnimation(newObj.id, startY, targetY);
-                            }
-                        }
-                    }
-                }
-                
-                objects = newObjects;
-
-                // comprobar si hay ganador de ronda o final
-                String roundWinner = msgObj.optString("roundWinner", null);
-                String gameWinner = msgObj.optString("gameWinner", null);
-                
-                String activeView = UtilsViews.getActiveView();
-                
-                if (gameWinner != null && !gameWinner.isEmpty()) {
-                    // hay ganador final, desconectar del servidor y mostrar resultado
-                    if (wsClient != null) {
-                        wsClient.forceExit();
-                        wsClient = null;
-                    }
-                    
-                    ctrlResult.updateResultInfo();
-                    if (activeView == null || !activeView.equals("ViewResult")) {
-                        UtilsViews.setViewAnimating("ViewResult");
-                    }
-                } else if (roundWinner != null && !roundWinner.isEmpty()) {
-                    // hay ganador de ronda, ir a vista de winner
-                    ctrlWinner.updateWinnerInfo();
-                    if (activeView == null || !activeView.equals("ViewWinner")) {
-                        UtilsViews.setViewAnimating("ViewWinner");
-                    }
-                } else {
-                    // no hay ganador, continuar juego normal
-                    // si estabamos en vista de winner/result, volver a play
-                    if (activeView != null && (activeView.equals("ViewWinner") || activeView.equals("ViewResult"))) {
-                        // resetear animaciones para la nueva ronda
-                        if (ctrlPlay != null) {
-                            ctrlPlay.resetAnimations();
-                            ctrlPlay.start();
-                        }
-                        UtilsViews.setViewAnimating("ViewPlay");
-                    }
-                    
-                    // Actualizar informacion del turno
-                    String currentTurn = msgObj.optString("currentTurn", "");
-                    if (!currentTurn.isEmpty() && clients.size() > 0) {
-                        ClientData myClient = clients.stream()
-                            .filter(c -> c.name.equals(clientName))
-                            .findFirst()
-                            .orElse(null);
-                        
-                        if (myClient != null && myClient.role != null) {
-                            isMyTurn = myClient.role.equals(currentTurn);
-                            String colorName = currentTurn.equals("R") ? "ROJO" : "AMARILLO";
-                            String turnText;
-                            if (isMyTurn) {
-                                turnText = "TU TURNO (" + colorName + ")";
-                            } else {
-                                turnText = "TURNO: " + colorName;
-                            }
-                            // verificar que ctrlPlay existe antes de actualizar
-                            if (ctrlPlay != null && ctrlPlay.title != null) {
-                                ctrlPlay.title.setText(turnText);
-                            }
-                        }
-                    }
-                }
+            case "serverData":
+                applyServerUpdate(ServerUpdate.fromJSON(msgObj));
+                updateServerViews();
+                break;
 
-                if (clients.size() == 1) {
-                    // solo actualizar la lista de espera si estamos en esa vista
-                    if (ctrlWait != null && ctrlWait.txtPlayer0 != null) {
-                        ctrlWait.txtPlayer0.setText(clients.get(0).name);
-                    }
-                } else if (clients.size() > 1) {
-                    // verificar que ctrlWait existe antes de actualizar
-                    if (ctrlWait != null && ctrlWait.txtPlayer0 != null && ctrlWait.txtPlayer1 != null) {
-                        ctrlWait.txtPlayer0.setText(clients.get(0).name);
-                        ctrlWait.txtPlayer1.setText(clients.get(1).name);
-                    }
-                    // No sobrescribir el texto del turno aqui - ya esta establecido arriba
-                }
-                
-                String activeViewAtEnd = UtilsViews.getActiveView();
-                if (activeViewAtEnd != null && activeViewAtEnd.equals("ViewConfig")) {
-                    UtilsViews.setViewAnimating("ViewWait");
+            case "serverDelta":
+                // sin el estado completo no se puede aplicar un delta
+                if (lastServerData == null) {
+                    break;
                 }
-
+                applyServerUpdate(ServerUpdate.fromJSON(msgObj));
+                updateServerViews();
                 break;
             
+            case "serverPieceMoving":
+                wsPieceMoving(msgObj.optString("pieceId", ""), msgObj.optInt("x"), msgObj.optInt("y"));
+                break;
+
             case "countdown":
                 int value = msgObj.getInt("value");
                 String txt = String.valueOf(value);
@@ -282,6 +185,139 @@ public class Main extends Application {
         }
     }
 
+    private static void wsBinaryMessage(ServerUpdate update) {
+        // sin el estado completo no se puede aplicar un delta
+        if (!update.keyframe && lastServerData == null) {
+            return;
+        }
+        applyServerUpdate(update);
+        updateServerViews();
+    }
+
+    // la ficha que arrastra el otro jugador
+    private static void wsPieceMoving(String pieceId, int x, int y) {
+        if (ctrlPlay != null) {
+            ctrlPlay.setOpponentDrag(pieceId, x, y);
+        }
+    }
+
+    // aplicar un keyframe o un delta al estado guardado
+    private static void applyServerUpdate(ServerUpdate update) {
+        // Detect pieces that moved to the board (for falling animation)
+        if (lastServerData != null && ctrlPlay != null) {
+            for (GameObject newObj : update.objects) {
+                // Buscar si este objeto existia antes
+                GameObject oldObj = lastServerData.findObject(newObj.id);
+
+                // detectar si una ficha fue colocada en el tablero
+                // la ficha estaba fuera del tablero (x > 400) y ahora esta dentro (x < 400)
+                if (oldObj != null) {
+                    boolean wasOffBoard = oldObj.x > 400;
+                    boolean isOnBoard = newObj.x < 400;
+
+                    // si la ficha paso de fuera a dentro del tablero
+                    if (wasOffBoard && isOnBoard) {
+                        // empezar animacion desde arriba de su columna
+                        double startY = 50.0; // arriba del tablero (25 inicio + 25 centro celda)
+                        double targetY = newObj.y; // posicion final del servidor
+
+                        ctrlPlay.startFallingAnimation(newObj.id, startY, targetY);
+                    }
+                }
+            }
+        }
+
+        if (lastServerData == null) {
+            lastServerData = new ServerUpdate(true);
+        }
+        lastServerData.merge(update);
+
+        clients = lastServerData.clients;
+        objects = lastServerData.objects;
+    }
+
+    // actualizar las vistas con el estado guardado
+    private static void updateServerViews() {
+        // comprobar si hay ganador de ronda o final
+        String roundWinner = lastServerData.roundWinner;
+        String gameWinner = lastServerData.gameWinner;
+        
+        String activeView = UtilsViews.getActiveView();
+        
+        if (gameWinner != null && !gameWinner.isEmpty()) {
+            // hay ganador final, desconectar del servidor y mostrar resultado
+            if (wsClient != null) {
+                wsClient.forceExit();
+                wsClient = null;
+            }
+            
+            ctrlResult.updateResultInfo();
+            if (activeView == null || !activeView.equals("ViewResult")) {
+                UtilsViews.setViewAnimating("ViewResult");
+            }
+        } else if (roundWinner != null && !roundWinner.isEmpty()) {
+            // hay ganador de ronda, ir a vista de winner
+            ctrlWinner.updateWinnerInfo();
+            if (activeView == null || !activeView.equals("ViewWinner")) {
+                UtilsViews.setViewAnimating("ViewWinner");
+            }
+        } else {
+            // no hay ganador, continuar juego normal
+            // si estabamos en vista de winner/result, volver a play
+            if (activeView != null && (activeView.equals("ViewWinner") || activeView.equals("ViewResult"))) {
+                // resetear animaciones para la nueva ronda
+                if (ctrlPlay != null) {
+                    ctrlPlay.resetAnimations();
+                    ctrlPlay.start();
+                }
+                UtilsViews.setViewAnimating("ViewPlay");
+            }
+            
+            // Actualizar informacion del turno
+            String currentTurn = lastServerData.currentTurn;
+            if (!currentTurn.isEmpty() && clients.size() > 0) {
+                ClientData myClient = clients.stream()
+                    .filter(c -> c.name.equals(clientName))
+                    .findFirst()
+                    .orElse(null);
+                
+                if (myClient != null && myClient.role != null) {
+                    isMyTurn = myClient.role.equals(currentTurn);
+                    String colorName = currentTurn.equals("R") ? "ROJO" : "AMARILLO";
+                    String turnText;
+                    if (isMyTurn) {
+                        turnText = "TU TURNO (" + colorName + ")";
+                    } else {
+                        turnText = "TURNO: " + colorName;
+                    }
+                    // verificar que ctrlPlay existe antes de actualizar
+                    if (ctrlPlay != null && ctrlPlay.title != null) {
+                        ctrlPlay.title.setText(turnText);
+                    }
+                }
+            }
+        }
+
+        if (clients.size() == 1) {
+            // solo actualizar la lista de espera si estamos en esa vista
+            if (ctrlWait != null && ctrlWait.txtPlayer0 != null) {
+                ctrlWait.txtPlayer0.setText(clients.get(0).name);
+            }
+        } else if (clients.size() > 1) {
+            // verificar que ctrlWait existe antes de actualizar
+            if (ctrlWait != null && ctrlWait.txtPlayer0 != null && ctrlWait.txtPlayer1 != null) {
+                ctrlWait.txtPlayer0.setText(clients.get(0).name);
+                ctrlWait.txtPlayer1.setText(clients.get(1).name);
+            }
+            // No sobrescribir el texto del turno aqui - ya esta establecido arriba
+        }
+        
+        String activeViewAtEnd = UtilsViews.getActiveView();
+        if (activeViewAtEnd != null && activeViewAtEnd.equals("ViewConfig")) {
+            UtilsViews.setViewAnimating("ViewWait");
+        }
+    }
+
     private static void wsError(String response) {
         String connectionRefused = "Connection refused";
         if (response.indexOf(connectionRefused) != -1) {
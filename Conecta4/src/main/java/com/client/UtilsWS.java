@@ -2,6 +2,8 @@ package com.client;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -11,6 +13,11 @@ import java.util.function.Consumer;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import com.shared.BinaryCodec;
+import com.shared.DeflateExtension;
 
 public class UtilsWS {
 
@@ -18,6 +25,7 @@ public class UtilsWS {
     private WebSocketClient client;
     private Consumer<String> onOpenCallBack = null;
     private Consumer<String> onMessageCallBack = null;
+    private Consumer<ByteBuffer> onBinaryMessageCallBack = null;
     private Consumer<String> onCloseCallBack = null;
     private Consumer<String> onErrorCallBack = null;
     private String location = "";
@@ -32,7 +40,10 @@ public class UtilsWS {
 
     private void createNewWebSocketClient() {
         try {
-            this.client = new WebSocketClient(new URI(location), new Draft_6455()) {
+            // pedir el formato binario, si el servidor no lo conoce se usa JSON; y ofrecer
+            // compresion (c4.deflate), si el servidor no la acepta los mensajes van tal cual
+            List<IProtocol> protocols = List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol(""));
+            this.client = new WebSocketClient(new URI(location), new Draft_6455(DeflateExtension.fromProperties(), protocols)) {
                 @Override
                 public void onOpen(ServerHandshake handshake) {
                     String message = "WS connected to: " + getURI();
@@ -49,6 +60,13 @@ public class UtilsWS {
                     }
                 }
 
+                @Override
+                public void onMessage(ByteBuffer message) {
+                    if (onBinaryMessageCallBack != null) {
+                        onBinaryMessageCallBack.accept(message);
+                    }
+                }
+
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     String message = "WS closed connection from: " + getURI() + " with reason: " + reason;
@@ -119,6 +137,10 @@ public class UtilsWS {
         this.onMessageCallBack = callBack;
     }
 
+    public void onBinaryMessage(Consumer<ByteBuffer> callBack) {
+        this.onBinaryMessageCallBack = callBack;
+    }
+
     public void onClose(Consumer<String> callBack) {
         this.onCloseCallBack = callBack;
     }
@@ -140,6 +162,28 @@ public class UtilsWS {
         }
     }
 
+    public void safeSend(byte[] data) {
+        try {
+            if (client != null && client.isOpen()) {
+                client.send(data);
+            } else {
+                System.out.println("WS Error: Client is not connected. Attempting to reconnect...");
+                scheduleReconnect();
+            }
+        } catch (Exception e) {
+            System.out.println("WS Error sending message: " + e.getMessage());
+        }
+    }
+
+    // el servidor ha aceptado el formato binario
+    public boolean isBinary() {
+        if (client == null || !client.isOpen()) {
+            return false;
+        }
+        IProtocol protocol = client.getProtocol();
+        return protocol != null && BinaryCodec.PROTOCOL.equals(protocol.getProvidedProtocol());
+    }
+
     public void forceExit() {
         System.out.println("WS Closing ...");
         exitRequested.set(true);
@@ -0,0 +1,135 @@
+package com.server;
+
+/**
+ * Tauler de Connecta 4 representat amb bits.
+ *
+ * Cada jugador té un long amb un bit per cel·la. Les columnes ocupen blocs de
+ * {@code ROWS + 1} bits (el bit de més fa de separador perquè els desplaçaments no
+ * travessin columnes) i dins de cada bloc el bit 0 és la fila de baix:
+ *
+ * <pre>
+ *  .  .  .  .  .  .  .    (separador)
+ *  5 12 19 26 33 40 47
+ *  4 11 18 25 32 39 46
+ *  3 10 17 24 31 38 45
+ *  2  9 16 23 30 37 44
+ *  1  8 15 22 29 36 43
+ *  0  7 14 21 28 35 42
+ * </pre>
+ *
+ * Posar una fitxa i comprovar quatre en línia són unes poques operacions de bits,
+ * sense recórrer el tauler ni crear objectes.
+ */
+final class Bitboard {
+
+    static final int ROWS = 6;
+    static final int COLS = 7;
+
+    /** Jugador vermell. */
+    static final int RED = 0;
+
+    /** Jugador groc. */
+    static final int YELLOW = 1;
+
+    private static final int COL_BITS = ROWS + 1;
+
+    /** Fitxes de cada jugador. */
+    private final long[] pieces = new long[2];
+
+    /** Quantes fitxes hi ha a cada columna. */
+    private final int[] heights = new int[COLS];
+
+    /** Total de fitxes posades. */
+    private int moves = 0;
+
+    /** Buida el tauler. */
+    void clear() {
+        pieces[RED] = 0L;
+        pieces[YELLOW] = 0L;
+        for (int c = 0; c < COLS; c++) {
+            heights[c] = 0;
+        }
+        moves = 0;
+    }
+
+    /**
+     * Indica si es pot posar una fitxa a la columna.
+     *
+     * @param col columna (0 a COLS-1)
+     * @return true si la columna és vàlida i no està plena
+     */
+    boolean canPlay(int col) {
+        return col >= 0 && col < COLS && heights[col] < ROWS;
+    }
+
+    /**
+     * Deixa caure una fitxa del jugador a la columna.
+     *
+     * @param col columna on es juga
+     * @param player {@link #RED} o {@link #YELLOW}
+     * @return fila on ha caigut comptant des de baix (0 = fila inferior), o -1 si no es pot jugar
+     */
+    int play(int col, int player) {
+        if (!canPlay(col)) {
+            return -1;
+        }
+        int row = heights[col];
+        pieces[player] |= 1L << (col * COL_BITS + row);
+        heights[col] = row + 1;
+        moves++;
+        return row;
+    }
+
+    /**
+     * Comprova si el jugador té quatre en línia.
+     *
+     * @param player {@link #RED} o {@link #YELLOW}
+     * @return true si té quatre fitxes seguides en qualsevol direcció
+     */
+    boolean isWin(int player) {
+        return hasFour(pieces[player]);
+    }
+
+    /** El tauler està ple (empat si ningú ha guanyat). */
+    boolean isFull() {
+        return moves == ROWS * COLS;
+    }
+
+    int moves() {
+        return moves;
+    }
+
+    int height(int col) {
+        return heights[col];
+    }
+
+    long pieces(int player) {
+        return pieces[player];
+    }
+
+    /**
+     * Quatre en línia amb desplaçaments: horitzontal (COL_BITS), vertical (1)
+     * i les dues diagonals (COL_BITS - 1 i COL_BITS + 1).
+     */
+    static boolean hasFour(long p) {
+        long m = p & (p >> COL_BITS);
+        if ((m & (m >> (2 * COL_BITS))) != 0) {
+            return true;
+        }
+        m = p & (p >> (COL_BITS - 1));
+        if ((m & (m >> (2 * (COL_BITS - 1)))) != 0) {
+            return true;
+        }
+        m = p & (p >> (COL_BITS + 1));
+        if ((m & (m >> (2 * (COL_BITS + 1)))) != 0) {
+            return true;
+        }
+        m = p & (p >> 1);
+        return (m & (m >> 2)) != 0;
+    }
+
+    /** Índex de jugador a partir del rol ("R" o "Y"). */
+    static int playerOf(String role) {
+        return "R".equals(role) ? RED : YELLOW;
+    }
+}
@@ -0,0 +1,65 @@
+package com.server;
+
+import java.util.Locale;
+
+/**
+ * Jugador controlat pel servidor que ocupa la plaça buida d'una sala.
+ *
+ * No té connexió: la sala el té a les dades dels jugadors com un més, i quan li toca
+ * demana la jugada al {@link BotPool} i la fa pel mateix camí que els jugadors
+ * ({@code processPlay}).
+ */
+final class BotPlayer {
+
+    /**
+     * Força del bot: profunditat màxima de cerca, probabilitat de fer una jugada a
+     * l'atzar i si la cerca es reparteix entre diversos fils.
+     */
+    enum Level {
+        EASY(2, 0.25, false),
+        MEDIUM(6, 0.05, false),
+        HARD(14, 0, false),
+        PERFECT(Solver.MAX_DEPTH, 0, true);
+
+        final int depth;
+        final double mistakeRate;
+        final boolean parallel;
+
+        Level(int depth, double mistakeRate, boolean parallel) {
+            this.depth = depth;
+            this.mistakeRate = mistakeRate;
+            this.parallel = parallel;
+        }
+
+        /**
+         * Nivell a partir del seu nom (sense distingir majúscules).
+         *
+         * @return el nivell, o {@code def} si el nom no és vàlid
+         */
+        static Level parse(String name, Level def) {
+            if (name == null) {
+                return def;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return def;
+            }
+        }
+    }
+
+    final String name;
+    final String role;
+    final Level level;
+
+    BotPlayer(String name, String role, Level level) {
+        this.name = name;
+        this.role = role;
+        this.level = level;
+    }
+
+    /** Nom a la classificació: tots els bots d'un mateix nivell en comparteixen un. */
+    String ratingName() {
+        return "bot-" + level.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,121 @@
+package com.server;
+
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Fils on pensen els bots de totes les sales.
+ *
+ * És un pool de mida fixa amb una cua limitada: la cerca mai s'executa al fil d'una
+ * sala, així que un bot pensant no endarrereix els ticks. Si la cua és plena la
+ * petició es rebutja i la sala juga una jugada immediata.
+ *
+ * Cada fil té el seu {@link Solver} amb la seva taula de transposicions, que es
+ * conserva entre jugades. Els nivells que ho demanen reparteixen la cerca entre els
+ * fils d'una {@link ParallelSearch} compartida.
+ *
+ * Si hi ha llibre d'obertures ({@code c4.book}, per defecte
+ * {@code data/opening-book.bin}), els nivells que no s'equivoquen hi busquen les
+ * primeres jugades abans de cercar.
+ */
+final class BotPool {
+
+    // mida de la tabla de cada hilo (2^20 entradas, unos 12 MB)
+    private static final int TABLE_BITS = Integer.getInteger("c4.botTableBits", 20);
+
+    // peticiones que pueden esperar a un hilo libre
+    private static final int QUEUE_SIZE = 64;
+
+    // hilos de la busqueda en paralelo (1 = siempre secuencial)
+    private static final int SEARCH_THREADS = Integer.getInteger("c4.solverThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final Path BOOK_FILE = Path.of(System.getProperty("c4.book",
+            OpeningBookGenerator.DEFAULT_FILE.toString()));
+
+    private final ThreadPoolExecutor pool;
+    private final OpeningBook book = OpeningBook.open(BOOK_FILE);
+    private final ThreadLocal<Solver> solvers = ThreadLocal.withInitial(() -> new Solver(TABLE_BITS));
+    private final ParallelSearch parallel = SEARCH_THREADS > 1 ? new ParallelSearch(SEARCH_THREADS, TABLE_BITS) : null;
+
+    /**
+     * @param threads nombre de fils de cerca
+     */
+    BotPool(int threads) {
+        int n = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                    Thread t = new Thread(r, "BotWorker-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                });
+        if (book != null) {
+            System.out.println("[SERVER] Opening book " + BOOK_FILE + ": " + book.size()
+                    + " positions up to " + book.plies() + " plies");
+        }
+    }
+
+    /**
+     * Demana una jugada per al jugador que mou.
+     *
+     * @param level força del bot
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @param budgetMillis temps màxim per pensar
+     * @param onMove es crida al fil del pool amb la columna triada
+     * @return false si el pool està saturat i no s'ha acceptat la petició
+     */
+    boolean think(BotPlayer.Level level, long current, long mask, long budgetMillis, IntConsumer onMove) {
+        try {
+            pool.execute(() -> onMove.accept(search(level, current, mask, budgetMillis)));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // buscar en el hilo del pool; a veces los bots flojos se equivocan a proposito
+    private int search(BotPlayer.Level level, long current, long mask, long budgetMillis) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < level.mistakeRate) {
+            long possible = Solver.possible(mask);
+            int[] cols = new int[Bitboard.COLS];
+            int count = 0;
+            for (int c = 0; c < Bitboard.COLS; c++) {
+                if ((possible & Solver.columnMask(c)) != 0) {
+                    cols[count++] = c;
+                }
+            }
+            if (count > 0) {
+                return cols[random.nextInt(count)];
+            }
+        }
+        if (level.mistakeRate == 0 && book != null && Long.bitCount(mask) < book.plies()) {
+            int col = book.bestMove(current, mask);
+            if (col >= 0) {
+                return col;
+            }
+        }
+        long budget = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        if (level.parallel && parallel != null) {
+            return parallel.bestMove(current, mask, level.depth, budget).column;
+        }
+        return solvers.get().bestMove(current, mask, level.depth, budget);
+    }
+
+    // parar los hilos (las busquedas en marcha se abandonan)
+    void stop() {
+        pool.shutdownNow();
+        if (parallel != null) {
+            parallel.stop();
+        }
+    }
+}
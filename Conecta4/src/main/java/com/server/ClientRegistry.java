@@ -3,6 +3,7 @@ package com.server;
 import org.java_websocket.WebSocket;
 import org.json.JSONArray;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -22,9 +23,73 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Aquesta classe és segura per a ús concurrent gràcies a l'ús de ConcurrentHashMap
  * i ConcurrentLinkedQueue. Els mètodes que modifiquen el pool utilitzen sincronització
  * per garantir la coherència durant reinicialitzacions.
+ *
+ * Els membres actuals es publiquen com a {@link Members}, una instantània immutable
+ * sobre arrays que només es reconstrueix a {@link #add(WebSocket)} i
+ * {@link #remove(WebSocket)}. Llegir-la és una lectura volàtil, sense crear objectes,
+ * i es pot fer a cada tick.
  */
 final class ClientRegistry {
 
+    /**
+     * Instantània immutable dels membres: sockets i noms en el mateix ordre (d'arribada).
+     * Es recorre per índex per no crear iteradors.
+     */
+    static final class Members {
+
+        static final Members EMPTY = new Members(new WebSocket[0], new String[0]);
+
+        private final WebSocket[] sockets;
+        private final String[] names;
+        private final List<WebSocket> socketList;
+
+        private Members(WebSocket[] sockets, String[] names) {
+            this.sockets = sockets;
+            this.names = names;
+            this.socketList = List.of(sockets);
+        }
+
+        int size() {
+            return sockets.length;
+        }
+
+        WebSocket socket(int i) {
+            return sockets[i];
+        }
+
+        String name(int i) {
+            return names[i];
+        }
+
+        /** Els sockets com a llista immutable (creada una sola vegada). */
+        List<WebSocket> sockets() {
+            return socketList;
+        }
+
+        private Members with(WebSocket socket, String name) {
+            WebSocket[] s = Arrays.copyOf(sockets, sockets.length + 1);
+            String[] n = Arrays.copyOf(names, names.length + 1);
+            s[sockets.length] = socket;
+            n[names.length] = name;
+            return new Members(s, n);
+        }
+
+        private Members without(WebSocket socket) {
+            for (int i = 0; i < sockets.length; i++) {
+                if (sockets[i] == socket) {
+                    WebSocket[] s = new WebSocket[sockets.length - 1];
+                    String[] n = new String[names.length - 1];
+                    System.arraycopy(sockets, 0, s, 0, i);
+                    System.arraycopy(names, 0, n, 0, i);
+                    System.arraycopy(sockets, i + 1, s, i, s.length - i);
+                    System.arraycopy(names, i + 1, n, i, n.length - i);
+                    return new Members(s, n);
+                }
+            }
+            return this;
+        }
+    }
+
     /** Mapa de sockets a noms de client. */
     private final Map<WebSocket, String> bySocket = new ConcurrentHashMap<>();
 
@@ -34,6 +99,9 @@ final class ClientRegistry {
     /** Cua de noms disponibles per assignar. */
     private final Queue<String> pool = new ConcurrentLinkedQueue<>();
 
+    /** Membres actuals; es substitueix sencera a cada alta o baixa. */
+    private volatile Members members = Members.EMPTY;
+
     /** Llista base de noms per reomplir el pool quan s'esgoti. */
     private final List<String> seedNames;
 
@@ -73,10 +141,10 @@ final class ClientRegistry {
     /**
      * Retorna un nom al pool de disponibles.
      *
-     * @param name el nom a retornar; si és null no es fa res
+     * @param name el nom a retornar; si és null o no és de la llista inicial no es fa res
      */
     private void giveBack(String name) {
-        if (name != null) {
+        if (name != null && seedNames.contains(name)) {
             pool.offer(name);
         }
     }
@@ -88,9 +156,28 @@ final class ClientRegistry {
      * @return el nom assignat al client
      */
     String add(WebSocket socket) {
-        String name = takeOrRecycle();
-        bySocket.put(socket, name);
-        byName.put(name, socket);
+        return add(socket, null);
+    }
+
+    /**
+     * Afegeix un client nou amb el nom que ha triat, si ningú més del registre el té.
+     *
+     * @param socket socket del client connectat
+     * @param preferred nom triat pel client, o null per assignar-ne un de lliure
+     * @return el nom assignat al client
+     */
+    String add(WebSocket socket, String preferred) {
+        String name = preferred != null && !byName.containsKey(preferred) ? preferred : takeOrRecycle();
+        synchronized (this) {
+            String previous = bySocket.put(socket, name);
+            byName.put(name, socket);
+            if (previous != null) {
+                byName.remove(previous);
+                giveBack(previous);
+                members = members.without(socket);
+            }
+            members = members.with(socket, name);
+        }
         return name;
     }
 
@@ -101,11 +188,15 @@ final class ClientRegistry {
      * @return el nom que estava assignat, o null si no existia
      */
     String remove(WebSocket socket) {
-        String name = bySocket.remove(socket);
-        if (name != null) {
-            byName.remove(name);
-            giveBack(name);
+        String name;
+        synchronized (this) {
+            name = bySocket.remove(socket);
+            if (name != null) {
+                byName.remove(name);
+                members = members.without(socket);
+            }
         }
+        giveBack(name);
         return name;
     }
 
@@ -154,12 +245,12 @@ final class ClientRegistry {
     }
 
     /**
-     * Retorna una còpia immutable de l'estat actual del mapa socket a nom.
+     * Retorna la instantània immutable dels membres actuals, sense copiar res.
      * Útil per iteracions fora del lock intern sense risc de ConcurrentModification.
      *
-     * @return mapa immutable de WebSocket a nom
+     * @return membres actuals (sockets i noms)
      */
-    Map<WebSocket, String> snapshot() {
-        return Map.copyOf(bySocket);
+    Members snapshot() {
+        return members;
     }
 }
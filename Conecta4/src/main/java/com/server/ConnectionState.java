@@ -0,0 +1,333 @@
+package com.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+
+import com.shared.ServerUpdate;
+
+/**
+ * Estat d'enviament d'una connexió, guardat com a attachment del WebSocket.
+ *
+ * Limita el ritme d'enviament de cada client segons el temps d'anada i tornada (RTT)
+ * mesurat amb pings i segons la cua d'enviament pendent dins de Java-WebSocket.
+ * Quan a una connexió encara no li toca enviar, els deltes s'acumulen a
+ * {@link #pending} (l'últim valor guanya) i s'envien junts al següent torn.
+ *
+ * És també la bústia de sortida de la connexió: a Java-WebSocket mai no hi ha més de
+ * {@link #QUEUE_HARD_LIMIT} frames per enviar. Per sobre, l'estat nou substitueix el que
+ * esperava a {@link #pending} en lloc d'encuar-se, i els missatges de control (compte
+ * enrere, resultats, respostes) esperen en ordre a la seva pròpia cua, fins a
+ * {@link #CONTROL_LIMIT}. Si la cua no baixa de {@link #QUEUE_SOFT_LIMIT} en
+ * {@code c4.maxLagSeconds} segons o els missatges de control no hi caben, el client no dona l'abast i es tanca la connexió.
+ *
+ * També guarda l'última posició del ratolí rebuda. El fil del WebSocket la llegeix a
+ * {@link #mouseScratch}, la deixa empaquetada en un sol {@code long} i només envia
+ * {@link #mouseTask} a la sala si no n'hi havia cap de pendent; la sala la recull amb
+ * {@link #takeMouse(int[])}. Així els moviments de ratolí no creen objectes i una ràfega
+ * de missatges es converteix en una sola tasca. La fitxa que arrossega el jugador
+ * ({@link #dragScratch}, {@link #dragTask}) funciona igual.
+ *
+ * Només el fil del shard de la sala modifica l'estat d'enviament, excepte
+ * {@link #onPong(long)} i {@link #offerControl(WebSocket, String)}, que es poden cridar
+ * des de qualsevol fil.
+ */
+final class ConnectionState {
+
+    /** Quants frames com a màxim per RTT. */
+    private static final int FRAMES_PER_RTT = 4;
+
+    /** A partir d'aquesta cua d'enviament es considera que el client no dona l'abast. */
+    private static final int QUEUE_SOFT_LIMIT = 8;
+
+    /** Frames que pot tenir Java-WebSocket per enviar; per sobre, tot espera a la bústia. */
+    static final int QUEUE_HARD_LIMIT = Math.max(QUEUE_SOFT_LIMIT, Integer.getInteger("c4.sendQueueLimit", 32));
+
+    /** Missatges de control que poden esperar abans de donar el client per perdut. */
+    static final int CONTROL_LIMIT = 64;
+
+    /** Temps màxim amb la cua per sobre del límit suau abans de tancar la connexió. */
+    private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(Integer.getInteger("c4.maxLagSeconds", 5));
+
+    private static final long[] MAILBOX_BUCKETS = { 0, 1, 2, 4, 8, 16, 32, 64 };
+    private static final Metrics.Histogram MAILBOX_DEPTH = Metrics.histogram("c4_mailbox_depth",
+            "Messages waiting in a connection's outbound mailbox, sampled every tick", "", MAILBOX_BUCKETS, 1);
+    private static final Metrics.Counter STATES_COALESCED = Metrics.counter("c4_mailbox_states_coalesced_total",
+            "State frames merged into the pending one instead of being queued", "");
+    private static final Metrics.Counter CONTROLS_HELD = Metrics.counter("c4_mailbox_controls_held_total",
+            "Control messages that waited in the mailbox for the socket to drain", "");
+    private static final Metrics.Counter SLOW_CLOSES = Metrics.counter("c4_slow_client_disconnects_total",
+            "Connections closed because they could not keep up", "");
+    private static final Metrics.Counter PINGS_LOST = Metrics.counter("c4_pings_lost_total",
+            "Pings whose pong never arrived; a new ping replaces them", "");
+
+    /** Interval màxim entre enviaments (1 Hz). */
+    private static final long MAX_INTERVAL_NANOS = 1_000_000_000L;
+
+    /** Cada quan es mesura el RTT. */
+    private static final long PING_INTERVAL_NANOS = 2_000_000_000L;
+
+    /** Un ping sense pong durant aquest temps es dona per perdut. */
+    private static final long PING_LOST_NANOS = 4 * PING_INTERVAL_NANOS;
+
+    /** Deltes acumulats mentre no toca enviar. */
+    ServerUpdate pending = null;
+
+    /** Tasca de la sala que aplica l'última posició del ratolí. */
+    final Runnable mouseTask;
+
+    /** On el fil del WebSocket llegeix el ratolí (x, y, fila, columna). Només aquest fil. */
+    final int[] mouseScratch = new int[4];
+
+    /** Tasca de la sala que aplica l'última posició de la fitxa arrossegada. */
+    final Runnable dragTask;
+
+    /** On el fil del WebSocket llegeix la fitxa arrossegada (codi, x, y). Només aquest fil. */
+    final int[] dragScratch = new int[3];
+
+    // mensajes de control en orden, esperando a que se vacie la cola (protegida por si misma)
+    private final ArrayDeque<String> controls = new ArrayDeque<>();
+
+    // ultima posicion del raton: cuatro valores de 16 bits en un long
+    private volatile long mouse = 0;
+    private final AtomicBoolean mouseQueued = new AtomicBoolean(false);
+
+    // ultima ficha arrastrada: codigo, x e y de 16 bits en un long
+    private volatile long drag = 0;
+    private final AtomicBoolean dragQueued = new AtomicBoolean(false);
+
+    private volatile long rttNanos = 0;
+    private volatile long pingSentAt = 0;
+    private long lastPingAt = 0;
+    private long lastSendAt = 0;
+    private long backoffNanos = 0;
+    private long intervalNanos = 0;
+    private long behindSince = 0;
+
+    ConnectionState(Runnable mouseTask, Runnable dragTask) {
+        this.mouseTask = mouseTask;
+        this.dragTask = dragTask;
+    }
+
+    /**
+     * Decideix si a aquesta connexió li toca rebre dades en aquest tick.
+     *
+     * @param now temps actual (System.nanoTime)
+     * @param tickPeriodNanos període actual del ticker
+     * @param queueDepth frames pendents d'enviar a la connexió
+     * @return true si s'ha d'enviar ara
+     */
+    boolean isDue(long now, long tickPeriodNanos, int queueDepth) {
+        // si la cua creix, doblar l'espera; si es buida, anar recuperant
+        if (queueDepth > QUEUE_SOFT_LIMIT) {
+            backoffNanos = Math.min(MAX_INTERVAL_NANOS, Math.max(tickPeriodNanos, backoffNanos * 2));
+        } else if (queueDepth == 0) {
+            backoffNanos = backoffNanos * 3 / 4;
+        }
+
+        intervalNanos = Math.min(MAX_INTERVAL_NANOS,
+                Math.max(tickPeriodNanos, Math.max(rttNanos / FRAMES_PER_RTT, backoffNanos)));
+        // con la cola llena no se entrega nada: el estado espera en pending
+        return queueDepth < QUEUE_HARD_LIMIT && now - lastSendAt >= intervalNanos;
+    }
+
+    void markSent(long now) {
+        lastSendAt = now;
+    }
+
+    /** Afegeix un delta als pendents (l'últim valor guanya). */
+    void defer(ServerUpdate delta) {
+        if (pending == null) {
+            pending = new ServerUpdate(false);
+        } else {
+            STATES_COALESCED.inc();
+        }
+        pending.merge(delta);
+    }
+
+    /**
+     * Envia un missatge de control, o el deixa a la bústia si la connexió té la cua plena
+     * o ja hi ha missatges esperant (així no s'avancen). Es pot cridar des de qualsevol fil.
+     *
+     * @return false si la bústia és plena: el client no dona l'abast
+     */
+    boolean offerControl(WebSocket conn, String payload) {
+        synchronized (controls) {
+            if (controls.isEmpty() && queueDepth(conn) < QUEUE_HARD_LIMIT) {
+                conn.send(payload);
+                return true;
+            }
+            if (controls.size() >= CONTROL_LIMIT) {
+                return false;
+            }
+            controls.add(payload);
+            CONTROLS_HELD.inc();
+            return true;
+        }
+    }
+
+    /**
+     * Passa a Java-WebSocket els missatges de control que hi caben i mira si la connexió
+     * fa massa que no buida la cua. Cada tick, abans de l'estat.
+     *
+     * @param now temps actual (System.nanoTime)
+     * @return false si el client s'ha quedat enrere més de {@code c4.maxLagSeconds}
+     */
+    boolean drain(WebSocket conn, long now) {
+        int held;
+        synchronized (controls) {
+            while (!controls.isEmpty() && queueDepth(conn) < QUEUE_HARD_LIMIT) {
+                try {
+                    conn.send(controls.peek());
+                } catch (WebsocketNotConnectedException e) {
+                    // la conexion ya esta cerrada, onClose la saca de su sala
+                    controls.clear();
+                    break;
+                }
+                controls.poll();
+            }
+            held = controls.size();
+        }
+        MAILBOX_DEPTH.observe(held + (pending != null ? 1 : 0));
+
+        // un cliente sano vacia la cola de vez en cuando aunque vaya a 1 Hz
+        if (queueDepth(conn) <= QUEUE_SOFT_LIMIT) {
+            behindSince = 0;
+            return true;
+        }
+        if (behindSince == 0) {
+            behindSince = now;
+        }
+        return now - behindSince < MAX_LAG_NANOS;
+    }
+
+    /**
+     * Si la connexió pot rebre ara un missatge que no cal que esperi: no té missatges de
+     * control esperant (no s'hi avançaria) i la cua no és plena.
+     */
+    boolean hasRoom(WebSocket conn) {
+        synchronized (controls) {
+            return controls.isEmpty() && queueDepth(conn) < QUEUE_HARD_LIMIT;
+        }
+    }
+
+    /** Tanca una connexió que no dona l'abast; el que tenia per enviar es perd. */
+    static void closeSlow(WebSocket conn) {
+        SLOW_CLOSES.inc();
+        // cerrar el socket ya: un close normal esperaria detras de la cola llena
+        conn.closeConnection(CloseFrame.TRY_AGAIN_LATER, "client too slow");
+    }
+
+    /**
+     * Guarda la posició de {@link #mouseScratch} (l'última guanya).
+     *
+     * @return true si s'ha d'enviar {@link #mouseTask} a la sala
+     */
+    boolean offerMouse() {
+        int[] v = mouseScratch;
+        mouse = pack(v[0], 48) | pack(v[1], 32) | pack(v[2], 16) | pack(v[3], 0);
+        return mouseQueued.compareAndSet(false, true);
+    }
+
+    /**
+     * Recull l'última posició del ratolí. Només des de {@link #mouseTask}.
+     *
+     * @param into on es copien x, y, fila i columna
+     */
+    void takeMouse(int[] into) {
+        // primero bajar la marca: lo que llegue despues vuelve a encolar la tarea
+        mouseQueued.set(false);
+        long m = mouse;
+        into[0] = (short) (m >>> 48);
+        into[1] = (short) (m >>> 32);
+        into[2] = (short) (m >>> 16);
+        into[3] = (short) m;
+    }
+
+    /**
+     * Guarda la fitxa de {@link #dragScratch} (l'última guanya).
+     *
+     * @return true si s'ha d'enviar {@link #dragTask} a la sala
+     */
+    boolean offerDrag() {
+        int[] v = dragScratch;
+        drag = pack(v[0], 32) | pack(v[1], 16) | pack(v[2], 0);
+        return dragQueued.compareAndSet(false, true);
+    }
+
+    /**
+     * Recull l'última fitxa arrossegada. Només des de {@link #dragTask}.
+     *
+     * @param into on es copien el codi de la fitxa, x i y
+     */
+    void takeDrag(int[] into) {
+        dragQueued.set(false);
+        long d = drag;
+        into[0] = (short) (d >>> 32);
+        into[1] = (short) (d >>> 16);
+        into[2] = (short) d;
+    }
+
+    // un valor en 16 bits con signo (se recorta si no cabe)
+    private static long pack(int value, int shift) {
+        int clamped = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        return (clamped & 0xFFFFL) << shift;
+    }
+
+    /**
+     * Envia un ping si fa prou que no se'n mesura el RTT. Si el pong de l'anterior no ha
+     * arribat en {@link #PING_LOST_NANOS}, es dona per perdut i se n'envia un altre.
+     */
+    void maybePing(WebSocket conn, long now) {
+        long sent = pingSentAt;
+        if (sent != 0) {
+            if (now - sent < PING_LOST_NANOS) {
+                return;
+            }
+            // sin esto un solo pong perdido dejaria de medir el RTT para siempre
+            PINGS_LOST.inc();
+        } else if (now - lastPingAt < PING_INTERVAL_NANOS) {
+            return;
+        }
+        lastPingAt = now;
+        pingSentAt = now;
+        try {
+            conn.sendPing();
+        } catch (Exception e) {
+            pingSentAt = 0;
+        }
+    }
+
+    /** Arriba el pong: actualitzar el RTT amb una mitjana mòbil. */
+    void onPong(long now) {
+        long sent = pingSentAt;
+        if (sent == 0) {
+            return;
+        }
+        pingSentAt = 0;
+        long sample = now - sent;
+        rttNanos = rttNanos == 0 ? sample : (rttNanos * 7 + sample) / 8;
+    }
+
+    long rttMillis() {
+        return rttNanos / 1_000_000;
+    }
+
+    /** Ritme d'enviament actual d'aquesta connexió. */
+    double currentHz() {
+        return intervalNanos == 0 ? 0 : 1_000_000_000.0 / intervalNanos;
+    }
+
+    /** Frames pendents d'enviar dins de Java-WebSocket. */
+    static int queueDepth(WebSocket conn) {
+        if (conn instanceof WebSocketImpl) {
+            return ((WebSocketImpl) conn).outQueue.size();
+        }
+        return 0;
+    }
+}
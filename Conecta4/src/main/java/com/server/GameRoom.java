@@ -0,0 +1,1041 @@
+package com.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.server.WebSocketServer;
+
+import com.shared.BinaryCodec;
+import com.shared.ClientData;
+import com.shared.GameObject;
+import com.shared.ServerUpdate;
+
+/**
+ * Una partida de Connecta 4 entre dos jugadors.
+ *
+ * Conté tot l'estat d'una partida (jugadors, fitxes, tauler, torn, puntuació i
+ * guanyadors) i les connexions que hi participen. Els enviaments, els reinicis i el
+ * compte enrere només afecten les connexions d'aquesta sala.
+ *
+ * Cada sala està fixada a un {@link RoomShard} i només el fil d'aquest shard en toca
+ * l'estat, així que no hi ha bloquejos. Els altres fils hi envien tasques amb
+ * {@link #execute(Runnable)} o llegeixen el nombre de jugadors publicat
+ * ({@link #publishedPlayers()}).
+ *
+ * Una de les places la pot ocupar un {@link BotPlayer}. El bot pensa al
+ * {@link BotPool} i la jugada torna al fil de la sala com qualsevol altre missatge.
+ *
+ * Cada partida acabada es deixa al {@link MatchHistory}, que l'escriu a disc en un
+ * altre fil, i actualitza la puntuació dels jugadors a {@link Ratings}.
+ *
+ * La fitxa que arrossega el jugador del torn no forma part de l'estat: es guarda en una
+ * sola plaça de la sala (l'última posició guanya) i, com a molt una vegada per tick, es
+ * passa al rival en un missatge propi amb l'id i la posició. Quan la deixa anar, juga o
+ * perd el torn, el rival rep que ja no se n'arrossega cap.
+ *
+ * Els espectadors no juguen: reben l'estat de la sala sense els cursors i a menys
+ * ritme ({@code c4.spectatorHz}). Els canvis per als espectadors es calculen i es
+ * codifiquen una sola vegada per format i tots reben els mateixos bytes, així que el
+ * cost no creix amb el nombre d'espectadors, només l'enviament.
+ */
+final class GameRoom {
+
+    // nombres de jugadores
+    static final List<String> PLAYER_NAMES = Arrays.asList(
+        "Bulbasaur", "Charizard", "Blaziken", "Umbreon", "Mewtwo", "Pikachu", "Wartortle"
+    );
+
+    // colores de jugadores
+    private static final List<String> PLAYER_COLORS = Arrays.asList(
+        "GREEN", "ORANGE", "RED", "GRAY", "PURPLE", "YELLOW", "BLUE"
+    );
+
+    // cuantos jugadores se necesitan para empezar
+    static final int REQUIRED_CLIENTS = 2;
+
+    // posicion y tamaño del tablero
+    private static final double GRID_START_X = 25;
+    private static final double GRID_START_Y = 25;
+    private static final double CELL_SIZE = 50;
+    static final int GRID_ROWS = Bitboard.ROWS;
+    static final int GRID_COLS = Bitboard.COLS;
+    // lo que queda a la izquierda ya esta en el tablero
+    private static final double BOARD_RIGHT = GRID_START_X + GRID_COLS * CELL_SIZE;
+
+    // cada cuanto baja la cuenta atras
+    private static final long COUNTDOWN_STEP_MILLIS = 750;
+
+    // tiempo para cada jugada, si se acaba pasa el turno (0 = sin limite); el cliente no
+    // muestra ningun reloj, asi que por defecto no hay
+    private static final long TURN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(Integer.getInteger("c4.turnSeconds", 0));
+
+    // tiempo para pedir la revancha cuando acaba la partida (0 = sin limite)
+    private static final long REMATCH_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(Integer.getInteger("c4.rematchSeconds", 0));
+
+    // fichas de cada jugador
+    private static final int PIECES_PER_PLAYER = GRID_ROWS * GRID_COLS / 2;
+
+    // tiempo que piensa el bot cada jugada
+    private static final long BOT_MILLIS = Long.getLong("c4.botMillis", 1000);
+
+    // ritmo de los espectadores
+    private static final long SPECTATOR_PERIOD_NANOS =
+            TimeUnit.SECONDS.toNanos(1) / Math.max(1, Integer.getInteger("c4.spectatorHz", 10));
+
+    // un espectador con mas frames pendientes deja de recibir deltas hasta que se vacia
+    // la cola, y entonces recibe el estado completo
+    private static final int SPECTATOR_QUEUE_LIMIT = 32;
+
+    // frames pendientes de cada conexion al repartir un tick, y lo que tarda una jugada
+    private static final long[] QUEUE_DEPTH_BUCKETS = { 0, 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+    private static final Metrics.Histogram SEND_QUEUE_DEPTH = Metrics.histogram("c4_send_queue_depth",
+            "Frames waiting in a connection's send queue, sampled every tick", "", QUEUE_DEPTH_BUCKETS, 1);
+    private static final Metrics.Counter DRAG_MESSAGES = Metrics.counter("c4_broadcast_messages_total",
+            "Messages sent to clients", Metrics.label("kind", "drag"));
+    private static final Metrics.Counter DRAG_BYTES = Metrics.counter("c4_broadcast_bytes_total",
+            "Payload bytes sent to clients", Metrics.label("kind", "drag"));
+    private static final Metrics.Histogram PLAY_SECONDS = Metrics.histogram("c4_process_play_seconds",
+            "Time to apply a move on the room thread", "", Metrics.LATENCY_BUCKETS, Metrics.NANOS);
+
+    private final int id;
+    private final WebSocketServer server;
+    private final RoomShard shard;
+    private final TimerWheel timers;
+    private final BotPool bots;
+    private final MatchHistory history;
+    private final Ratings ratings;
+    // que hacer con un jugador cuando la sala ya no sigue (con el motivo)
+    private final BiConsumer<WebSocket, String> release;
+
+    // conexiones de la sala (los nombres son unicos dentro de la sala)
+    private final ClientRegistry clients = new ClientRegistry(PLAYER_NAMES);
+
+    // datos de cada cliente (nombre, color, posicion, rol)
+    private final Map<String, ClientData> clientsData = new HashMap<>();
+
+    // todas las fichas del juego
+    private final Map<String, GameObject> gameObjects = new HashMap<>();
+
+    // cambios desde el ultimo tick (solo se envia lo que cambia)
+    private final StateTracker tracker = new StateTracker();
+
+    // conexiones nuevas que aun no han recibido el estado completo
+    private final Set<WebSocket> pendingKeyframe = new HashSet<>();
+
+    // destinatarios de cada tick, se reutilizan
+    private final List<WebSocket> syncedJson = new ArrayList<>();
+    private final List<WebSocket> syncedBinary = new ArrayList<>();
+    private final List<WebSocket> freshJson = new ArrayList<>();
+    private final List<WebSocket> freshBinary = new ArrayList<>();
+
+    // espectadores: su propio seguimiento de cambios (sin cursores) y los que
+    // esperan el estado completo
+    private final StateTracker spectatorTracker = new StateTracker(false);
+    private final List<WebSocket> spectators = new ArrayList<>();
+    private final Set<WebSocket> spectatorKeyframe = new HashSet<>();
+    private long spectatorSentAt = 0;
+
+    // donde se recoge la posicion del raton de una conexion (x, y, fila, columna)
+    private final int[] mouseSlot = new int[4];
+
+    // ficha que arrastra el jugador del turno: no entra en gameObjects ni en el estado,
+    // solo se reenvia al rival (dragDirty) en el siguiente tick
+    private final int[] dragSlot = new int[3];
+    private int dragPiece = BinaryCodec.NO_PIECE;
+    private int dragX = 0;
+    private int dragY = 0;
+    private WebSocket dragFrom = null;
+    private boolean dragDirty = false;
+
+    // jugadores del ultimo estado enviado, se puede leer desde cualquier hilo; el estado
+    // completo solo se copia cuando alguien lo necesita (conexiones nuevas)
+    private volatile int publishedPlayers = 0;
+
+    // para saber si ya esta corriendo la cuenta atras
+    private boolean countdownRunning = false;
+
+    // temporizadores de la sala; el numero de generacion descarta los que ya se
+    // habian disparado cuando se cancelaron
+    private TimerWheel.Timeout turnTimer = null;
+    private int turnTimerGen = 0;
+    private TimerWheel.Timeout rematchTimer = null;
+    private int rematchTimerGen = 0;
+
+    // jugador del servidor que ocupa la plaza libre (null si no hay)
+    private BotPlayer bot = null;
+
+    // tablero del conecta 4
+    private final Bitboard board = new Bitboard(); // 6 filas x 7 columnas
+    private String currentTurn = "R"; // de quien es el turno (R o Y)
+
+    // puntuacion de cada jugador
+    private int scoreR = 0; // victorias del rojo
+    private int scoreY = 0; // victorias del amarillo
+
+    // ganador de la ronda actual
+    private String roundWinner = null; // "R", "Y", ServerUpdate.DRAW o null
+
+    // ganador final (quien llega a 3)
+    private String gameWinner = null; // "R", "Y", ServerUpdate.DRAW o null
+
+    // columnas jugadas en la ronda (una cifra por jugada) y hora de la primera jugada
+    private final byte[] moveLog = new byte[GRID_ROWS * GRID_COLS];
+    private int moveCount = 0;
+    private long roundStartMillis = 0;
+
+    // coste de la sala en los ticks
+    private long statTicks = 0;
+    private long statNanos = 0;
+    private long statBytes = 0;
+
+    GameRoom(int id, WebSocketServer server, RoomShard shard, TimerWheel timers, BotPool bots,
+             MatchHistory history, Ratings ratings, BiConsumer<WebSocket, String> release) {
+        this.id = id;
+        this.server = server;
+        this.shard = shard;
+        this.timers = timers;
+        this.bots = bots;
+        this.history = history;
+        this.ratings = ratings;
+        this.release = release;
+        initializegameObjects();
+        initializeBoard();
+    }
+
+    int id() {
+        return id;
+    }
+
+    RoomShard shard() {
+        return shard;
+    }
+
+    // ejecutar algo en el hilo de la sala
+    void execute(Runnable task) {
+        shard.execute(task);
+    }
+
+    // jugadores segun el ultimo estado enviado (0 si aun no se ha enviado nada)
+    int publishedPlayers() {
+        return publishedPlayers;
+    }
+
+    // crear todas las fichas al inicio
+    private void initializegameObjects() {
+        // el tablero termina en x=375, poner las fichas a la derecha
+        double piecesStartX = 450;
+        double piecesStartY = 50;
+        double verticalSpacing = 45;
+
+        // crear 21 fichas rojas
+        for (int i = 0; i < PIECES_PER_PLAYER; i++) {
+            String objId = "R_" + String.format("%02d", i);
+            int x = (int) (piecesStartX + (i % 2) * 45);
+            int y = (int) (piecesStartY + (i / 2) * verticalSpacing);
+            GameObject obj = new GameObject(objId, x, y, 1, 1);
+            gameObjects.put(objId, obj);
+        }
+
+        // crear 21 fichas amarillas
+        for (int i = 0; i < PIECES_PER_PLAYER; i++) {
+            String objId = "Y_" + String.format("%02d", i);
+            int x = (int) (piecesStartX + 90 + (i % 2) * 45);
+            int y = (int) (piecesStartY + (i / 2) * verticalSpacing);
+            GameObject obj = new GameObject(objId, x, y, 1, 1);
+            gameObjects.put(objId, obj);
+        }
+    }
+
+    // limpiar el tablero
+    private void initializeBoard() {
+        board.clear();
+        moveCount = 0;
+    }
+
+    // reiniciar el juego
+    void resetGame() {
+        // parar el reloj del turno
+        stopTurnClock();
+
+        // limpiar tablero
+        initializeBoard();
+
+        // empezar con rojo
+        currentTurn = "R";
+
+        // limpiar ganador de ronda
+        roundWinner = null;
+
+        // ya no se arrastra ninguna ficha
+        clearDrag();
+
+        // volver a poner las fichas en su sitio
+        gameObjects.clear();
+        initializegameObjects();
+    }
+
+    // reiniciar puntuacion completa
+    void resetScores() {
+        scoreR = 0;
+        scoreY = 0;
+        gameWinner = null;
+        closeRematchWindow();
+        resetGame();
+    }
+
+    // siguiente ronda
+    void continueRound() {
+        resetGame();
+        startTurnClock();
+    }
+
+    // revancha: solo mientras la ventana de revancha esta abierta
+    void rematch() {
+        if (gameWinner == null) {
+            return;
+        }
+        resetScores();
+        startTurnClock();
+    }
+
+    // ----------------- jugadores -----------------
+
+    int playerCount() {
+        return clientsData.size();
+    }
+
+    /**
+     * Afegeix una connexió a la sala i li assigna nom, color i rol.
+     *
+     * @return les dades del jugador creat
+     */
+    ClientData join(WebSocket conn) {
+        return join(conn, null);
+    }
+
+    /**
+     * Afegeix una connexió a la sala amb el nom que porta del vestíbul.
+     *
+     * @param name nom triat, o null per assignar-ne un de la llista
+     * @return les dades del jugador creat
+     */
+    ClientData join(WebSocket conn, String name) {
+        // marcar antes de registrar para que el primer envio sea el keyframe
+        pendingKeyframe.add(conn);
+        name = clients.add(conn, name);
+        String role = freeRole();
+        // los nombres que no son de la lista llevan el color de su ficha
+        String color = PLAYER_NAMES.contains(name) ? getColorForName(name) : "R".equals(role) ? "RED" : "YELLOW";
+
+        ClientData cd = new ClientData(name, color);
+        cd.role = role;
+        clientsData.put(name, cd);
+        return cd;
+    }
+
+    /**
+     * Posa un bot a la plaça lliure i comença el compte enrere.
+     *
+     * @param level força del bot
+     */
+    void addBot(BotPlayer.Level level) {
+        if (bot != null || clientsData.size() >= REQUIRED_CLIENTS) {
+            return;
+        }
+        // un nombre que no tenga nadie en la sala
+        String name = PLAYER_NAMES.get(PLAYER_NAMES.size() - 1);
+        for (int i = PLAYER_NAMES.size() - 1; i >= 0; i--) {
+            if (!clientsData.containsKey(PLAYER_NAMES.get(i))) {
+                name = PLAYER_NAMES.get(i);
+                break;
+            }
+        }
+        ClientData cd = new ClientData(name, getColorForName(name));
+        cd.role = freeRole();
+        clientsData.put(name, cd);
+        bot = new BotPlayer(name, cd.role, level);
+
+        System.out.println("[SERVER] Bot joined: " + name + " (role: " + cd.role
+                + ", level: " + level + ", room: " + id + ")");
+        sendCountdown();
+    }
+
+    // el rol que quede libre (el primero es el rojo)
+    private String freeRole() {
+        String role = "R";
+        for (ClientData other : clientsData.values()) {
+            if ("R".equals(other.role)) {
+                role = "Y";
+            }
+        }
+        return role;
+    }
+
+    /**
+     * Treu una connexió de la sala. Si queden menys de dos jugadors es reinicia la partida.
+     *
+     * @return nom del jugador que ha sortit, o null si no era a la sala
+     */
+    String leave(WebSocket conn) {
+        String name = clients.remove(conn);
+        pendingKeyframe.remove(conn);
+        if (name == null) {
+            return null;
+        }
+        if (conn == dragFrom) {
+            clearDrag();
+            dragFrom = null;
+        }
+        clientsData.remove(name);
+
+        // el bot no se queda solo en la sala
+        if (bot != null && clients.snapshot().size() == 0) {
+            clientsData.remove(bot.name);
+            bot = null;
+        }
+
+        // si queda menos de 2 jugadores, resetear el juego completo
+        if (clientsData.size() < REQUIRED_CLIENTS) {
+            resetScores();
+        }
+        return name;
+    }
+
+    // ----------------- espectadores -----------------
+
+    // un espectador nuevo recibe el estado completo en su primer envio
+    void addSpectator(WebSocket conn) {
+        spectators.add(conn);
+        spectatorKeyframe.add(conn);
+    }
+
+    void removeSpectator(WebSocket conn) {
+        spectators.remove(conn);
+        spectatorKeyframe.remove(conn);
+    }
+
+    int spectatorCount() {
+        return spectators.size();
+    }
+
+    // la sala se cierra: echar a los espectadores
+    void closeSpectators() {
+        for (WebSocket conn : new ArrayList<>(spectators)) {
+            conn.close(CloseFrame.NORMAL, "room closed");
+        }
+        spectators.clear();
+        spectatorKeyframe.clear();
+    }
+
+    String nameOf(WebSocket conn) {
+        return clients.nameBySocket(conn);
+    }
+
+    // conseguir el color de un jugador
+    private static String getColorForName(String name) {
+        int idx = PLAYER_NAMES.indexOf(name);
+        if (idx < 0) {
+            idx = 0;
+        }
+        return PLAYER_COLORS.get(idx % PLAYER_COLORS.size());
+    }
+
+    // ----------------- mensajes de los jugadores -----------------
+
+    // actualizar posicion del raton, el ultimo valor gana y se envia en el siguiente tick
+    void updateMouse(WebSocket conn, int mouseX, int mouseY, int row, int col) {
+        ClientData data = clientsData.get(clients.nameBySocket(conn));
+        if (data != null) {
+            data.mouseX = mouseX;
+            data.mouseY = mouseY;
+            data.row = row;
+            data.col = col;
+        }
+    }
+
+    // aplicar la ultima posicion que ha dejado el hilo del WebSocket en la conexion
+    void applyMouse(WebSocket conn) {
+        ConnectionState state = conn.getAttachment();
+        if (state != null) {
+            state.takeMouse(mouseSlot);
+            updateMouse(conn, mouseSlot[0], mouseSlot[1], mouseSlot[2], mouseSlot[3]);
+        }
+    }
+
+    // mover objeto: solo fichas que existen, un id inventado no puede entrar en el estado
+    void moveObject(GameObject objData) {
+        if (objData.id == null || !gameObjects.containsKey(objData.id)) {
+            return;
+        }
+        gameObjects.put(objData.id, objData);
+    }
+
+    /**
+     * Mou la fitxa que arrossega el jugador del torn. Només les seves fitxes que encara no
+     * són al tauler; {@link BinaryCodec#NO_PIECE} vol dir que l'ha deixada anar. No toca
+     * {@link #gameObjects}: el rival la rep en el tick següent.
+     */
+    void updateDrag(WebSocket conn, int piece, int x, int y) {
+        ClientData client = clientsData.get(clients.nameBySocket(conn));
+        if (client == null || client.role == null || !client.role.equals(currentTurn) || roundWinner != null) {
+            return;
+        }
+        if (piece == BinaryCodec.NO_PIECE) {
+            clearDrag();
+            return;
+        }
+        String pieceId = BinaryCodec.pieceId(piece);
+        GameObject obj = gameObjects.get(pieceId);
+        if (obj == null || obj.x < BOARD_RIGHT || pieceId.charAt(0) != client.role.charAt(0)) {
+            return;
+        }
+        if (piece == dragPiece && x == dragX && y == dragY) {
+            return;
+        }
+        dragPiece = piece;
+        dragX = x;
+        dragY = y;
+        dragFrom = conn;
+        dragDirty = true;
+    }
+
+    // aplicar la ultima ficha arrastrada que ha dejado el hilo del WebSocket en la conexion
+    void applyDrag(WebSocket conn) {
+        ConnectionState state = conn.getAttachment();
+        if (state != null) {
+            state.takeDrag(dragSlot);
+            updateDrag(conn, dragSlot[0], dragSlot[1], dragSlot[2]);
+        }
+    }
+
+    // soltar la ficha arrastrada: el rival deja de verla en el siguiente tick
+    private void clearDrag() {
+        if (dragPiece != BinaryCodec.NO_PIECE) {
+            dragPiece = BinaryCodec.NO_PIECE;
+            dragDirty = true;
+        }
+    }
+
+    // procesar una jugada
+    boolean processPlay(String clientName, int column, String pieceId) {
+        long start = System.nanoTime();
+        try {
+            return play(clientName, column, pieceId);
+        } finally {
+            PLAY_SECONDS.observe(System.nanoTime() - start);
+        }
+    }
+
+    private boolean play(String clientName, int column, String pieceId) {
+        // buscar el cliente
+        ClientData client = clientsData.get(clientName);
+        if (client == null || client.role == null) {
+            return false;
+        }
+
+        // ver si es su turno
+        if (!client.role.equals(currentTurn)) {
+            return false;
+        }
+
+        // la ficha tiene que existir
+        if (pieceId == null || pieceId.isEmpty() || !gameObjects.containsKey(pieceId)) {
+            return false;
+        }
+
+        // columna valida y con sitio?
+        if (!board.canPlay(column)) {
+            return false;
+        }
+
+        // poner la ficha en el tablero (la fila del tablero cuenta desde abajo)
+        int player = Bitboard.playerOf(client.role);
+        int targetRow = GRID_ROWS - 1 - board.play(column, player);
+        if (moveCount == 0) {
+            roundStartMillis = System.currentTimeMillis();
+        }
+        moveLog[moveCount++] = (byte) ('0' + column);
+
+        // calcular la posicion en pixeles
+        int gridX = (int) (GRID_START_X + column * CELL_SIZE + CELL_SIZE / 2);
+        int gridY = (int) (GRID_START_Y + targetRow * CELL_SIZE + CELL_SIZE / 2);
+
+        // mover la ficha especifica a su posicion final
+        GameObject piece = gameObjects.get(pieceId);
+        piece.x = gridX;
+        piece.y = gridY;
+        clearDrag();
+
+        // comprobar si hay ganador
+        if (board.isWin(player)) {
+            // hay ganador esta ronda
+            roundWinner = client.role;
+
+            // sumar punto
+            if (client.role.equals("R")) {
+                scoreR++;
+            } else {
+                scoreY++;
+            }
+
+            // ver si ha ganado la partida (solo necesita 1 ronda)
+            if (scoreR >= 1) {
+                gameWinner = "R";
+            } else if (scoreY >= 1) {
+                gameWinner = "Y";
+            }
+
+            // no cambiar turno, la ronda acabo
+            stopTurnClock();
+            if (gameWinner != null) {
+                recordGame();
+                openRematchWindow();
+            }
+            return true;
+        }
+
+        // tablero lleno sin ganador: empate, la partida acaba igual
+        if (board.isFull()) {
+            roundWinner = ServerUpdate.DRAW;
+            gameWinner = ServerUpdate.DRAW;
+            stopTurnClock();
+            recordGame();
+            openRematchWindow();
+            return true;
+        }
+
+        // cambiar el turno
+        passTurn();
+        startTurnClock();
+
+        return true;
+    }
+
+    // dejar la partida en el historial (solo se encola, se escribe en otro hilo) y
+    // actualizar la clasificacion
+    private void recordGame() {
+        String red = null;
+        String yellow = null;
+        for (ClientData cd : clientsData.values()) {
+            if ("R".equals(cd.role)) {
+                red = cd.name;
+            } else if ("Y".equals(cd.role)) {
+                yellow = cd.name;
+            }
+        }
+        boolean redBot = bot != null && bot.name.equals(red);
+        boolean yellowBot = bot != null && bot.name.equals(yellow);
+        // en el historial y la clasificacion el empate no tiene ganador
+        String winner = ServerUpdate.DRAW.equals(gameWinner) ? null : gameWinner;
+        if (history != null) {
+            String moves = new String(moveLog, 0, moveCount, StandardCharsets.US_ASCII);
+            history.record(id, red, redBot, yellow, yellowBot, winner, moves,
+                    roundStartMillis, System.currentTimeMillis());
+        }
+        if (ratings != null) {
+            ratings.recordGame(redBot ? bot.ratingName() : red, yellowBot ? bot.ratingName() : yellow, winner);
+        }
+    }
+
+    // ----------------- cuenta atras -----------------
+
+    // hacer la cuenta atras antes de empezar
+    void sendCountdown() {
+        if (countdownRunning || clientsData.size() != REQUIRED_CLIENTS) {
+            return;
+        }
+        countdownRunning = true;
+
+        // reiniciar el juego cuando empiece la cuenta atras
+        resetGame();
+        countdownStep(5);
+    }
+
+    // un paso de la cuenta atras, el siguiente se programa en el hilo de la sala
+    private void countdownStep(int n) {
+        // si se desconecta alguien, parar
+        if (clientsData.size() < REQUIRED_CLIENTS) {
+            countdownRunning = false;
+            return;
+        }
+
+        sendCountdownToAll(n);
+        if (n > 0) {
+            after(COUNTDOWN_STEP_MILLIS, () -> countdownStep(n - 1));
+        } else {
+            countdownRunning = false;
+            startTurnClock();
+        }
+    }
+
+    /** Envia a tots els clients i espectadors de la sala el compte enrere. */
+    private void sendCountdownToAll(int n) {
+        String rst = Main.msg(Main.T_COUNTDOWN).put(Main.K_VALUE, n).toString();
+        // a los jugadores por su buzon, para que no adelante a lo que ya tengan esperando
+        ClientRegistry.Members players = clients.snapshot();
+        for (int i = 0; i < players.size(); i++) {
+            Main.sendControl(players.socket(i), rst);
+        }
+        if (!spectators.isEmpty()) {
+            Main.countControl(rst, spectators.size());
+            server.broadcast(rst, spectators);
+        }
+    }
+
+    // ----------------- bot -----------------
+
+    // si le toca al bot, pedirle la jugada; el numero de turno descarta las respuestas
+    // que llegan cuando el turno ya ha pasado
+    private void askBot(int gen) {
+        if (bot == null || roundWinner != null || !bot.role.equals(currentTurn)) {
+            return;
+        }
+        int player = Bitboard.playerOf(bot.role);
+        long current = board.pieces(player);
+        long mask = current | board.pieces(1 - player);
+        boolean accepted = bots.think(bot.level, current, mask, BOT_MILLIS,
+                col -> shard.execute(() -> botPlay(gen, col)));
+        if (!accepted) {
+            // pool saturado: jugar sin pensar
+            botPlay(gen, Solver.immediateMove(current, mask));
+        }
+    }
+
+    private void botPlay(int gen, int column) {
+        if (bot == null || gen != turnTimerGen || column < 0) {
+            return;
+        }
+        // la siguiente ficha de su monton
+        int used = Long.bitCount(board.pieces(Bitboard.playerOf(bot.role)));
+        String pieceId = bot.role + "_" + String.format("%02d", used);
+        processPlay(bot.name, column, pieceId);
+    }
+
+    // ----------------- relojes -----------------
+
+    // programar una tarea en el hilo de la sala con la rueda compartida
+    private TimerWheel.Timeout after(long millis, Runnable task) {
+        return timers.schedule(() -> shard.execute(task), millis, TimeUnit.MILLISECONDS);
+    }
+
+    // empezar a contar el tiempo del jugador que tiene el turno
+    private void startTurnClock() {
+        stopTurnClock();
+        if (clientsData.size() < REQUIRED_CLIENTS) {
+            return;
+        }
+        int gen = turnTimerGen;
+        if (TURN_TIMEOUT_MILLIS > 0) {
+            turnTimer = after(TURN_TIMEOUT_MILLIS, () -> {
+                if (gen == turnTimerGen) {
+                    onTurnTimeout();
+                }
+            });
+        }
+        askBot(gen);
+    }
+
+    private void stopTurnClock() {
+        turnTimerGen++;
+        if (turnTimer != null) {
+            turnTimer.cancel();
+            turnTimer = null;
+        }
+    }
+
+    // se acabo el tiempo: el turno pasa al otro jugador
+    private void onTurnTimeout() {
+        turnTimer = null;
+        if (roundWinner != null || clientsData.size() < REQUIRED_CLIENTS) {
+            return;
+        }
+        passTurn();
+        clearDrag();
+        startTurnClock();
+    }
+
+    // el turno pasa al otro jugador, salvo que ya no le queden fichas: con turnos perdidos
+    // un lado puede haber jugado mas que el otro
+    private void passTurn() {
+        String other = currentTurn.equals("R") ? "Y" : "R";
+        if (piecesLeft(other) > 0) {
+            currentTurn = other;
+        }
+    }
+
+    private int piecesLeft(String role) {
+        return PIECES_PER_PLAYER - Long.bitCount(board.pieces(Bitboard.playerOf(role)));
+    }
+
+    // la partida ha acabado: esperar un rato a que pidan la revancha
+    private void openRematchWindow() {
+        closeRematchWindow();
+        if (REMATCH_WINDOW_MILLIS <= 0) {
+            return;
+        }
+        int gen = rematchTimerGen;
+        rematchTimer = after(REMATCH_WINDOW_MILLIS, () -> {
+            if (gen == rematchTimerGen) {
+                onRematchExpired();
+            }
+        });
+    }
+
+    private void closeRematchWindow() {
+        rematchTimerGen++;
+        if (rematchTimer != null) {
+            rematchTimer.cancel();
+            rematchTimer = null;
+        }
+    }
+
+    // nadie ha pedido la revancha: soltar a los jugadores que queden para liberar la sala
+    private void onRematchExpired() {
+        rematchTimer = null;
+        if (gameWinner == null) {
+            return;
+        }
+        releasePlayers("rematch window expired");
+    }
+
+    /**
+     * La sala ja no continua: cada jugador que hi queda torna al vestíbul si en venia o,
+     * si no, es desconnecta.
+     */
+    void releasePlayers(String reason) {
+        ClientRegistry.Members conns = clients.snapshot();
+        for (int i = 0; i < conns.size(); i++) {
+            release.accept(conns.socket(i), reason);
+        }
+    }
+
+    // ----------------- envio del estado -----------------
+
+    /**
+     * Envia els canvis de la sala a les seves connexions.
+     *
+     * @param now temps actual (System.nanoTime)
+     * @param periodNanos període mínim entre enviaments
+     * @return true si l'estat ha canviat des de l'últim tick
+     */
+    boolean broadcastStatus(long now, long periodNanos) {
+        ClientRegistry.Members conns = clients.snapshot();
+
+        ServerUpdate delta = tracker.diff(clientsData, gameObjects, currentTurn,
+                                          scoreR, scoreY, roundWinner, gameWinner);
+        boolean changed = !delta.isEmpty();
+
+        // publicar cuantos jugadores hay, sin copiar el estado en cada tick
+        if (changed) {
+            publishedPlayers = clientsData.size();
+        }
+
+        syncedJson.clear();
+        syncedBinary.clear();
+        freshJson.clear();
+        freshBinary.clear();
+        for (int i = 0; i < conns.size(); i++) {
+            WebSocket conn = conns.socket(i);
+            ConnectionState state = conn.getAttachment();
+            if (state == null) {
+                continue;
+            }
+            state.maybePing(conn, now);
+
+            // primero lo que espera en el buzon; si no se vacia en mucho tiempo, fuera
+            if (!state.drain(conn, now)) {
+                ConnectionState.closeSlow(conn);
+                continue;
+            }
+
+            // las conexiones nuevas reciben el estado completo una sola vez
+            if (pendingKeyframe.remove(conn)) {
+                (Main.isBinary(conn) ? freshBinary : freshJson).add(conn);
+                state.pending = null;
+                state.markSent(now);
+                continue;
+            }
+
+            // si al cliente aun no le toca (RTT alto o cola llena), acumular el delta
+            int depth = ConnectionState.queueDepth(conn);
+            SEND_QUEUE_DEPTH.observe(depth);
+            if (!state.isDue(now, periodNanos, depth)) {
+                if (changed) {
+                    state.defer(delta);
+                }
+                continue;
+            }
+
+            if (state.pending != null) {
+                // lo acumulado se codifica solo para esta conexion
+                state.defer(delta);
+                sendUpdate(state.pending, conn);
+                state.pending = null;
+                state.markSent(now);
+            } else if (changed) {
+                (Main.isBinary(conn) ? syncedBinary : syncedJson).add(conn);
+                state.markSent(now);
+            }
+        }
+
+        // el delta se codifica una vez por formato y se reparte a todas las conexiones al dia
+        if (changed) {
+            sendUpdate(delta, syncedJson, syncedBinary);
+        }
+        if (!freshJson.isEmpty() || !freshBinary.isEmpty()) {
+            sendUpdate(tracker.keyframe(), freshJson, freshBinary);
+        }
+
+        // despues del estado: la ficha que se suelta al jugar ya esta en el tablero
+        relayDrag(conns);
+
+        broadcastSpectators(now);
+        return changed;
+    }
+
+    // reenviar la ficha arrastrada a los demas jugadores; una conexion que no tiene sitio
+    // la recibe en otro tick con la posicion de entonces (el ultimo valor gana)
+    private void relayDrag(ClientRegistry.Members conns) {
+        if (!dragDirty) {
+            return;
+        }
+        dragDirty = false;
+        String json = null;
+        byte[] binary = null;
+        for (int i = 0; i < conns.size(); i++) {
+            WebSocket conn = conns.socket(i);
+            ConnectionState state = conn.getAttachment();
+            if (conn == dragFrom || state == null) {
+                continue;
+            }
+            if (!state.hasRoom(conn)) {
+                dragDirty = true;
+                continue;
+            }
+            try {
+                if (Main.isBinary(conn)) {
+                    if (binary == null) {
+                        binary = BinaryCodec.encodePieceMoving(dragPiece, dragX, dragY);
+                    }
+                    conn.send(binary);
+                    DRAG_BYTES.add(binary.length);
+                } else {
+                    if (json == null) {
+                        String pieceId = BinaryCodec.pieceId(dragPiece);
+                        json = Main.msg(Main.T_PIECE_MOVING).put(Main.K_PIECE_ID, pieceId != null ? pieceId : "")
+                                .put("x", dragX).put("y", dragY).toString();
+                    }
+                    conn.send(json);
+                    DRAG_BYTES.add(json.length());
+                }
+                DRAG_MESSAGES.inc();
+            } catch (WebsocketNotConnectedException e) {
+                // la conexion ya esta cerrada, onClose la saca de su sala
+            }
+        }
+    }
+
+    // enviar a los espectadores si les toca: un delta codificado una vez para todos
+    private void broadcastSpectators(long now) {
+        if (spectators.isEmpty() || now - spectatorSentAt < SPECTATOR_PERIOD_NANOS) {
+            return;
+        }
+        spectatorSentAt = now;
+        ServerUpdate delta = spectatorTracker.diff(clientsData, gameObjects, currentTurn,
+                                                   scoreR, scoreY, roundWinner, gameWinner);
+
+        syncedJson.clear();
+        syncedBinary.clear();
+        freshJson.clear();
+        freshBinary.clear();
+        for (WebSocket conn : spectators) {
+            // si no da abasto se salta deltas y luego se pone al dia con el estado completo
+            int depth = ConnectionState.queueDepth(conn);
+            SEND_QUEUE_DEPTH.observe(depth);
+            if (depth > SPECTATOR_QUEUE_LIMIT) {
+                spectatorKeyframe.add(conn);
+            } else if (spectatorKeyframe.remove(conn)) {
+                (Main.isBinary(conn) ? freshBinary : freshJson).add(conn);
+            } else if (!delta.isEmpty()) {
+                (Main.isBinary(conn) ? syncedBinary : syncedJson).add(conn);
+            }
+        }
+
+        if (!delta.isEmpty()) {
+            sendUpdate(delta, syncedJson, syncedBinary);
+        }
+        if (!freshJson.isEmpty() || !freshBinary.isEmpty()) {
+            sendUpdate(spectatorTracker.keyframe(), freshJson, freshBinary);
+        }
+    }
+
+    // enviar el estado ya mismo, sin esperar al siguiente tick
+    void broadcastNow() {
+        broadcastStatus(System.nanoTime(), TimeUnit.SECONDS.toNanos(1) / RoomShard.ACTIVE_FPS);
+    }
+
+    // enviar un update a una sola conexion
+    private void sendUpdate(ServerUpdate update, WebSocket conn) {
+        if (update.isEmpty()) {
+            return;
+        }
+        if (Main.isBinary(conn)) {
+            sendUpdate(update, List.of(), List.of(conn));
+        } else {
+            sendUpdate(update, List.of(conn), List.of());
+        }
+    }
+
+    // codificar un update solo en los formatos que hacen falta
+    private void sendUpdate(ServerUpdate update, List<WebSocket> jsonTargets, List<WebSocket> binaryTargets) {
+        if (!jsonTargets.isEmpty()) {
+            shard.sendJson(update, jsonTargets);
+        }
+        if (!binaryTargets.isEmpty()) {
+            byte[] payload = BinaryCodec.encodeUpdate(update);
+            RoomShard.STATE_MESSAGES.add(binaryTargets.size());
+            RoomShard.STATE_BYTES.add((long) payload.length * binaryTargets.size());
+            server.broadcast(payload, binaryTargets);
+        }
+    }
+
+    // conexiones de la sala con su nombre
+    ClientRegistry.Members members() {
+        return clients.snapshot();
+    }
+
+    // ----------------- coste de la sala -----------------
+
+    // sumar lo que ha costado un tick de esta sala
+    void recordTick(long nanos, long bytes) {
+        statTicks++;
+        statNanos += nanos;
+        statBytes += bytes;
+    }
+
+    /**
+     * Cost mitjà per tick des de l'última crida, i torna a començar a comptar.
+     *
+     * @return {ticks, nanos per tick, bytes per tick}
+     */
+    long[] takeTickStats() {
+        long[] stats = statTicks == 0
+            ? new long[] {0, 0, 0}
+            : new long[] {statTicks, statNanos / statTicks, statBytes / statTicks};
+        statTicks = 0;
+        statNanos = 0;
+        statBytes = 0;
+        return stats;
+    }
+}
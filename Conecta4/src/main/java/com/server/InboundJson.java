@@ -0,0 +1,244 @@
+package com.server;
+
+import org.json.JSONTokener;
+
+import com.shared.BinaryCodec;
+
+/**
+ * Lectura ràpida dels missatges JSON dels clients, sense construir cap {@code JSONObject}.
+ *
+ * Recorre el text una sola vegada saltant les cadenes correctament (amb escapaments) i
+ * només mira les claus que interessen: el camp "type" del primer nivell i els camps
+ * numèrics que es demanen, que s'escriuen directament en un array de l'usuari. Per als
+ * missatges freqüents (moviment del ratolí i de la fitxa arrossegada) no es crea cap
+ * objecte.
+ *
+ * Els camps numèrics es llegeixen com {@code optInt}: si tenen decimals es trunquen i si
+ * no hi són es deixa el valor que ja hi havia.
+ */
+final class InboundJson {
+
+    private static final String TYPE = "type";
+
+    private InboundJson() {
+    }
+
+    /**
+     * Tipus del missatge (camp "type" del primer nivell).
+     *
+     * @param s missatge JSON
+     * @return tipus del missatge, o {@link MessageType#UNKNOWN} si no és vàlid
+     */
+    static MessageType type(String s) {
+        int depth = 0;
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                int start = i + 1;
+                int end = skipString(s, i);
+                if (end < 0) {
+                    return MessageType.UNKNOWN;
+                }
+                int next = skipSpaces(s, end);
+                boolean isKey = next < n && s.charAt(next) == ':';
+                if (isKey && depth == 1 && isRegion(s, start, end - 1, TYPE)) {
+                    int v = skipSpaces(s, next + 1);
+                    if (v >= n || s.charAt(v) != '"') {
+                        return MessageType.UNKNOWN;
+                    }
+                    int vEnd = skipString(s, v);
+                    if (vEnd < 0) {
+                        return MessageType.UNKNOWN;
+                    }
+                    return MessageType.of(s, v + 1, vEnd - v - 2);
+                }
+                i = end;
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+            i++;
+        }
+        return MessageType.UNKNOWN;
+    }
+
+    /**
+     * Llegeix camps enters a qualsevol nivell del missatge.
+     *
+     * @param s missatge JSON
+     * @param keys noms dels camps
+     * @param into on es guarda el valor de cada camp (mateix índex que {@code keys});
+     *             els que no hi són no es toquen
+     */
+    static void readInts(String s, String[] keys, int[] into) {
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            if (s.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+            int start = i + 1;
+            int end = skipString(s, i);
+            if (end < 0) {
+                return;
+            }
+            i = end;
+            int next = skipSpaces(s, end);
+            if (next >= n || s.charAt(next) != ':') {
+                continue;
+            }
+            for (int k = 0; k < keys.length; k++) {
+                if (isRegion(s, start, end - 1, keys[k])) {
+                    int v = skipSpaces(s, next + 1);
+                    if (v < n && (s.charAt(v) == '-' || Character.isDigit(s.charAt(v)))) {
+                        into[k] = parseInt(s, v);
+                    }
+                    break;
+                }
+            }
+            i = next + 1;
+        }
+    }
+
+    /**
+     * Valor d'un camp de text a qualsevol nivell del missatge (crea la cadena).
+     *
+     * @return el valor, o {@code def} si no hi és o no és una cadena
+     */
+    static String readString(String s, String key, String def) {
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            if (s.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+            int start = i + 1;
+            int end = skipString(s, i);
+            if (end < 0) {
+                return def;
+            }
+            i = end;
+            int next = skipSpaces(s, end);
+            if (next >= n || s.charAt(next) != ':') {
+                continue;
+            }
+            if (isRegion(s, start, end - 1, key)) {
+                int v = skipSpaces(s, next + 1);
+                if (v >= n || s.charAt(v) != '"') {
+                    return def;
+                }
+                int vEnd = skipString(s, v);
+                if (vEnd < 0) {
+                    return def;
+                }
+                int escape = s.indexOf('\\', v);
+                if (escape < 0 || escape >= vEnd) {
+                    return s.substring(v + 1, vEnd - 1);
+                }
+                // con escapes: que lo deshaga el tokenizer de org.json
+                return (String) new JSONTokener(s.substring(v, vEnd)).nextValue();
+            }
+            i = next + 1;
+        }
+        return def;
+    }
+
+    /**
+     * Codi de la fitxa d'un camp de text a qualsevol nivell del missatge, sense crear la
+     * cadena (vegeu {@link BinaryCodec#pieceCode(CharSequence, int, int)}).
+     *
+     * @return el codi, o {@link BinaryCodec#NO_PIECE} si no hi és o no és una fitxa
+     */
+    static int readPiece(String s, String key) {
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            if (s.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+            int start = i + 1;
+            int end = skipString(s, i);
+            if (end < 0) {
+                return BinaryCodec.NO_PIECE;
+            }
+            i = end;
+            int next = skipSpaces(s, end);
+            if (next >= n || s.charAt(next) != ':') {
+                continue;
+            }
+            if (isRegion(s, start, end - 1, key)) {
+                int v = skipSpaces(s, next + 1);
+                if (v >= n || s.charAt(v) != '"') {
+                    return BinaryCodec.NO_PIECE;
+                }
+                int vEnd = skipString(s, v);
+                if (vEnd < 0) {
+                    return BinaryCodec.NO_PIECE;
+                }
+                return BinaryCodec.pieceCode(s, v + 1, vEnd - v - 2);
+            }
+            i = next + 1;
+        }
+        return BinaryCodec.NO_PIECE;
+    }
+
+    // ----------------- auxiliares -----------------
+
+    // posicion justo despues de la cadena que empieza en i (en la comilla), o -1
+    private static int skipString(String s, int i) {
+        int n = s.length();
+        i++;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(String s, int i) {
+        int n = s.length();
+        while (i < n && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    // la clave s[start, end) es exactamente key
+    private static boolean isRegion(String s, int start, int end, String key) {
+        return end - start == key.length() && s.regionMatches(start, key, 0, key.length());
+    }
+
+    // entero en la posicion i (se para en el primer caracter que no sea digito)
+    private static int parseInt(String s, int i) {
+        int n = s.length();
+        boolean negative = false;
+        if (s.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        long value = 0;
+        while (i < n && Character.isDigit(s.charAt(i))) {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                value = Integer.MAX_VALUE + 1L;
+            }
+            i++;
+        }
+        value = negative ? -value : value;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+}
@@ -0,0 +1,428 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Vestíbul: jugadors connectats que encara no juguen i que trien rival.
+ *
+ * Els clients que es connecten a {@code /lobby?name=...} entren aquí amb el seu nom (si
+ * ja el té algú, s'hi afegeix un número). Els noms de la llista de les sales, els que
+ * comencen per {@code bot-} i els de convidat estan reservats: qui no en porta cap o en
+ * demana un de reservat entra com a convidat i no puntua a la classificació. Des del vestíbul poden demanar la llista de
+ * jugadors disponibles (per pàgines), convidar-ne un, acceptar o rebutjar invitacions, o
+ * entrar a la cua automàtica ({@link MatchQueue}), que els emparella per puntuació. Quan
+ * dos jugadors s'emparellen, el {@link RoomManager} els posa en una sala només per a ells;
+ * quan en surten tornen al vestíbul.
+ *
+ * El vestíbul no envia res si ningú no ho demana: no hi ha difusió de la llista, així que
+ * milers de connexions esperant no costen res més que la memòria de la seva entrada. La
+ * llista de disponibles és un vector on treure és intercanviar amb l'últim, de manera que
+ * entrar, sortir i llegir una pàgina són O(1) per jugador (l'ordre de la llista no és fix).
+ *
+ * Tot va amb el monitor del vestíbul. Les parelles es passen al {@link RoomManager} amb el
+ * monitor agafat (ordre de bloqueig: vestíbul i després gestor; el gestor no crida mai el
+ * vestíbul). Els missatges, en canvi, es preparen amb el monitor i s'envien després de
+ * deixar-lo: enviar a una connexió que es tanca no pot esperar el vestíbul.
+ */
+final class Lobby {
+
+    // mensajes del servidor
+    private static final String T_WELCOME = "lobbyWelcome";
+    private static final String T_LIST = "lobbyList";
+    private static final String T_INVITE = "lobbyInvite";
+    private static final String T_INVITE_DECLINED = "lobbyInviteDeclined";
+    private static final String T_QUEUED = "lobbyQueued";
+    private static final String T_MATCHED = "lobbyMatched";
+    private static final String T_ERROR = "lobbyError";
+
+    // jugadores de la lista que se envian como maximo
+    private static final int LIST_MAX = 100;
+
+    // largo maximo de un nombre
+    private static final int NAME_MAX = 20;
+
+    /** Inici dels noms de convidat, que no puntuen (vegeu {@link Ratings#isRated}). */
+    static final String GUEST_PREFIX = "guest-";
+
+    // cada cuanto se ensancha la ventana de la cola
+    private static final long SWEEP_MILLIS = 1000;
+
+    /** Què fa un jugador del vestíbul. */
+    enum Status {
+        IDLE("idle"), QUEUED("queued"), PLAYING("playing");
+
+        final String wireName;
+
+        Status(String wireName) {
+            this.wireName = wireName;
+        }
+    }
+
+    // un jugador del vestibulo (solo con el monitor)
+    private static final class Entry {
+
+        final WebSocket conn;
+        final String name;
+        Status status = Status.IDLE;
+        double rating;
+        MatchQueue.Ticket<Entry> ticket;
+
+        /** Posició a la llista de disponibles, o -1. */
+        int slot = -1;
+
+        // invitaciones enviadas y recibidas que siguen pendientes
+        final Set<Entry> invited = new HashSet<>();
+        final Set<Entry> invitedBy = new HashSet<>();
+
+        Entry(WebSocket conn, String name) {
+            this.conn = conn;
+            this.name = name;
+        }
+    }
+
+    private final RoomManager rooms;
+    private final RoomManager.JoinListener onJoined;
+    private final BiConsumer<WebSocket, String> send;
+
+    // mensajes preparados con el monitor, se envian al soltarlo (solo con el monitor)
+    private final List<WebSocket> outConns = new ArrayList<>();
+    private final List<String> outPayloads = new ArrayList<>();
+
+    private final Map<WebSocket, Entry> byConn = new HashMap<>();
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final List<Entry> available = new ArrayList<>();
+    private final MatchQueue<Entry> queue = new MatchQueue<>();
+    private int guests = 0;
+
+    /**
+     * @param rooms gestor on es creen les sales de les parelles
+     * @param onJoined es crida al fil de la sala quan cada jugador hi ha entrat
+     * @param send envia un missatge a una connexió
+     */
+    Lobby(RoomManager rooms, RoomManager.JoinListener onJoined, BiConsumer<WebSocket, String> send) {
+        this.rooms = rooms;
+        this.onJoined = onJoined;
+        this.send = send;
+    }
+
+    /** Comença a eixamplar periòdicament la finestra de la cua. */
+    void start() {
+        rooms.timers().schedule(this::sweep, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // ensanchar la ventana de los que esperan y volver a programarse
+    private void sweep() {
+        synchronized (this) {
+            if (queue.size() > 0) {
+                queue.sweep(System.nanoTime(), this::match);
+            }
+        }
+        start();
+    }
+
+    /**
+     * Entra una connexió al vestíbul.
+     *
+     * @param wanted nom que demana el client (null o buit per rebre'n un de convidat)
+     */
+    void enter(WebSocket conn, String wanted) {
+        try {
+            synchronized (this) {
+                Entry e = new Entry(conn, uniqueName(wanted));
+                byConn.put(conn, e);
+                byName.put(e.name, e);
+                makeAvailable(e);
+                welcome(e);
+                System.out.println("[SERVER] Lobby: " + e.name + " connected (" + byConn.size() + " in lobby)");
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Treu una connexió del vestíbul (s'ha tancat). */
+    synchronized void leave(WebSocket conn) {
+        Entry e = byConn.remove(conn);
+        if (e == null) {
+            return;
+        }
+        byName.remove(e.name);
+        queue.cancel(e.ticket);
+        makeUnavailable(e);
+        dropInvites(e);
+    }
+
+    /** Un jugador que jugava torna al vestíbul. */
+    void returned(WebSocket conn) {
+        try {
+            synchronized (this) {
+                Entry e = byConn.get(conn);
+                if (e == null || e.status != Status.PLAYING) {
+                    return;
+                }
+                e.status = Status.IDLE;
+                makeAvailable(e);
+                welcome(e);
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Nom d'una connexió del vestíbul, o null. */
+    synchronized String nameOf(WebSocket conn) {
+        Entry e = byConn.get(conn);
+        return e == null ? null : e.name;
+    }
+
+    synchronized int size() {
+        return byConn.size();
+    }
+
+    /**
+     * Envia una pàgina de la llista de jugadors disponibles.
+     *
+     * @param offset primer jugador (0 és el primer)
+     * @param limit nombre màxim de jugadors
+     */
+    void list(WebSocket conn, int offset, int limit) {
+        try {
+            synchronized (this) {
+                if (!byConn.containsKey(conn)) {
+                    return;
+                }
+                int from = Math.max(0, Math.min(offset, available.size()));
+                int to = Math.min(available.size(), from + Math.max(0, Math.min(LIST_MAX, limit)));
+                JSONArray players = new JSONArray();
+                for (int i = from; i < to; i++) {
+                    Entry e = available.get(i);
+                    players.put(new JSONObject()
+                        .put("name", e.name)
+                        .put("rating", Math.round(e.rating))
+                        .put("status", e.status.wireName));
+                }
+                post(conn, Main.msg(T_LIST).put("offset", from).put("total", available.size())
+                        .put("players", players).toString());
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Convida un jugador disponible a jugar. */
+    void invite(WebSocket conn, String to) {
+        try {
+            synchronized (this) {
+                Entry from = byConn.get(conn);
+                if (from == null || from.status == Status.PLAYING) {
+                    return;
+                }
+                Entry target = byName.get(to);
+                if (target == null || target == from || target.status == Status.PLAYING) {
+                    error(from, "player not available: " + to);
+                    return;
+                }
+                // si el otro ya le habia invitado, es como aceptar
+                if (from.invitedBy.contains(target)) {
+                    match(target, from);
+                    return;
+                }
+                if (from.invited.add(target)) {
+                    target.invitedBy.add(from);
+                    post(target.conn, Main.msg(T_INVITE).put("from", from.name)
+                            .put("rating", Math.round(from.rating)).toString());
+                }
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Accepta la invitació d'un jugador: tots dos van a una sala nova. */
+    void accept(WebSocket conn, String from) {
+        try {
+            synchronized (this) {
+                Entry me = byConn.get(conn);
+                if (me == null || me.status == Status.PLAYING) {
+                    return;
+                }
+                Entry inviter = byName.get(from);
+                if (inviter == null || !me.invitedBy.contains(inviter)) {
+                    error(me, "no invitation from: " + from);
+                    return;
+                }
+                match(inviter, me);
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Rebutja la invitació d'un jugador. */
+    void decline(WebSocket conn, String from) {
+        try {
+            synchronized (this) {
+                Entry me = byConn.get(conn);
+                Entry inviter = byName.get(from);
+                if (me == null || inviter == null || !me.invitedBy.remove(inviter)) {
+                    return;
+                }
+                inviter.invited.remove(me);
+                post(inviter.conn, Main.msg(T_INVITE_DECLINED).put("by", me.name).toString());
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Entra a la cua automàtica. */
+    void enqueue(WebSocket conn) {
+        try {
+            synchronized (this) {
+                Entry e = byConn.get(conn);
+                if (e == null || e.status != Status.IDLE) {
+                    return;
+                }
+                e.status = Status.QUEUED;
+                e.ticket = queue.enqueue(e, e.rating, System.nanoTime(), this::match);
+                // si habia alguien en su cubeta ya esta jugando
+                if (e.status == Status.QUEUED) {
+                    post(conn, Main.msg(T_QUEUED).put("waiting", queue.size()).toString());
+                }
+            }
+        } finally {
+            flush();
+        }
+    }
+
+    /** Surt de la cua automàtica. */
+    synchronized void cancelQueue(WebSocket conn) {
+        Entry e = byConn.get(conn);
+        if (e == null || e.status != Status.QUEUED) {
+            return;
+        }
+        queue.cancel(e.ticket);
+        e.ticket = null;
+        e.status = Status.IDLE;
+    }
+
+    // enviar lo preparado, ya sin el monitor: enviar puede esperar al cerrojo de una
+    // conexion que se esta cerrando y cuyo onClose espera al vestibulo
+    private void flush() {
+        WebSocket[] conns;
+        String[] payloads;
+        synchronized (this) {
+            if (outConns.isEmpty()) {
+                return;
+            }
+            conns = outConns.toArray(new WebSocket[0]);
+            payloads = outPayloads.toArray(new String[0]);
+            outConns.clear();
+            outPayloads.clear();
+        }
+        for (int i = 0; i < conns.length; i++) {
+            send.accept(conns[i], payloads[i]);
+        }
+    }
+
+    // ----------------- con el monitor -----------------
+
+    // dejar un mensaje para enviarlo al soltar el monitor
+    private void post(WebSocket conn, String payload) {
+        outConns.add(conn);
+        outPayloads.add(payload);
+    }
+
+    // los dos dejan el vestibulo y van a una sala nueva (el primero juega con rojas)
+    private void match(Entry a, Entry b) {
+        for (Entry e : new Entry[] { a, b }) {
+            queue.cancel(e.ticket);
+            e.ticket = null;
+            e.status = Status.PLAYING;
+            makeUnavailable(e);
+            dropInvites(e);
+        }
+        // el aviso va al hilo de la sala para que llegue antes que el serverWelcome
+        GameRoom room = rooms.startMatch(a.conn, a.name, b.conn, b.name, (conn, r, data) -> {
+            String opponent = conn == a.conn ? b.name : a.name;
+            send.accept(conn, Main.msg(T_MATCHED).put("opponent", opponent).put("room", r.id()).toString());
+            onJoined.joined(conn, r, data);
+        });
+        System.out.println("[SERVER] Lobby: " + a.name + " vs " + b.name + " in room " + room.id());
+    }
+
+    private void welcome(Entry e) {
+        e.rating = rooms.ratings().rating(e.name);
+        post(e.conn, Main.msg(T_WELCOME).put("name", e.name).put("rating", Math.round(e.rating))
+                .put("available", available.size()).toString());
+    }
+
+    private void error(Entry e, String message) {
+        post(e.conn, Main.msg(T_ERROR).put("message", message).toString());
+    }
+
+    private void makeAvailable(Entry e) {
+        if (e.slot < 0) {
+            e.slot = available.size();
+            available.add(e);
+        }
+    }
+
+    // quitar de la lista cambiandolo por el ultimo
+    private void makeUnavailable(Entry e) {
+        if (e.slot < 0) {
+            return;
+        }
+        Entry last = available.remove(available.size() - 1);
+        if (last != e) {
+            available.set(e.slot, last);
+            last.slot = e.slot;
+        }
+        e.slot = -1;
+    }
+
+    private static void dropInvites(Entry e) {
+        for (Entry other : e.invited) {
+            other.invitedBy.remove(e);
+        }
+        for (Entry other : e.invitedBy) {
+            other.invited.remove(e);
+        }
+        e.invited.clear();
+        e.invitedBy.clear();
+    }
+
+    // el nombre pedido si esta libre, con un numero si no, o uno de invitado
+    private String uniqueName(String wanted) {
+        String base = wanted == null ? "" : wanted.strip();
+        if (base.length() > NAME_MAX) {
+            base = base.substring(0, NAME_MAX);
+        }
+        // los nombres de los bots estan reservados para la clasificacion, y los de la
+        // lista de las salas y los de invitado los comparten jugadores distintos
+        if (base.isEmpty() || base.startsWith("bot-") || base.startsWith(GUEST_PREFIX)
+                || GameRoom.PLAYER_NAMES.contains(base)) {
+            String name;
+            do {
+                name = GUEST_PREFIX + (++guests);
+            } while (byName.containsKey(name));
+            return name;
+        }
+        String name = base;
+        for (int i = 2; byName.containsKey(name); i++) {
+            name = base + "-" + i;
+        }
+        return name;
+    }
+}
@@ -1,25 +1,29 @@
 package com.server;
 
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import com.shared.BinaryCodec;
 import com.shared.ClientData;
+import com.shared.DeflateExtension;
 import com.shared.GameObject;
 
 // Servidor de Conecta 4 con WebSocket
@@ -28,520 +32,526 @@ public class Main extends WebSocketServer {
     // puerto del servidor
     public static final int DEFAULT_PORT = 3000;
 
-    // nombres de jugadores
-    private static final List<String> PLAYER_NAMES = Arrays.asList(
-        "Bulbasaur", "Charizard", "Blaziken", "Umbreon", "Mewtwo", "Pikachu", "Wartortle"
-    );
+    // nombres de campos JSON
+    static final String K_TYPE = "type";
+    static final String K_VALUE = "value";
+    private static final String K_CLIENT_NAME = "clientName";
+    static final String K_PIECE_ID = "pieceId";
+    private static final String K_SPECTATOR = "spectator";
+    private static final String K_ROOM = "room";
+    private static final String K_LIMIT = "limit";
+    private static final String K_TOP = "top";
+    private static final String K_YOU = "you";
+    private static final String K_TO = "to";
+    private static final String K_FROM = "from";
+
+    // ruta para mirar una sala: /spectate (la que tenga mas jugadores) o /spectate/<id>
+    private static final String SPECTATE_PATH = "/spectate";
+    private static final int NOT_SPECTATING = -2;
+
+    // ruta del vestibulo: /lobby?name=<nombre>
+    private static final String LOBBY_PATH = "/lobby";
+    private static final String NAME_PARAM = "name=";
+
+    // campos numericos que se leen de cada tipo de mensaje (los tipos estan en MessageType)
+    private static final String[] MOUSE_KEYS = { "mouseX", "mouseY", "row", "col" };
+    private static final String[] PLAY_KEYS = { "column" };
+    // el id de la ficha es texto y readInts no lo toca: va aparte con readPiece
+    private static final String[] DRAG_KEYS = { K_PIECE_ID, "x", "y" };
+    private static final String[] LEADERBOARD_KEYS = { K_LIMIT };
+    private static final String[] LOBBY_LIST_KEYS = { "offset", K_LIMIT };
+
+    // tipos de mensajes del servidor
+    static final String T_COUNTDOWN = "countdown";
+    static final String T_PIECE_MOVING = "serverPieceMoving";
+    private static final String T_SERVER_WELCOME = "serverWelcome";
+    private static final String T_LEADERBOARD = "leaderboard";
+
+    // jugadores de la clasificacion que se envian como maximo
+    private static final int LEADERBOARD_MAX = 100;
+
+    // metricas: mensajes recibidos por tipo y formato, mensajes sueltos enviados, errores
+    private static final Metrics.Counter[] INBOUND_JSON = new Metrics.Counter[MessageType.values().length];
+    private static final Metrics.Counter INBOUND_BINARY_MOUSE = inbound(MessageType.MOUSE_MOVING, "binary");
+    private static final Metrics.Counter INBOUND_BINARY_PLAY = inbound(MessageType.PLAY, "binary");
+    private static final Metrics.Counter INBOUND_BINARY_DRAG = inbound(MessageType.PIECE_MOVING, "binary");
+    private static final Metrics.Counter INBOUND_BINARY_OTHER = inbound(MessageType.UNKNOWN, "binary");
+    private static final Metrics.Counter CONTROL_MESSAGES = Metrics.counter("c4_broadcast_messages_total",
+            "Messages sent to clients", Metrics.label("kind", "control"));
+    private static final Metrics.Counter CONTROL_BYTES = Metrics.counter("c4_broadcast_bytes_total",
+            "Payload bytes sent to clients", Metrics.label("kind", "control"));
+    private static final Metrics.Counter SOCKET_ERRORS = Metrics.counter("c4_errors_total",
+            "Exceptions swallowed to keep the server running", Metrics.label("where", "websocket"));
+    private static final Metrics.Counter INBOUND_ERRORS = Metrics.counter("c4_errors_total",
+            "Exceptions swallowed to keep the server running", Metrics.label("where", "inbound"));
+    private static final Metrics.Counter OUTBOUND_ERRORS = Metrics.counter("c4_errors_total",
+            "Exceptions swallowed to keep the server running", Metrics.label("where", "outbound"));
+
+    static {
+        for (MessageType type : MessageType.values()) {
+            INBOUND_JSON[type.ordinal()] = inbound(type, "json");
+        }
+    }
 
-    // colores de jugadores
-    private static final List<String> PLAYER_COLORS = Arrays.asList(
-        "GREEN", "ORANGE", "RED", "GRAY", "PURPLE", "YELLOW", "BLUE"
-    );
+    // salas de juego, cada conexion va a una sala de dos jugadores
+    private final RoomManager rooms;
 
-    // cuantos jugadores se necesitan para empezar
-    private static final int REQUIRED_CLIENTS = 2;
+    // servidor HTTP de las metricas (null si no se ha abierto)
+    private volatile MetricsServer metrics = null;
 
-    // nombres de campos JSON
-    private static final String K_TYPE = "type";
-    private static final String K_VALUE = "value";
-    private static final String K_CLIENT_NAME = "clientName";
-    private static final String K_CLIENTS_LIST = "clientsList";             
-    private static final String K_OBJECTS_LIST = "objectsList"; 
-
-    // tipos de mensajes
-    private static final String T_CLIENT_MOUSE_MOVING = "clientMouseMoving";
-    private static final String T_CLIENT_OBJECT_MOVING = "clientObjectMoving";
-    private static final String T_CLIENT_PIECE_MOVING = "clientPieceMoving";
-    private static final String T_CLIENT_PLAY = "clientPlay";
-    private static final String T_CLIENT_CONTINUE_ROUND = "clientContinueRound";
-    private static final String T_CLIENT_REMATCH = "clientRematch";
-    private static final String T_SERVER_DATA = "serverData";
-    private static final String T_COUNTDOWN = "countdown";
-
-    // registro de clientes conectados
-    private final ClientRegistry clients;
-
-    // datos de cada cliente (nombre, color, posicion, rol)
-    private final Map<String, ClientData> clientsData = new HashMap<>();
-
-    // todas las fichas del juego
-    private final Map<String, GameObject> gameObjects = new HashMap<>();
-
-    // para saber si ya esta corriendo la cuenta atras
-    private volatile boolean countdownRunning = false;
-
-    // cuantas veces por segundo enviar datos
-    private static final int SEND_FPS = 60;
-    private final ScheduledExecutorService ticker;
-    
-    // tablero del conecta 4
-    private final String[][] board = new String[6][7]; // 6 filas x 7 columnas
-    private String currentTurn = "R"; // de quien es el turno (R o Y)
-    
-    // puntuacion de cada jugador
-    private int scoreR = 0; // victorias del rojo
-    private int scoreY = 0; // victorias del amarillo
-    
-    // ganador de la ronda actual
-    private String roundWinner = null; // "R", "Y" o null
-    
-    // ganador final (quien llega a 3)
-    private String gameWinner = null; // "R", "Y" o null
-    
-    // posicion y tamaño del tablero
-    private static final double GRID_START_X = 25;
-    private static final double GRID_START_Y = 25;
-    private static final double CELL_SIZE = 50;
-    private static final int GRID_ROWS = 6;
-    private static final int GRID_COLS = 7;
+    // jugadores que eligen rival antes de entrar en una sala
+    private final Lobby lobby;
+
+    // cuantos bucles de salas (por defecto uno por nucleo)
+    private static final int SHARDS = Integer.getInteger("c4.shards", Runtime.getRuntime().availableProcessors());
 
     // crear el servidor
     public Main(InetSocketAddress address) {
-        super(address);
-        this.clients = new ClientRegistry(PLAYER_NAMES);
-        initializegameObjects();
-        initializeBoard();
-
-        // crear el ticker para enviar datos cada frame
-        ThreadFactory tf = r -> {
-            Thread t = new Thread(r, "ServerTicker");
-            t.setDaemon(true);
-            return t;
-        };
-        this.ticker = Executors.newSingleThreadScheduledExecutor(tf);
+        super(address, createDrafts());
+        if (DeflateExtension.ENABLED) {
+            // el contexto de compresion es de la conexion: un solo envio a la vez
+            setWebSocketFactory(new SerialSocketFactory());
+        }
+        this.rooms = new RoomManager(this, SHARDS, this::release);
+        this.lobby = new Lobby(rooms, this::welcome, this::sendSafe);
+
+        Metrics.gauge("c4_rooms_active", "Rooms with at least one player", "", rooms::roomCount);
+        Metrics.gauge("c4_connections_active", "Open WebSocket connections", "", () -> getConnections().size());
+        Metrics.gauge("c4_players_active", "Connections seated in a room", "", rooms::clientCount);
+        Metrics.gauge("c4_spectators_active", "Connections watching a room", "", rooms::spectatorCount);
+        Metrics.gauge("c4_lobby_players", "Connections in the lobby, playing or not", "", lobby::size);
+        Metrics.counter("c4_deflate_input_bytes_total", "Bytes of outbound messages before permessage-deflate", "",
+                DeflateExtension.RAW_BYTES::sum);
+        Metrics.counter("c4_deflate_output_bytes_total", "Bytes of outbound messages after permessage-deflate", "",
+                DeflateExtension.DEFLATED_BYTES::sum);
     }
 
-    // crear todas las fichas al inicio
-    private void initializegameObjects() {
-        // el tablero termina en x=375, poner las fichas a la derecha
-        double piecesStartX = 450;
-        double piecesStartY = 50;
-        double verticalSpacing = 45;
-        
-        // crear 21 fichas rojas
-        for (int i = 0; i < 21; i++) {
-            String objId = "R_" + String.format("%02d", i);
-            int x = (int) (piecesStartX + (i % 2) * 45);
-            int y = (int) (piecesStartY + (i / 2) * verticalSpacing);
-            GameObject obj = new GameObject(objId, x, y, 1, 1);
-            gameObjects.put(objId, obj);
-        }
-        
-        // crear 21 fichas amarillas
-        for (int i = 0; i < 21; i++) {
-            String objId = "Y_" + String.format("%02d", i);
-            int x = (int) (piecesStartX + 90 + (i % 2) * 45);
-            int y = (int) (piecesStartY + (i / 2) * verticalSpacing);
-            GameObject obj = new GameObject(objId, x, y, 1, 1);
-            gameObjects.put(objId, obj);
-        }
+    // aceptar el formato binario si el cliente lo pide, si no JSON; y comprimir si
+    // el cliente lo ofrece y esta activado (c4.deflate)
+    private static List<Draft> createDrafts() {
+        List<IProtocol> protocols = List.of(new Protocol(BinaryCodec.PROTOCOL), new Protocol(""));
+        return List.of(new Draft_6455(DeflateExtension.fromProperties(), protocols));
     }
 
-    // limpiar el tablero
-    private void initializeBoard() {
-        for (int row = 0; row < GRID_ROWS; row++) {
-            for (int col = 0; col < GRID_COLS; col++) {
-                board[row][col] = " ";
-            }
-        }
+    // ver si la conexion ha negociado el formato binario
+    static boolean isBinary(WebSocket conn) {
+        IProtocol protocol = conn.getProtocol();
+        return protocol != null && BinaryCodec.PROTOCOL.equals(protocol.getProvidedProtocol());
     }
 
-    // reiniciar el juego
-    private synchronized void resetGame() {
-        // limpiar tablero
-        initializeBoard();
-        
-        // empezar con rojo
-        currentTurn = "R";
-        
-        // limpiar ganador de ronda
-        roundWinner = null;
-        
-        // volver a poner las fichas en su sitio
-        gameObjects.clear();
-        initializegameObjects();
+    // crear un mensaje JSON
+    static JSONObject msg(String type) {
+        return new JSONObject().put(K_TYPE, type);
     }
-    
-    // reiniciar puntuacion completa
-    private synchronized void resetScores() {
-        scoreR = 0;
-        scoreY = 0;
-        gameWinner = null;
-        resetGame();
+
+    // contar un mensaje suelto (no de estado) enviado a varias conexiones
+    static void countControl(String payload, int targets) {
+        CONTROL_MESSAGES.add(targets);
+        CONTROL_BYTES.add((long) payload.length() * targets);
     }
-    
-    // comprobar si hay 4 en linea
-    private boolean checkWinner(int row, int col, String player) {
-        // horizontal
-        int count = 0;
-        for (int c = 0; c < GRID_COLS; c++) {
-            if (board[row][c].equals(player)) {
-                count++;
-                if (count >= 4) {
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-        }
-        
-        // vertical
-        count = 0;
-        for (int r = 0; r < GRID_ROWS; r++) {
-            if (board[r][col].equals(player)) {
-                count++;
-                if (count >= 4) {
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-        }
-        
-        // diagonal \ (arriba-izq a abajo-der)
-        count = 0;
-        int startRow = row - Math.min(row, col);
-        int startCol = col - Math.min(row, col);
-        while (startRow < GRID_ROWS && startCol < GRID_COLS) {
-            if (board[startRow][startCol].equals(player)) {
-                count++;
-                if (count >= 4) {
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-            startRow++;
-            startCol++;
-        }
-        
-        // diagonal / (abajo-izq a arriba-der)
-        count = 0;
-        startRow = row + Math.min(GRID_ROWS - 1 - row, col);
-        startCol = col - Math.min(GRID_ROWS - 1 - row, col);
-        while (startRow >= 0 && startCol < GRID_COLS) {
-            if (board[startRow][startCol].equals(player)) {
-                count++;
-                if (count >= 4) {
-                    return true;
-                }
-            } else {
-                count = 0;
-            }
-            startRow--;
-            startCol++;
-        }
-        
-        return false;
+
+    private static Metrics.Counter inbound(MessageType type, String format) {
+        String name = type == MessageType.UNKNOWN ? "unknown" : type.wireName;
+        return Metrics.counter("c4_inbound_messages_total", "Messages received from clients",
+                Metrics.label("type", name) + "," + Metrics.label("format", format));
     }
 
-    // procesar una jugada
-    private synchronized boolean processPlay(String clientName, int column, String pieceId) {
-        // buscar el cliente
-        ClientData client = clientsData.get(clientName);
-        if (client == null || client.role == null) {
-            return false;
-        }
+    // enviar mensaje a un cliente
+    private void sendSafe(WebSocket to, String payload) {
+        sendControl(to, payload);
+    }
 
-        // ver si es su turno
-        if (!client.role.equals(currentTurn)) {
-            return false;
+    /**
+     * Envia un missatge de control a una connexió. Si juga en una sala passa per la seva
+     * bústia ({@link ConnectionState#offerControl}), que manté l'ordre quan la connexió va
+     * lenta; si la bústia és plena, es tanca la connexió.
+     */
+    static void sendControl(WebSocket to, String payload) {
+        if (to == null) {
+            return;
         }
-
-        // columna valida?
-        if (column < 0 || column >= GRID_COLS) {
-            return false;
+        countControl(payload, 1);
+        try {
+            ConnectionState state = to.getAttachment();
+            if (state == null) {
+                to.send(payload);
+            } else if (!state.offerControl(to, payload)) {
+                ConnectionState.closeSlow(to);
+            }
+        } catch (WebsocketNotConnectedException e) {
+            // la conexion ya esta cerrada, onClose la saca de su sala
+        } catch (Exception e) {
+            // error de conexion
+            OUTBOUND_ERRORS.inc();
         }
+    }
+
+    // ----------------- WebSocketServer overrides -----------------
 
-        // buscar la fila mas baja que este vacia
-        int targetRow = -1;
-        for (int row = GRID_ROWS - 1; row >= 0; row--) {
-            if (board[row][column].equals(" ")) {
-                targetRow = row;
-                break;
+    /**
+     * Posa el client en una sala, li assigna un nom i color i envia l'STATE complet.
+     * Si la ruta és {@code /spectate[/sala]}, el client només mira la sala; si és
+     * {@code /lobby}, entra al vestíbul i tria rival.
+     */
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        int spectate = spectateTarget(handshake.getResourceDescriptor());
+        if (spectate != NOT_SPECTATING) {
+            boolean found = rooms.spectate(conn, spectate, room -> {
+                sendSafe(conn, msg(T_SERVER_WELCOME).put(K_CLIENT_NAME, "")
+                        .put(K_SPECTATOR, true).put(K_ROOM, room.id()).toString());
+                System.out.println("[SERVER] Spectator connected to room " + room.id()
+                        + " (" + room.spectatorCount() + " watching)");
+            });
+            if (!found) {
+                conn.close(CloseFrame.POLICY_VALIDATION, "no such room");
             }
+            return;
         }
-
-        // columna llena?
-        if (targetRow == -1) {
-            return false;
+        String resource = handshake.getResourceDescriptor();
+        if (resource != null && (resource.equals(LOBBY_PATH) || resource.startsWith(LOBBY_PATH + "?"))) {
+            lobby.enter(conn, lobbyName(resource));
+            return;
         }
+        rooms.join(conn, (room, data) -> welcome(conn, room, data));
+    }
 
+    // el jugador ya esta en su sala (al hilo de la sala)
+    private void welcome(WebSocket conn, GameRoom room, ClientData data) {
+        // el nombre va en un mensaje propio antes del primer estado: el tick no
+        // envia nada a la conexion hasta que tiene su ConnectionState
+        sendSafe(conn, msg(T_SERVER_WELCOME).put(K_CLIENT_NAME, data.name).toString());
+        conn.setAttachment(new ConnectionState(() -> room.applyMouse(conn), () -> room.applyDrag(conn)));
 
-        // poner la ficha en el tablero
-        board[targetRow][column] = client.role;
-        
-        // calcular la posicion en pixeles
-        int gridX = (int) (GRID_START_X + column * CELL_SIZE + CELL_SIZE / 2);
-        int gridY = (int) (GRID_START_Y + targetRow * CELL_SIZE + CELL_SIZE / 2);
-
-        // mover la ficha especifica a su posicion final
-        if (pieceId != null && !pieceId.isEmpty() && gameObjects.containsKey(pieceId)) {
-            GameObject piece = gameObjects.get(pieceId);
-            
-            piece.x = gridX;
-            piece.y = gridY;
-        } else {
-            return false;
-        }
-        
-        // comprobar si hay ganador
-        if (checkWinner(targetRow, column, client.role)) {
-            // hay ganador esta ronda
-            roundWinner = client.role;
-            
-            // sumar punto
-            if (client.role.equals("R")) {
-                scoreR++;
-            } else {
-                scoreY++;
-            }
-            
-            // ver si ha ganado la partida (solo necesita 1 ronda)
-            if (scoreR >= 1) {
-                gameWinner = "R";
-            } else if (scoreY >= 1) {
-                gameWinner = "Y";
-            }
-            
-            // no cambiar turno, la ronda acabo
-            return true;
-        }
+        System.out.println("[SERVER] Client connected: " + data.name + " (role: " + data.role
+                + ", color: " + data.color + ", room: " + room.id() + ")");
+        room.sendCountdown();
+    }
 
-        // cambiar el turno
-        if (currentTurn.equals("R")) {
-            currentTurn = "Y";
-        } else {
-            currentTurn = "R";
+    /** Treu el client de la seva sala i envia l'STATE complet a qui hi quedi. */
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        if (rooms.unspectate(conn)) {
+            return;
         }
-
-        return true;
+        lobby.leave(conn);
+        rooms.leave(conn, this::left);
     }
 
-    // conseguir el color de un jugador
-    private synchronized String getColorForName(String name) {
-        int idx = PLAYER_NAMES.indexOf(name);
-        if (idx < 0) {
-            idx = 0;
+    // el jugador ya ha salido de su sala (al hilo de la sala)
+    private void left(GameRoom room, String name) {
+        System.out.println("WebSocket client disconnected: " + name);
+
+        // si queda menos de 2 jugadores, la sala ya se ha reseteado
+        if (room.playerCount() > 0) {
+            System.out.println("[SERVER] Room " + room.id() + " reset - less than 2 players");
+            // notificar al cliente restante del nuevo estado
+            room.broadcastNow();
         }
-        return PLAYER_COLORS.get(idx % PLAYER_COLORS.size());
     }
 
-    // hacer la cuenta atras antes de empezar
-    private void sendCountdown() {
-        synchronized (this) {
-            if (countdownRunning) {
+    /**
+     * Processa els missatges rebuts: es llegeixen aquí i s'apliquen al fil de la sala.
+     * Només es mira el camp "type" i els camps de cada tipus es llegeixen directament,
+     * sense construir el JSONObject (excepte per als objectes que es mouen). La fitxa
+     * arrossegada només porta l'id i la posició, i la sala la passa al rival sense tocar
+     * les fitxes.
+     */
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        try {
+            // ver que tipo de mensaje es
+            MessageType type = InboundJson.type(message);
+            INBOUND_JSON[type.ordinal()].inc();
+            if (lobbyMessage(conn, type, message)) {
                 return;
             }
-            if (clients.snapshot().size() != REQUIRED_CLIENTS) {
+            GameRoom room = rooms.roomOf(conn);
+            // la clasificacion tambien se puede pedir desde el vestibulo
+            if (room == null && type != MessageType.LEADERBOARD) {
                 return;
             }
-            countdownRunning = true;
+            switch (type) {
+                case MOUSE_MOVING:
+                    // actualizar posicion del raton sobre los datos que ya tenemos
+                    ConnectionState state = conn.getAttachment();
+                    if (state != null) {
+                        Arrays.fill(state.mouseScratch, -1);
+                        InboundJson.readInts(message, MOUSE_KEYS, state.mouseScratch);
+                        offerMouse(room, state);
+                    }
+                    break;
+
+                case OBJECT_MOVING:
+                    // mover objeto
+                    JSONObject obj = new JSONObject(message);
+                    GameObject objData = GameObject.fromJSON(obj.getJSONObject(K_VALUE));
+                    room.execute(() -> room.moveObject(objData));
+                    break;
+
+                case PIECE_MOVING:
+                    // ficha que arrastra: solo el id y la posicion, el ultimo valor gana
+                    ConnectionState dragState = conn.getAttachment();
+                    if (dragState != null) {
+                        int[] drag = dragState.dragScratch;
+                        drag[1] = 0;
+                        drag[2] = 0;
+                        InboundJson.readInts(message, DRAG_KEYS, drag);
+                        drag[0] = InboundJson.readPiece(message, K_PIECE_ID);
+                        offerDrag(room, dragState);
+                    }
+                    break;
+
+                case PLAY:
+                    // procesar jugada
+                    int[] column = { -1 };
+                    InboundJson.readInts(message, PLAY_KEYS, column);
+                    String pieceId = InboundJson.readString(message, K_PIECE_ID, "");
+                    room.execute(() -> room.processPlay(room.nameOf(conn), column[0], pieceId));
+                    break;
+
+                case CONTINUE_ROUND:
+                    // continuar a la siguiente ronda
+                    room.execute(() -> {
+                        room.continueRound();
+                        room.broadcastNow(); // enviar el nuevo estado a la sala
+                    });
+                    break;
+
+                case REMATCH:
+                    // revancha completa
+                    room.execute(() -> {
+                        room.rematch();
+                        room.broadcastNow(); // enviar el nuevo estado a la sala
+                    });
+                    break;
+
+                case LEADERBOARD:
+                    // clasificacion: los primeros y la posicion del que pregunta
+                    int[] limit = { 10 };
+                    InboundJson.readInts(message, LEADERBOARD_KEYS, limit);
+                    String who = room != null ? room.nameOf(conn) : lobby.nameOf(conn);
+                    sendSafe(conn, leaderboard(who, limit[0]).toString());
+                    break;
+
+                default:
+                    break;
+            }
+        } catch (Exception ex) {
+            // JSON invalido
+            INBOUND_ERRORS.inc();
         }
+    }
 
-        // reiniciar el juego cuando empiece la cuenta atras
-        resetGame();
+    // mensajes del vestibulo; devuelve false si el mensaje es de la sala
+    private boolean lobbyMessage(WebSocket conn, MessageType type, String message) {
+        switch (type) {
+            case LOBBY_LIST:
+                int[] page = { 0, 20 };
+                InboundJson.readInts(message, LOBBY_LIST_KEYS, page);
+                lobby.list(conn, page[0], page[1]);
+                return true;
+
+            case INVITE:
+                lobby.invite(conn, InboundJson.readString(message, K_TO, ""));
+                return true;
+
+            case INVITE_ACCEPT:
+                lobby.accept(conn, InboundJson.readString(message, K_FROM, ""));
+                return true;
+
+            case INVITE_DECLINE:
+                lobby.decline(conn, InboundJson.readString(message, K_FROM, ""));
+                return true;
+
+            case QUEUE:
+                lobby.enqueue(conn);
+                return true;
+
+            case QUEUE_CANCEL:
+                lobby.cancelQueue(conn);
+                return true;
+
+            case LOBBY_RETURN:
+                // dejar la sala y volver a elegir rival
+                if (lobby.nameOf(conn) != null && rooms.roomOf(conn) != null) {
+                    returnToLobby(conn);
+                }
+                return true;
 
-        new Thread(() -> {
-            try {
-                for (int i = 5; i >= 0; i--) {
-                    // si se desconecta alguien, parar
-                    if (clients.snapshot().size() < REQUIRED_CLIENTS) {
-                        break;
-                    }
+            default:
+                return false;
+        }
+    }
 
-                    sendCountdownToAll(i);
-                    if (i > 0) {
-                        Thread.sleep(750);
-                    }
-                }
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-            } finally {
-                countdownRunning = false;
-            }
-        }, "CountdownThread").start();
+    // la sala de un jugador ya no sigue: si viene del vestibulo vuelve a el, si no se desconecta
+    private void release(WebSocket conn, String reason) {
+        if (lobby.nameOf(conn) != null) {
+            returnToLobby(conn);
+        } else {
+            conn.close(CloseFrame.NORMAL, reason);
+        }
     }
 
-    // crear un mensaje JSON
-    private static JSONObject msg(String type) {
-        return new JSONObject().put(K_TYPE, type);
+    private void returnToLobby(WebSocket conn) {
+        rooms.leave(conn, this::left);
+        lobby.returned(conn);
     }
 
-    // enviar mensaje a un cliente
-    private void sendSafe(WebSocket to, String payload) {
-        if (to == null) {
+    // los primeros de la clasificacion y la posicion de un jugador (si ha jugado)
+    private JSONObject leaderboard(String name, int limit) {
+        Ratings ratings = rooms.ratings();
+        JSONArray top = new JSONArray();
+        for (Ratings.Standing s : ratings.top(Math.max(1, Math.min(LEADERBOARD_MAX, limit)))) {
+            top.put(toJSON(s));
+        }
+        JSONObject reply = msg(T_LEADERBOARD).put(K_TOP, top);
+        Ratings.Standing you = name == null ? null : ratings.standing(name);
+        if (you != null) {
+            reply.put(K_YOU, toJSON(you));
+        }
+        return reply;
+    }
+
+    private static JSONObject toJSON(Ratings.Standing s) {
+        return new JSONObject()
+            .put("rank", s.rank)
+            .put("name", s.name)
+            .put("rating", Math.round(s.rating))
+            .put("games", s.games)
+            .put("wins", s.wins)
+            .put("draws", s.draws)
+            .put("losses", s.losses);
+    }
+
+    /** Processa els missatges binaris (nomes si s'ha negociat el format binari). */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        GameRoom room = rooms.roomOf(conn);
+        if (room == null) {
             return;
         }
         try {
-            to.send(payload);
-        } catch (WebsocketNotConnectedException e) {
-            String name = clients.cleanupDisconnected(to);
-            clientsData.remove(name);
-        } catch (Exception e) {
-            // error de conexion
+            byte type = BinaryCodec.peekType(message);
+            (type == BinaryCodec.T_MOUSE ? INBOUND_BINARY_MOUSE
+                    : type == BinaryCodec.T_PLAY ? INBOUND_BINARY_PLAY
+                    : type == BinaryCodec.T_PIECE_MOVING ? INBOUND_BINARY_DRAG : INBOUND_BINARY_OTHER).inc();
+            if (type == BinaryCodec.T_MOUSE) {
+                // actualizar posicion del raton sobre los datos que ya tenemos
+                ConnectionState state = conn.getAttachment();
+                if (state != null) {
+                    BinaryCodec.decodeMouse(message, state.mouseScratch);
+                    offerMouse(room, state);
+                }
+            } else if (type == BinaryCodec.T_PLAY) {
+                // procesar jugada
+                BinaryCodec.Play play = BinaryCodec.decodePlay(message);
+                room.execute(() -> room.processPlay(room.nameOf(conn), play.column, play.pieceId));
+            } else if (type == BinaryCodec.T_PIECE_MOVING) {
+                // ficha que arrastra
+                ConnectionState state = conn.getAttachment();
+                if (state != null) {
+                    BinaryCodec.decodePieceMoving(message, state.dragScratch);
+                    offerDrag(room, state);
+                }
+            }
+        } catch (Exception ex) {
+            // mensaje binario invalido
+            INBOUND_ERRORS.inc();
         }
     }
 
-    // enviar a todos menos al que envia
-    private void broadcastExcept(WebSocket sender, String payload) {
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
-            WebSocket conn = e.getKey();
-            if (!Objects.equals(conn, sender)) {
-                sendSafe(conn, payload);
+    // nombre pedido en la ruta del vestibulo (null si no hay)
+    private static String lobbyName(String resource) {
+        int query = resource.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String param : resource.substring(query + 1).split("&")) {
+            if (param.startsWith(NAME_PARAM)) {
+                try {
+                    return URLDecoder.decode(param.substring(NAME_PARAM.length()), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
             }
         }
+        return null;
     }
 
-    // enviar el estado del juego a todos
-    private void broadcastStatus() {
-        JSONArray arrClients = new JSONArray();
-        for (ClientData c : clientsData.values()) {
-            arrClients.put(c.toJSON());
+    // sala que se quiere mirar segun la ruta del handshake, o NOT_SPECTATING
+    private static int spectateTarget(String resource) {
+        if (resource == null || !resource.startsWith(SPECTATE_PATH)) {
+            return NOT_SPECTATING;
         }
-
-        JSONArray arrObjects = new JSONArray();
-        for (GameObject obj : gameObjects.values()) {
-            arrObjects.put(obj.toJSON());
+        String rest = resource.substring(SPECTATE_PATH.length());
+        int query = rest.indexOf('?');
+        if (query >= 0) {
+            rest = rest.substring(0, query);
         }
-
-        JSONObject rst = msg(T_SERVER_DATA)
-                        .put(K_CLIENTS_LIST, arrClients)
-                        .put(K_OBJECTS_LIST, arrObjects)
-                        .put("currentTurn", currentTurn)
-                        .put("scoreR", scoreR)
-                        .put("scoreY", scoreY);
-        
-        // añadir ganadores si existen
-        if (roundWinner != null) {
-            rst.put("roundWinner", roundWinner);
+        if (rest.isEmpty() || rest.equals("/")) {
+            return RoomManager.ANY_ROOM;
         }
-        if (gameWinner != null) {
-            rst.put("gameWinner", gameWinner);
+        if (rest.charAt(0) != '/') {
+            return NOT_SPECTATING;
         }
-
-        for (Map.Entry<WebSocket, String> e : clients.snapshot().entrySet()) {
-            WebSocket conn = e.getKey();
-            String name = clients.nameBySocket(conn);
-            rst.put(K_CLIENT_NAME, name);
-            sendSafe(conn, rst.toString());
+        try {
+            return Math.max(0, Integer.parseInt(rest.substring(1)));
+        } catch (NumberFormatException e) {
+            return 0; // no existe ninguna sala 0
         }
     }
 
-    /** Envia a tots els clients el compte enrere. */
-    private void sendCountdownToAll(int n) {
-        JSONObject rst = msg(T_COUNTDOWN).put(K_VALUE, n);
-        broadcastExcept(null, rst.toString());
-    }
-
-    // ----------------- WebSocketServer overrides -----------------
-
-    /** Assigna un nom i color al client i envia l'STATE complet. */
-    @Override
-    public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        String name = clients.add(conn);
-        String color = getColorForName(name);
-        
-        // Assign role based on connection order
-        String role = clientsData.size() == 0 ? "R" : "Y";
-
-        ClientData cd = new ClientData(name, color);
-        cd.role = role;
-        clientsData.put(name, cd);
-        
-        System.out.println("[SERVER] Client connected: " + name + " (role: " + role + ", color: " + color + ")");
-
-        System.out.println("WebSocket client connected: " + name + " (" + color + ") - Role: " + role);
-        sendCountdown();
+    // dejar la posicion del raton en la conexion; solo se encola una tarea si no habia
+    // ninguna pendiente (antes de tener estado la conexion aun no juega)
+    private static void offerMouse(GameRoom room, ConnectionState state) {
+        if (state.offerMouse()) {
+            room.execute(state.mouseTask);
+        }
     }
 
-    /** Elimina el client del registre i envia l'STATE complet. */
-    @Override
-    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        String name = clients.remove(conn);
-        clientsData.remove(name);
-        System.out.println("WebSocket client disconnected: " + name);
-        
-        // si queda menos de 2 jugadores, resetear el juego completo
-        if (clientsData.size() < 2) {
-            resetScores();
-            System.out.println("[SERVER] Game reset - less than 2 players");
-            // notificar al cliente restante (si existe) del nuevo estado
-            broadcastStatus();
+    // lo mismo con la ficha que arrastra
+    private static void offerDrag(GameRoom room, ConnectionState state) {
+        if (state.offerDrag()) {
+            room.execute(state.dragTask);
         }
     }
 
-    /** Processa els missatges rebuts. */
+    // respuesta a un ping: medir el RTT de la conexion
     @Override
-    public void onMessage(WebSocket conn, String message) {
-        JSONObject obj;
-        try {
-            obj = new JSONObject(message);
-        } catch (Exception ex) {
-            return; // JSON invàlid
-        }
-
-        String type = obj.optString(K_TYPE, "");
-        
-        // ver que tipo de mensaje es
-        if (type.equals(T_CLIENT_MOUSE_MOVING)) {
-            // actualizar posicion del raton
-            String clientName = clients.nameBySocket(conn);
-            ClientData existingData = clientsData.get(clientName);
-            ClientData newData = ClientData.fromJSON(obj.getJSONObject(K_VALUE));
-            
-            // mantener el rol
-            if (existingData != null && existingData.role != null) {
-                newData.role = existingData.role;
-            }
-            
-            clientsData.put(clientName, newData);
-            
-        } else if (type.equals(T_CLIENT_OBJECT_MOVING)) {
-            // mover objeto
-            GameObject objData = GameObject.fromJSON(obj.getJSONObject(K_VALUE));
-            gameObjects.put(objData.id, objData);
-            
-        } else if (type.equals(T_CLIENT_PIECE_MOVING)) {
-            // ignorar movimientos mientras arrastra
-            
-        } else if (type.equals(T_CLIENT_PLAY)) {
-            // procesar jugada
-            String clientName = clients.nameBySocket(conn);
-            int column = obj.optInt("column", -1);
-            String pieceId = obj.optString("pieceId", "");
-            processPlay(clientName, column, pieceId);
-            
-        } else if (type.equals(T_CLIENT_CONTINUE_ROUND)) {
-            // continuar a la siguiente ronda
-            resetGame();
-            broadcastStatus(); // enviar el nuevo estado a todos
-            
-        } else if (type.equals(T_CLIENT_REMATCH)) {
-            // revancha completa
-            resetScores();
-            broadcastStatus(); // enviar el nuevo estado a todos
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        super.onWebsocketPong(conn, f);
+        ConnectionState state = conn.getAttachment();
+        if (state != null) {
+            state.onPong(System.nanoTime());
         }
     }
 
     // cuando hay un error
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        // error de conexion
+        // error de conexion: solo se cuenta
+        SOCKET_ERRORS.inc();
     }
 
     // cuando arranca el servidor
     @Override
     public void onStart() {
         setConnectionLostTimeout(100);
-        startTicker();
+        rooms.start();
+        lobby.start();
+        metrics = MetricsServer.start(MetricsServer.HOST, MetricsServer.PORT);
+        System.out.println("[SERVER] Started with " + rooms.shardCount() + " room shards");
     }
 
     // para cerrar el servidor correctamente
     private static void registerShutdownHook(Main server) {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                server.stopTicker();
+                server.rooms.stop();
+                if (server.metrics != null) {
+                    server.metrics.stop();
+                }
                 server.stop(1000);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -559,31 +569,6 @@ public class Main extends WebSocketServer {
         }
     }
 
-    // empezar a enviar datos cada frame
-    private void startTicker() {
-        long periodMs = Math.max(1, 1000 / SEND_FPS);
-        ticker.scheduleAtFixedRate(() -> {
-            try {
-                // solo enviar si hay clientes conectados
-                if (!clients.snapshot().isEmpty()) {
-                    broadcastStatus();
-                }
-            } catch (Exception e) {
-                // error al enviar
-            }
-        }, 0, periodMs, TimeUnit.MILLISECONDS);
-    }
-
-    // parar el ticker
-    private void stopTicker() {
-        try {
-            ticker.shutdownNow();
-            ticker.awaitTermination(1, TimeUnit.SECONDS);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-    }
-
     // programa principal
     public static void main(String[] args) {
         Main server = new Main(new InetSocketAddress(DEFAULT_PORT));
@@ -0,0 +1,428 @@
+package com.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Historial de partides: cada partida acabada s'afegeix al final d'un fitxer de
+ * segment dins d'un directori (per defecte {@code data/history}).
+ *
+ * Les sales només deixen la partida en una cua sense bloqueig ({@link #record}); un
+ * fil propi la recull cada {@code c4.historyFlushMillis}, escriu de cop totes les que
+ * s'han acumulat i fa un sol {@code force} per a totes (escriptura en grup). Així
+ * {@code processPlay} no toca mai el disc. Quan un segment passa de
+ * {@code c4.historySegmentBytes} se'n comença un altre.
+ *
+ * Cada registre porta la seva longitud i un CRC32. En obrir l'historial es llegeixen
+ * tots els segments per continuar la numeració de les partides, i si l'últim segment
+ * acaba amb un registre a mitges (el servidor es va aturar mentre escrivia) es retalla.
+ *
+ * Format d'un segment (big-endian):
+ * <pre>
+ *  int  MAGIC ("C4MH"), int VERSION
+ *  registres[]: int longitud, int crc, byte[longitud] partida
+ * </pre>
+ */
+final class MatchHistory {
+
+    static final int MAGIC = 0x43344D48;
+    static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    // un registro no puede ser mas grande que esto (dos nombres y 42 jugadas caben de sobra)
+    private static final int MAX_RECORD_BYTES = 4096;
+
+    // partidas que pueden esperar a ser escritas; si se llena se descartan
+    private static final int QUEUE_LIMIT = 10_000;
+
+    private static final long SEGMENT_BYTES = Long.getLong("c4.historySegmentBytes", 8L << 20);
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("c4.historyFlushMillis", 20));
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("matches-(\\d{6})\\.seg");
+
+    /** Una partida acabada. */
+    static final class Match {
+
+        /** Número de partida, creixent. */
+        final long id;
+
+        final int room;
+
+        /** Noms dels jugadors vermell i groc. */
+        final String red;
+        final String yellow;
+
+        /** Si el vermell o el groc era un bot. */
+        final boolean redBot;
+        final boolean yellowBot;
+
+        /** "R", "Y" o null si és empat. */
+        final String winner;
+
+        /** Columnes jugades en ordre, una xifra per jugada ("3324..."). */
+        final String moves;
+
+        /** Primera i última jugada (System.currentTimeMillis). */
+        final long startMillis;
+        final long endMillis;
+
+        Match(long id, int room, String red, boolean redBot, String yellow, boolean yellowBot,
+              String winner, String moves, long startMillis, long endMillis) {
+            this.id = id;
+            this.room = room;
+            this.red = red;
+            this.redBot = redBot;
+            this.yellow = yellow;
+            this.yellowBot = yellowBot;
+            this.winner = winner;
+            this.moves = moves;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + red + " vs " + yellow + " -> " + (winner == null ? "draw" : winner)
+                    + " (" + moves + ")";
+        }
+    }
+
+    private final Path dir;
+
+    // partidas pendientes de escribir (la cola no tiene limite, el contador si)
+    private final Queue<Match> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong nextId;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // segmento actual (solo el hilo de escritura)
+    private int segment;
+    private FileChannel channel;
+    private long segmentSize;
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private volatile long written;
+
+    private MatchHistory(Path dir, int segment, long nextId) throws IOException {
+        this.dir = dir;
+        this.nextId = new AtomicLong(nextId);
+        openSegment(segment);
+        this.writer = new Thread(this::run, "MatchHistory");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Obre l'historial d'un directori (el crea si cal) i arrenca el fil d'escriptura.
+     *
+     * @param dir directori dels segments
+     * @return l'historial, o null si no s'ha pogut obrir
+     */
+    static MatchHistory open(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            List<Integer> segments = listSegments(dir);
+            long[] last = {0, 0}; // ultimo id, partidas leidas
+            for (int i = 0; i < segments.size(); i++) {
+                boolean tail = i == segments.size() - 1;
+                scan(dir, segments.get(i), tail, last);
+            }
+            int current = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            MatchHistory history = new MatchHistory(dir, current, last[0] + 1);
+            System.out.println("[SERVER] Match history " + dir + ": " + last[1] + " matches in "
+                    + segments.size() + " segments");
+            return history;
+        } catch (IOException e) {
+            System.out.println("[SERVER] Match history " + dir + " disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Afegeix una partida acabada. No bloqueja ni fa entrada/sortida: la partida
+     * s'escriu al fil de l'historial. Es pot cridar des de qualsevol fil.
+     *
+     * @return false si la cua és plena i la partida s'ha descartat
+     */
+    boolean record(int room, String red, boolean redBot, String yellow, boolean yellowBot,
+                   String winner, String moves, long startMillis, long endMillis) {
+        // cerrado: no se toca el contador, nadie va a vaciar la cola
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (queued.incrementAndGet() > QUEUE_LIMIT) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        queue.add(new Match(nextId.getAndIncrement(), room, red, redBot, yellow, yellowBot,
+                winner, moves, startMillis, endMillis));
+        return true;
+    }
+
+    /** Partides escrites des que s'ha obert l'historial. */
+    long written() {
+        return written;
+    }
+
+    /** Partides descartades perquè la cua era plena o l'historial estava tancat. */
+    long dropped() {
+        return dropped.get();
+    }
+
+    // ----------------- hilo de escritura -----------------
+
+    // cada periodo se escribe todo lo acumulado con un solo force
+    private void run() {
+        List<Match> pending = new ArrayList<>();
+        while (true) {
+            boolean stopping = !running;
+            Match m;
+            while ((m = queue.poll()) != null) {
+                pending.add(m);
+            }
+            if (!pending.isEmpty()) {
+                queued.addAndGet(-pending.size());
+                try {
+                    writeBatch(pending);
+                } catch (IOException e) {
+                    dropped.addAndGet(pending.size());
+                    System.out.println("[SERVER] Match history write failed, " + pending.size()
+                            + " matches lost: " + e.getMessage());
+                }
+                pending.clear();
+            }
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(this, FLUSH_NANOS);
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ya se ha hecho force de todo lo escrito
+        }
+    }
+
+    private void writeBatch(List<Match> matches) throws IOException {
+        batch.clear();
+        long offset = segmentSize;
+        for (int i = 0; i < matches.size(); i++) {
+            int start = batch.position();
+            encodeRecord(matches.get(i));
+            int length = batch.position() - start;
+            if (offset + length > SEGMENT_BYTES && offset > SEGMENT_HEADER_BYTES) {
+                // lo que ya esta en el buffer va al segmento actual, esta partida al siguiente
+                batch.position(start);
+                flush();
+                openSegment(segment + 1);
+                offset = segmentSize;
+                batch.clear();
+                encodeRecord(matches.get(i));
+                start = 0;
+            }
+            offset += batch.position() - start;
+        }
+        flush();
+        written += matches.size();
+    }
+
+    // escribir el buffer al final del segmento y esperar a que este en disco
+    private void flush() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            segmentSize += channel.write(batch);
+        }
+        channel.force(false);
+        batch.clear();
+    }
+
+    private void openSegment(int number) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Path file = segmentPath(dir, number);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segment = number;
+        segmentSize = channel.size();
+        if (segmentSize == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                segmentSize += channel.write(header, segmentSize);
+            }
+            channel.force(true);
+        }
+        channel.position(segmentSize);
+    }
+
+    /**
+     * Escriu les partides pendents i atura el fil. Les que arribin després es descarten.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ----------------- registros -----------------
+
+    // longitud, crc y la partida al final del buffer
+    private void encodeRecord(Match m) {
+        if (batch.remaining() < RECORD_HEADER_BYTES + MAX_RECORD_BYTES) {
+            ByteBuffer bigger = ByteBuffer.allocate(batch.capacity() * 2);
+            batch.flip();
+            bigger.put(batch);
+            batch = bigger;
+        }
+        int start = batch.position();
+        batch.position(start + RECORD_HEADER_BYTES);
+        batch.putLong(m.id);
+        batch.putInt(m.room);
+        batch.putLong(m.startMillis);
+        batch.putLong(m.endMillis);
+        batch.put((byte) ((m.redBot ? 1 : 0) | (m.yellowBot ? 2 : 0)));
+        batch.put((byte) (m.winner == null ? 0 : m.winner.charAt(0)));
+        putString(batch, m.red);
+        putString(batch, m.yellow);
+        putString(batch, m.moves);
+        int length = batch.position() - start - RECORD_HEADER_BYTES;
+
+        crc.reset();
+        crc.update(batch.array(), start + RECORD_HEADER_BYTES, length);
+        batch.putInt(start, length);
+        batch.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    private static Match decode(ByteBuffer buf) {
+        long id = buf.getLong();
+        int room = buf.getInt();
+        long start = buf.getLong();
+        long end = buf.getLong();
+        int flags = buf.get();
+        int winner = buf.get();
+        String red = getString(buf);
+        String yellow = getString(buf);
+        String moves = getString(buf);
+        return new Match(id, room, red, (flags & 1) != 0, yellow, (flags & 2) != 0,
+                winner == 0 ? null : String.valueOf((char) winner), moves, start, end);
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(bytes.length, 255);
+        buf.put((byte) n);
+        buf.put(bytes, 0, n);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int n = buf.get() & 0xFF;
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), n, StandardCharsets.UTF_8);
+        buf.position(buf.position() + n);
+        return s;
+    }
+
+    // ----------------- segmentos -----------------
+
+    private static Path segmentPath(Path dir, int number) {
+        return dir.resolve(String.format("matches-%06d.seg", number));
+    }
+
+    private static List<Integer> listSegments(Path dir) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                Matcher m = SEGMENT_NAME.matcher(f.getFileName().toString());
+                if (m.matches()) {
+                    numbers.add(Integer.parseInt(m.group(1)));
+                }
+            });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    // leer un segmento para seguir la numeracion; si es el ultimo, cortar el registro a medias
+    private static void scan(Path dir, int number, boolean tail, long[] last) throws IOException {
+        Path file = segmentPath(dir, number);
+        long good = 0;
+        boolean broken = false;
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a match history segment");
+            }
+            good = SEGMENT_HEADER_BYTES;
+            CRC32 check = new CRC32();
+            byte[] payload = new byte[MAX_RECORD_BYTES];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int stored = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    broken = true;
+                    break;
+                }
+                in.readFully(payload, 0, length);
+                check.reset();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != stored) {
+                    broken = true;
+                    break;
+                }
+                Match m = decode(ByteBuffer.wrap(payload, 0, length));
+                last[0] = Math.max(last[0], m.id);
+                last[1]++;
+                good += RECORD_HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // registro a medias al final
+            broken = true;
+        }
+
+        if (broken) {
+            if (tail) {
+                System.out.println("[SERVER] Match history: truncating " + file + " at " + good);
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    ch.truncate(good);
+                }
+            } else {
+                System.out.println("[SERVER] Match history: " + file + " is damaged after " + good + " bytes");
+            }
+        }
+    }
+}
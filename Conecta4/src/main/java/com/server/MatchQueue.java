@@ -0,0 +1,193 @@
+package com.server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cua d'emparellament automàtic agrupada per puntuació.
+ *
+ * Els jugadors que esperen es reparteixen en cubetes de {@code BUCKET_WIDTH} punts
+ * d'Elo. En entrar, un jugador es mira només la seva cubeta: si hi ha algú esperant,
+ * s'emparellen de seguida (O(1)). Si no, es queda a la cubeta i, a cada
+ * {@link #sweep}, la finestra de puntuació que accepta s'eixampla amb el temps que fa
+ * que espera, fins que qualsevol rival li serveix.
+ *
+ * Sortir de la cua només marca el tiquet com a inactiu; les cubetes se'l salten i el
+ * treuen quan hi passen (esborrat mandrós), així que sortir també és O(1).
+ *
+ * No és segura per a ús concurrent; el {@link Lobby} la protegeix amb el seu monitor.
+ *
+ * @param <T> el que representa un jugador a la cua
+ */
+final class MatchQueue<T> {
+
+    /** Amplada d'una cubeta (punts d'Elo). */
+    static final int BUCKET_WIDTH = 50;
+
+    // ventana inicial y cuanto crece por segundo de espera
+    private static final double BASE_WINDOW = BUCKET_WIDTH;
+    private static final double WIDEN_PER_SECOND = 25;
+    private static final double MAX_WINDOW = 1000;
+
+    /** Un jugador a la cua. */
+    static final class Ticket<T> {
+
+        final T player;
+        final double rating;
+        final long since;
+        private final int bucket;
+        private boolean active = true;
+
+        private Ticket(T player, double rating, long since) {
+            this.player = player;
+            this.rating = rating;
+            this.since = since;
+            this.bucket = bucketOf(rating);
+        }
+
+        boolean isActive() {
+            return active;
+        }
+    }
+
+    /** Parella emparellada. */
+    interface Pairing<T> {
+        void pair(T first, T second);
+    }
+
+    private final Map<Integer, ArrayDeque<Ticket<T>>> buckets = new HashMap<>();
+
+    // todos los tiquetes por orden de llegada, para ensanchar las ventanas
+    private ArrayDeque<Ticket<T>> arrivals = new ArrayDeque<>();
+    private int waiting = 0;
+
+    /**
+     * Afegeix un jugador. Si a la seva cubeta hi ha algú esperant, s'emparellen.
+     *
+     * @param now temps actual (System.nanoTime)
+     * @param onPair rep la parella (el que esperava primer)
+     * @return el tiquet per sortir de la cua, o null si ja s'ha emparellat
+     */
+    Ticket<T> enqueue(T player, double rating, long now, Pairing<T> onPair) {
+        Ticket<T> ticket = new Ticket<>(player, rating, now);
+        Ticket<T> other = pollActive(ticket.bucket);
+        if (other != null) {
+            onPair.pair(other.player, player);
+            return null;
+        }
+        buckets.computeIfAbsent(ticket.bucket, k -> new ArrayDeque<>()).addLast(ticket);
+        arrivals.addLast(ticket);
+        waiting++;
+        return ticket;
+    }
+
+    /** Treu un jugador de la cua (si encara hi era). */
+    void cancel(Ticket<T> ticket) {
+        if (ticket != null && ticket.active) {
+            ticket.active = false;
+            waiting--;
+        }
+    }
+
+    /** Jugadors esperant. */
+    int size() {
+        return waiting;
+    }
+
+    /**
+     * Eixampla la finestra dels que esperen i emparella els que ara hi cabin. Els més
+     * antics trien primer, i cadascun agafa el rival més proper dins de la seva finestra.
+     *
+     * @param now temps actual (System.nanoTime)
+     * @param onPair rep cada parella
+     */
+    void sweep(long now, Pairing<T> onPair) {
+        ArrayDeque<Ticket<T>> still = new ArrayDeque<>(arrivals.size());
+        for (Ticket<T> t : arrivals) {
+            if (!t.active) {
+                continue;
+            }
+            Ticket<T> other = closest(t, window(t, now));
+            if (other == null) {
+                still.addLast(t);
+                continue;
+            }
+            take(t);
+            take(other);
+            onPair.pair(t.player, other.player);
+        }
+        arrivals = still;
+
+        // las cubetas vacias ya no hacen falta
+        buckets.values().removeIf(q -> {
+            q.removeIf(t -> !t.active);
+            return q.isEmpty();
+        });
+    }
+
+    // el rival activo mas cercano en puntuacion dentro de la ventana, mirando cubeta a cubeta
+    private Ticket<T> closest(Ticket<T> t, double window) {
+        int reach = (int) Math.ceil(window / BUCKET_WIDTH);
+        Ticket<T> best = null;
+        for (int d = 0; d <= reach; d++) {
+            // una vez encontrado uno, las cubetas mas lejanas ya no pueden mejorarlo
+            if (best != null && (d - 1) * BUCKET_WIDTH > Math.abs(best.rating - t.rating)) {
+                break;
+            }
+            best = closer(t, t.bucket - d, window, best);
+            if (d > 0) {
+                best = closer(t, t.bucket + d, window, best);
+            }
+        }
+        return best;
+    }
+
+    // el mejor entre best y los de una cubeta
+    private Ticket<T> closer(Ticket<T> t, int bucket, double window, Ticket<T> best) {
+        ArrayDeque<Ticket<T>> q = buckets.get(bucket);
+        if (q == null) {
+            return best;
+        }
+        double bestDiff = best == null ? window : Math.abs(best.rating - t.rating);
+        for (Ticket<T> other : q) {
+            double diff = Math.abs(other.rating - t.rating);
+            if (other != t && other.active && (diff < bestDiff || (best == null && diff <= window))) {
+                best = other;
+                bestDiff = diff;
+            }
+        }
+        return best;
+    }
+
+    // el primero activo de una cubeta, que sale de la cola
+    private Ticket<T> pollActive(int bucket) {
+        ArrayDeque<Ticket<T>> q = buckets.get(bucket);
+        if (q == null) {
+            return null;
+        }
+        Ticket<T> t;
+        while ((t = q.pollFirst()) != null) {
+            if (t.active) {
+                take(t);
+                return t;
+            }
+        }
+        buckets.remove(bucket);
+        return null;
+    }
+
+    private void take(Ticket<T> t) {
+        t.active = false;
+        waiting--;
+    }
+
+    private static double window(Ticket<?> t, long now) {
+        double seconds = (now - t.since) / 1e9;
+        return Math.min(MAX_WINDOW, BASE_WINDOW + WIDEN_PER_SECOND * seconds);
+    }
+
+    private static int bucketOf(double rating) {
+        return (int) Math.floor(rating / BUCKET_WIDTH);
+    }
+}
@@ -0,0 +1,52 @@
+package com.server;
+
+/**
+ * Tipus dels missatges JSON que envien els clients, amb el nom que porten al camp "type".
+ */
+enum MessageType {
+
+    MOUSE_MOVING("clientMouseMoving"),
+    OBJECT_MOVING("clientObjectMoving"),
+    PIECE_MOVING("clientPieceMoving"),
+    PLAY("clientPlay"),
+    CONTINUE_ROUND("clientContinueRound"),
+    REMATCH("clientRematch"),
+    LEADERBOARD("clientLeaderboard"),
+    LOBBY_LIST("clientLobbyList"),
+    INVITE("clientInvite"),
+    INVITE_ACCEPT("clientInviteAccept"),
+    INVITE_DECLINE("clientInviteDecline"),
+    QUEUE("clientQueue"),
+    QUEUE_CANCEL("clientQueueCancel"),
+    LOBBY_RETURN("clientLobbyReturn"),
+    UNKNOWN("");
+
+    private static final MessageType[] KNOWN = {
+        MOUSE_MOVING, OBJECT_MOVING, PIECE_MOVING, PLAY, CONTINUE_ROUND, REMATCH, LEADERBOARD,
+        LOBBY_LIST, INVITE, INVITE_ACCEPT, INVITE_DECLINE, QUEUE, QUEUE_CANCEL, LOBBY_RETURN
+    };
+
+    /** Nom del tipus al JSON. */
+    final String wireName;
+
+    MessageType(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /**
+     * Busca el tipus que correspon a un tros de text, sense crear cap cadena.
+     *
+     * @param s text del missatge
+     * @param start inici del nom (sense cometes)
+     * @param len llargada del nom
+     * @return el tipus, o {@link #UNKNOWN} si no n'hi ha cap amb aquest nom
+     */
+    static MessageType of(String s, int start, int len) {
+        for (MessageType t : KNOWN) {
+            if (t.wireName.length() == len && s.regionMatches(start, t.wireName, 0, len)) {
+                return t;
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,228 @@
+package com.server;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Mètriques del servidor, en el format de text de Prometheus.
+ *
+ * Cada classe declara les seves mètriques com a constants ({@link #counter},
+ * {@link #histogram}) i les actualitza des de qualsevol fil. Comptadors i histogrames
+ * són {@link LongAdder}: sumar no bloqueja ni provoca contenció entre fils, i només qui
+ * llegeix ({@link #scrape}) paga el cost de sumar les cel·les. Els indicadors
+ * ({@link #gauge}) es calculen en el moment de llegir-los.
+ *
+ * Les sèries de la mateixa mètrica es distingeixen per les etiquetes, escrites ja en el
+ * format de Prometheus (per exemple {@code shard="0"}). Tornar a registrar una sèrie
+ * que ja existeix retorna la mateixa (o, per als indicadors, la substitueix).
+ */
+final class Metrics {
+
+    /** Límits dels histogrames de temps (nanosegons): de 50 us a 1 s. */
+    static final long[] LATENCY_BUCKETS = {
+        50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000,
+        10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000, 1_000_000_000
+    };
+
+    /** Els histogrames de temps s'escriuen en segons. */
+    static final double NANOS = 1e-9;
+
+    private interface Series {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    /** Comptador que només creix. */
+    static final class Counter implements Series {
+
+        private final LongAdder value = new LongAdder();
+
+        void inc() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, value.sum());
+        }
+    }
+
+    /** Histograma amb límits fixos. */
+    static final class Histogram implements Series {
+
+        private final long[] bounds;
+        private final double scale;
+
+        // una celda por limite y la ultima para lo que pasa de todos (+Inf)
+        private final LongAdder[] buckets;
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(long[] bounds, double scale) {
+            this.bounds = bounds;
+            this.scale = scale;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /** Afegeix un valor, en les unitats dels límits. */
+        void observe(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sum.add(value);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < bounds.length
+                        ? BigDecimal.valueOf(bounds[i] * scale).stripTrailingZeros().toPlainString() : "+Inf";
+                sample(out, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+            }
+            sample(out, name + "_sum", labels, sum.sum() * scale);
+            sample(out, name + "_count", labels, cumulative);
+        }
+    }
+
+    // indicador que se calcula al leerlo
+    private static final class Gauge implements Series {
+
+        private final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            sample(out, name, labels, value.getAsDouble());
+        }
+    }
+
+    // una metrica con su ayuda, su tipo y sus series por etiquetas
+    private static final class Family {
+
+        final String help;
+        final String type;
+        final Map<String, Series> series = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /** Totes les mètriques, per ordre de registre. Protegit pel seu monitor. */
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Registra un comptador.
+     *
+     * @param labels etiquetes de la sèrie ({@code ""} si no en té)
+     */
+    static Counter counter(String name, String help, String labels) {
+        return (Counter) register(name, help, "counter", labels, new Counter(), false);
+    }
+
+    /**
+     * Registra un comptador que porta una altra classe i es llegeix en fer el scrape.
+     *
+     * @param value total acumulat, que només pot créixer
+     */
+    static void counter(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "counter", labels, new Gauge(value), true);
+    }
+
+    /**
+     * Registra un histograma.
+     *
+     * @param bounds límits superiors de cada interval, de menor a major
+     * @param scale factor per passar les unitats dels límits a les de Prometheus
+     */
+    static Histogram histogram(String name, String help, String labels, long[] bounds, double scale) {
+        return (Histogram) register(name, help, "histogram", labels, new Histogram(bounds, scale), false);
+    }
+
+    /** Registra (o substitueix) un indicador que es calcula en llegir-lo. */
+    static void gauge(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "gauge", labels, new Gauge(value), true);
+    }
+
+    private static Series register(String name, String help, String type, String labels, Series created,
+            boolean replace) {
+        synchronized (FAMILIES) {
+            Family family = FAMILIES.computeIfAbsent(name, n -> new Family(help, type));
+            if (!family.type.equals(type)) {
+                throw new IllegalArgumentException(name + " is already a " + family.type);
+            }
+            if (replace) {
+                family.series.put(labels, created);
+                return created;
+            }
+            return family.series.computeIfAbsent(labels, l -> created);
+        }
+    }
+
+    /** Totes les mètriques en el format de text de Prometheus (versió 0.0.4). */
+    static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        synchronized (FAMILIES) {
+            for (Map.Entry<String, Family> e : FAMILIES.entrySet()) {
+                String name = e.getKey();
+                Family family = e.getValue();
+                out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+                out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+                for (Map.Entry<String, Series> s : family.series.entrySet()) {
+                    try {
+                        s.getValue().write(out, name, s.getKey());
+                    } catch (RuntimeException ex) {
+                        // un indicador que falla no puede dejar sin el resto
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // una linea: nombre{etiquetas} valor
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /** Escapa un valor d'etiqueta (cometes, barres i salts de línia). */
+    static String label(String key, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return key + "=\"" + escaped + "\"";
+    }
+}
@@ -0,0 +1,88 @@
+package com.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local que publica les {@link Metrics} a {@code /metrics}.
+ *
+ * Escolta a {@code c4.metricsHost} (per defecte només a la màquina local) i al port
+ * {@code c4.metricsPort}; amb un port negatiu no s'obre. Respon des d'un sol fil propi,
+ * així que llegir les mètriques no treu temps als fils de les sales.
+ */
+final class MetricsServer {
+
+    // donde escuchar (un puerto negativo lo desactiva)
+    static final String HOST = System.getProperty("c4.metricsHost", "127.0.0.1");
+    static final int PORT = Integer.getInteger("c4.metricsPort", 9404);
+
+    private static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    private MetricsServer(HttpServer http, ExecutorService executor) {
+        this.http = http;
+        this.executor = executor;
+    }
+
+    /**
+     * Obre el servidor de mètriques.
+     *
+     * @return el servidor, o null si està desactivat o no s'ha pogut obrir el port
+     */
+    static MetricsServer start(String host, int port) {
+        if (port < 0) {
+            return null;
+        }
+        HttpServer http;
+        try {
+            http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException e) {
+            System.out.println("[SERVER] Metrics endpoint disabled: " + e.getMessage());
+            return null;
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        http.setExecutor(executor);
+        http.createContext(PATH, MetricsServer::handle);
+        http.start();
+        System.out.println("[SERVER] Metrics on http://" + host + ":" + http.getAddress().getPort() + PATH);
+        return new MetricsServer(http, executor);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    void stop() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,209 @@
+package com.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Llibre d'obertures: el valor amb joc perfecte de totes les posicions de les primeres
+ * jugades, en un fitxer projectat a memòria.
+ *
+ * El fitxer (el genera {@link OpeningBookGenerator}) té una capçalera i una llista
+ * ordenada d'entrades de 8 bytes: la clau de la posició als bits alts i el valor al
+ * byte baix. Es busca per cerca binària directament sobre el fitxer projectat, sense
+ * copiar-lo al heap. Les posicions i la seva simètrica (columnes a l'inrevés) tenen el
+ * mateix valor, i només es guarda la de clau més petita.
+ *
+ * Format (big-endian):
+ * <pre>
+ *  int  MAGIC ("C4BK")
+ *  int  VERSION
+ *  int  files, int columnes
+ *  int  jugades (hi són totes les posicions amb aquest nombre de fitxes o menys)
+ *  long nombre d'entrades
+ *  long entrades[] = clau &lt;&lt; 8 | valor
+ * </pre>
+ *
+ * El valor és 0 si és empat, {@code 43 - n} si el jugador que mou guanya amb la fitxa
+ * número n, i {@code -(43 - n)} si perd quan el rival posa la fitxa número n.
+ *
+ * Es pot fer servir des de qualsevol fil.
+ */
+final class OpeningBook {
+
+    static final int MAGIC = 0x4334424B;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 5 * Integer.BYTES + Long.BYTES;
+
+    /** Valor que retorna {@link #score} si la posició no és al llibre. */
+    static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int ROWS = Bitboard.ROWS;
+    private static final int COLS = Bitboard.COLS;
+    private static final int H1 = ROWS + 1;
+    private static final long COLUMN = (1L << H1) - 1;
+
+    /** Columnes del centre cap als costats. */
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+
+    private final LongBuffer entries;
+    private final int count;
+    private final int plies;
+
+    private OpeningBook(LongBuffer entries, int plies) {
+        this.entries = entries;
+        this.count = entries.limit();
+        this.plies = plies;
+    }
+
+    /**
+     * Obre un llibre.
+     *
+     * @param file fitxer generat amb {@link OpeningBookGenerator}
+     * @return el llibre, o null si no existeix o no és vàlid per a aquest tauler
+     */
+    static OpeningBook open(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // el mapa sigue valido despues de cerrar el canal
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.remaining() < HEADER_BYTES || map.getInt() != MAGIC || map.getInt() != VERSION
+                    || map.getInt() != ROWS || map.getInt() != COLS) {
+                System.out.println("[SERVER] Opening book " + file + " ignored: wrong format or board size");
+                return null;
+            }
+            int plies = map.getInt();
+            long count = map.getLong();
+            if (count < 0 || count > Integer.MAX_VALUE || map.remaining() < count * Long.BYTES) {
+                System.out.println("[SERVER] Opening book " + file + " ignored: truncated");
+                return null;
+            }
+            LongBuffer entries = map.slice().asLongBuffer();
+            entries.limit((int) count);
+            return new OpeningBook(entries, plies);
+        } catch (IOException e) {
+            System.out.println("[SERVER] Opening book " + file + " ignored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Les posicions amb aquest nombre de fitxes o menys són totes al llibre, així que
+     * {@link #bestMove} respon quan n'hi ha menys.
+     */
+    int plies() {
+        return plies;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Valor d'una posició amb joc perfecte, amb el mateix criteri que {@link Solver}.
+     *
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @return el valor, o {@link #UNKNOWN} si no hi és
+     */
+    int score(long current, long mask) {
+        int stored = lookup(canonicalKey(current, mask));
+        return stored == UNKNOWN ? UNKNOWN : decode(stored);
+    }
+
+    /**
+     * Millor jugada segons el llibre: la que deixa el rival amb el pitjor valor. Els
+     * empats es resolen cap al centre.
+     *
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @return columna, o -1 si alguna de les posicions que en resulten no és al llibre
+     */
+    int bestMove(long current, long mask) {
+        long possible = Solver.possible(mask);
+        long win = Solver.winning(current, mask) & possible;
+        if (win != 0) {
+            return Solver.columnOf(win);
+        }
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for (int col : ORDER) {
+            long move = possible & Solver.columnMask(col);
+            if (move == 0) {
+                continue;
+            }
+            int child = score(current ^ mask, mask | move);
+            if (child == UNKNOWN) {
+                return -1;
+            }
+            if (-child > bestScore) {
+                bestScore = -child;
+                best = col;
+            }
+        }
+        return best;
+    }
+
+    // busqueda binaria sobre el fichero; devuelve el byte guardado o UNKNOWN
+    private int lookup(long key) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long entry = entries.get(mid);
+            long k = entry >>> 8;
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return (byte) entry;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    // ----------------- claves y valores -----------------
+
+    /** Clau única d'una posició, la mateixa per a ella i la seva simètrica. */
+    static long canonicalKey(long current, long mask) {
+        long key = current + mask;
+        long mirrored = mirror(current) + mirror(mask);
+        return Math.min(key, mirrored);
+    }
+
+    // el tablero con las columnas al reves
+    static long mirror(long board) {
+        long m = 0;
+        for (int c = 0; c < COLS; c++) {
+            m |= ((board >>> (c * H1)) & COLUMN) << ((COLS - 1 - c) * H1);
+        }
+        return m;
+    }
+
+    /** Valor de {@link Solver} a byte del llibre. */
+    static byte encode(int score) {
+        if (score == 0) {
+            return 0;
+        }
+        int n = Solver.WIN - Math.abs(score);
+        int v = Solver.MAX_DEPTH + 1 - n;
+        return (byte) (score > 0 ? v : -v);
+    }
+
+    /** Byte del llibre a valor de {@link Solver}. */
+    static int decode(int stored) {
+        if (stored == 0) {
+            return 0;
+        }
+        int n = Solver.MAX_DEPTH + 1 - Math.abs(stored);
+        int score = Solver.WIN - n;
+        return stored > 0 ? score : -score;
+    }
+}
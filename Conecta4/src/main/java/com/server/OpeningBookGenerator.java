@@ -0,0 +1,239 @@
+package com.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Genera el llibre d'obertures ({@link OpeningBook}).
+ *
+ * Recorre totes les posicions fins a N fitxes (només una de cada parella simètrica, i
+ * cap on la partida ja s'ha acabat), resol en paral·lel les de N fitxes amb
+ * {@link Solver#solve} i en treu el valor de les anteriors cap enrere, a partir del
+ * valor dels fills. El cost és el de resoldre l'última capa: unes desenes de milers de
+ * posicions per a N = 6 i unes quantes centenars de milers per a N = 8.
+ *
+ * <pre>
+ * java -cp target/classes com.server.OpeningBookGenerator [N] [fils] [fitxer]
+ * </pre>
+ *
+ * Per defecte N = 6, tots els nuclis i {@code data/opening-book.bin}.
+ */
+public final class OpeningBookGenerator {
+
+    static final Path DEFAULT_FILE = Path.of("data", "opening-book.bin");
+
+    // tabla de cada hilo (2^22 entradas, unos 50 MB)
+    private static final int TABLE_BITS = 22;
+
+    private OpeningBookGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int plies = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path file = args.length > 2 ? Path.of(args[2]) : DEFAULT_FILE;
+
+        long start = System.nanoTime();
+        long[] entries = build(0L, 0L, plies, threads);
+        write(file, plies, entries);
+        System.out.printf("[BOOK] %d positions up to %d plies written to %s in %.1f s%n",
+                entries.length, plies, file, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Calcula les entrades del llibre per a les posicions que surten d'una posició
+     * inicial, fins a {@code plies} fitxes.
+     *
+     * @param current fitxes del jugador que mou a la posició inicial
+     * @param mask totes les fitxes de la posició inicial
+     * @param plies nombre màxim de fitxes
+     * @param threads fils per resoldre l'última capa
+     * @return entrades ordenades ({@code clau << 8 | valor})
+     */
+    static long[] build(long current, long mask, int plies, int threads) {
+        // una capa por numero de fichas: claves canonicas ordenadas y sus mascaras
+        List<long[]> keys = new ArrayList<>();
+        List<long[]> masks = new ArrayList<>();
+        Map<Long, Long> layer = new HashMap<>();
+        putCanonical(layer, current, mask);
+        for (int ply = Long.bitCount(mask); ; ply++) {
+            long[] k = layer.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] m = new long[k.length];
+            for (int i = 0; i < k.length; i++) {
+                m[i] = layer.get(k[i]);
+            }
+            keys.add(k);
+            masks.add(m);
+            System.out.printf("[BOOK] ply %d: %d positions%n", ply, k.length);
+            if (ply >= plies || k.length == 0) {
+                break;
+            }
+            layer = expand(k, m);
+        }
+
+        // la ultima capa se resuelve, las demas salen de sus hijos
+        int last = keys.size() - 1;
+        List<int[]> values = new ArrayList<>();
+        for (int i = 0; i <= last; i++) {
+            values.add(null);
+        }
+        values.set(last, solveLayer(keys.get(last), masks.get(last), threads));
+        for (int d = last - 1; d >= 0; d--) {
+            values.set(d, backUp(keys.get(d), masks.get(d), keys.get(d + 1), values.get(d + 1)));
+        }
+
+        int total = 0;
+        for (long[] k : keys) {
+            total += k.length;
+        }
+        long[] entries = new long[total];
+        int n = 0;
+        for (int d = 0; d <= last; d++) {
+            long[] k = keys.get(d);
+            int[] v = values.get(d);
+            for (int i = 0; i < k.length; i++) {
+                entries[n++] = (k[i] << 8) | (OpeningBook.encode(v[i]) & 0xFF);
+            }
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    // posiciones que salen de una capa (sin las que ya han ganado)
+    private static Map<Long, Long> expand(long[] keys, long[] masks) {
+        Map<Long, Long> next = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            long mask = masks[i];
+            long current = keys[i] - mask;
+            long possible = Solver.possible(mask);
+            long win = Solver.winning(current, mask);
+            for (int col = 0; col < Bitboard.COLS; col++) {
+                long move = possible & Solver.columnMask(col);
+                if (move != 0 && (move & win) == 0) {
+                    putCanonical(next, current ^ mask, mask | move);
+                }
+            }
+        }
+        return next;
+    }
+
+    // resolver una capa en paralelo, cada hilo con su Solver
+    private static int[] solveLayer(long[] keys, long[] masks, int threads) {
+        int[] values = new int[keys.length];
+        AtomicInteger done = new AtomicInteger();
+        int step = Math.max(1, keys.length / 100);
+        long start = System.nanoTime();
+        ThreadLocal<Solver> solvers = ThreadLocal.withInitial(() -> new Solver(TABLE_BITS));
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.submit(() -> IntStream.range(0, keys.length).parallel().forEach(i -> {
+                values[i] = solvers.get().solve(keys[i] - masks[i], masks[i]);
+                int n = done.incrementAndGet();
+                if (n % step == 0) {
+                    double secs = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("[BOOK] solved %d/%d (%.0f s, about %.0f s left)%n",
+                            n, keys.length, secs, secs / n * (keys.length - n));
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return values;
+    }
+
+    // valor de cada posicion a partir de los de la capa siguiente
+    private static int[] backUp(long[] keys, long[] masks, long[] childKeys, int[] childValues) {
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            long mask = masks[i];
+            long current = keys[i] - mask;
+            int moves = Long.bitCount(mask);
+            long possible = Solver.possible(mask);
+            if ((Solver.winning(current, mask) & possible) != 0) {
+                values[i] = Solver.WIN - (moves + 1);
+                continue;
+            }
+            int best = -Solver.INF;
+            for (int col = 0; col < Bitboard.COLS; col++) {
+                long move = possible & Solver.columnMask(col);
+                if (move == 0) {
+                    continue;
+                }
+                int j = Arrays.binarySearch(childKeys, OpeningBook.canonicalKey(current ^ mask, mask | move));
+                best = Math.max(best, -childValues[j]);
+            }
+            values[i] = best;
+        }
+        return values;
+    }
+
+    // guardar la posicion con la orientacion de clave mas pequeña
+    private static void putCanonical(Map<Long, Long> layer, long current, long mask) {
+        long key = current + mask;
+        long mirroredMask = OpeningBook.mirror(mask);
+        long mirroredKey = OpeningBook.mirror(current) + mirroredMask;
+        if (mirroredKey < key) {
+            layer.put(mirroredKey, mirroredMask);
+        } else {
+            layer.put(key, mask);
+        }
+    }
+
+    /**
+     * Escriu el llibre en un fitxer temporal i el mou al seu lloc.
+     *
+     * @param file fitxer de destí
+     * @param plies nombre màxim de fitxes de les posicions
+     * @param entries entrades ordenades
+     */
+    static void write(Path file, int plies, long[] entries) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "opening-book", ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(OpeningBook.HEADER_BYTES);
+            header.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION)
+                  .putInt(Bitboard.ROWS).putInt(Bitboard.COLS)
+                  .putInt(plies).putLong(entries.length).flip();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            for (long entry : entries) {
+                if (!chunk.hasRemaining()) {
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
+                chunk.putLong(entry);
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
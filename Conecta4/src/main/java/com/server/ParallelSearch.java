@@ -0,0 +1,181 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cerca en paral·lel: reparteix les jugades de l'arrel entre els fils d'un
+ * {@link ForkJoinPool}.
+ *
+ * Cada iteració de l'aprofundiment iteratiu llança una tasca per jugada de l'arrel.
+ * Cada fil fa servir el seu {@link Solver} amb la seva taula de transposicions. Les
+ * tasques comparteixen la millor puntuació trobada fins al moment: una jugada que no hi
+ * arriba es talla aviat, i una que l'iguala o la supera es valora exactament.
+ *
+ * Amb la mateixa posició i profunditat, i si no s'acaba el temps, el resultat és sempre
+ * el mateix sigui quin sigui el nombre de fils o l'ordre en què acabin les tasques. Els
+ * valors no depenen del contingut de les taules (vegeu {@link Solver}). Els empats es
+ * resolen amb l'ordre fix de l'arrel, el mateix que fa servir la cerca seqüencial.
+ */
+final class ParallelSearch {
+
+    /** Resultat d'una cerca. */
+    static final class Result {
+
+        /** Columna triada, o -1 si el tauler és ple. */
+        final int column;
+
+        /** Profunditat de l'última iteració completa. */
+        final int depth;
+
+        /** Valor de la jugada (positiu si guanya el que mou). */
+        final int score;
+
+        /** Nodes visitats entre tots els fils. */
+        final long nodes;
+
+        Result(int column, int depth, int score, long nodes) {
+            this.column = column;
+            this.depth = depth;
+            this.score = score;
+            this.nodes = nodes;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Solver> solvers;
+
+    /**
+     * @param threads fils de cerca
+     * @param tableBits mida de la taula de transposicions de cada fil (en bits)
+     */
+    ParallelSearch(int threads, int tableBits) {
+        this.pool = new ForkJoinPool(Math.max(1, threads), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("SolverWorker-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, true);
+        this.solvers = ThreadLocal.withInitial(() -> new Solver(tableBits));
+    }
+
+    int threads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Busca la millor columna per al jugador que mou. Es pot cridar des de diversos
+     * fils alhora.
+     *
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @param maxDepth profunditat màxima en jugades
+     * @param budgetNanos temps màxim; la primera iteració sempre s'acaba
+     * @return la jugada triada
+     */
+    Result bestMove(long current, long mask, int maxDepth, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int moves = Long.bitCount(mask);
+        long possible = Solver.possible(mask);
+        if (possible == 0) {
+            return new Result(-1, 0, 0, 0);
+        }
+
+        // los casos que no hace falta buscar, igual que Solver.bestMove
+        long win = Solver.winning(current, mask) & possible;
+        if (win != 0) {
+            return new Result(Solver.columnOf(win), 0, Solver.WIN - (moves + 1), 0);
+        }
+        long next = Solver.nonLosing(current, mask);
+        if (next == 0) {
+            return new Result(Solver.centerMost(possible), 0, -(Solver.WIN - (moves + 2)), 0);
+        }
+        if ((next & (next - 1)) == 0) {
+            return new Result(Solver.columnOf(next), 0, 0, 0);
+        }
+
+        int[] cols = new int[Bitboard.COLS];
+        int[] order = new int[Bitboard.COLS];
+        int best = Solver.centerMost(next);
+        int bestScore = 0;
+        int done = 0;
+        LongAdder nodes = new LongAdder();
+        int depthLimit = Math.min(Math.max(1, maxDepth), Solver.MAX_DEPTH - moves);
+        for (int depth = 1; depth <= depthLimit; depth++) {
+            int count = Solver.orderMoves(current, mask, next, best, cols, order);
+            int[] scores = new int[count];
+            AtomicInteger alpha = new AtomicInteger(-Solver.INF);
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            long limit = depth > 1 ? deadline : Long.MAX_VALUE;
+            int childDepth = depth - 1;
+
+            List<Callable<Void>> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                long child = mask | (next & Solver.columnMask(cols[i]));
+                tasks.add(() -> {
+                    Solver solver = solvers.get();
+                    // ventana (a - 1, INF): las que empatan con la mejor salen exactas
+                    int a = alpha.get();
+                    int score = -solver.search(current ^ mask, child, childDepth, -Solver.INF, 1 - a, limit);
+                    nodes.add(solver.nodes());
+                    if (solver.timedOut()) {
+                        timedOut.set(true);
+                    } else {
+                        scores[index] = score;
+                        alpha.accumulateAndGet(score, Math::max);
+                    }
+                    return null;
+                });
+            }
+            if (!runAll(tasks) || timedOut.get()) {
+                break;
+            }
+
+            // la primera en el orden de la raiz con la mejor puntuacion
+            int max = alpha.get();
+            for (int i = 0; i < count; i++) {
+                if (scores[i] == max) {
+                    best = cols[i];
+                    break;
+                }
+            }
+            bestScore = max;
+            done = depth;
+
+            // ya se sabe quien gana
+            if (Math.abs(max) > Solver.WIN - Solver.MAX_DEPTH - 1) {
+                break;
+            }
+        }
+        return new Result(best, done, bestScore, nodes.sum());
+    }
+
+    // lanzar las tareas y esperar a todas; false si alguna ha fallado
+    private boolean runAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    // parar los hilos
+    void stop() {
+        pool.shutdownNow();
+    }
+}
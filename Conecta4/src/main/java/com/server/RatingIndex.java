@@ -0,0 +1,224 @@
+package com.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Classificació ordenada per puntuació: una skip list on cada enllaç sap quantes
+ * posicions salta.
+ *
+ * Els jugadors van de més a menys puntuació i, a igualtat, per nom. Afegir, treure,
+ * saber la posició d'un jugador i trobar el jugador d'una posició són O(log n) de
+ * mitjana; recórrer els k primers és O(k).
+ *
+ * La clau d'un jugador és la parella (puntuació, nom): per treure'l o buscar-ne la
+ * posició cal passar la mateixa puntuació amb què es va afegir. No és segura per a ús
+ * concurrent; {@link Ratings} la protegeix amb el seu monitor.
+ */
+final class RatingIndex {
+
+    private static final int MAX_LEVEL = 24;
+
+    // probabilidad de subir un nivel (1/4: pocos punteros y busquedas cortas)
+    private static final double P = 0.25;
+
+    private static final class Node {
+
+        final String name;
+        final double rating;
+
+        /** Següent node de cada nivell. */
+        final Node[] next;
+
+        /** Posicions que salta cada enllaç (només té sentit si l'enllaç no és null). */
+        final int[] span;
+
+        Node(String name, double rating, int level) {
+            this.name = name;
+            this.rating = rating;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    private int level = 1;
+    private int size = 0;
+
+    // recorrido de cada operacion (solo se usa dentro de una llamada)
+    private final Node[] update = new Node[MAX_LEVEL];
+    private final int[] rank = new int[MAX_LEVEL];
+
+    /**
+     * Construeix l'índex a partir de jugadors que ja estan en ordre de classificació,
+     * en O(n): cada node s'enganxa al final de cada nivell.
+     *
+     * @param names noms, del primer a l'últim
+     * @param ratings puntuació de cada nom
+     * @return l'índex, o null si els jugadors no estan ben ordenats
+     */
+    static RatingIndex ofSorted(String[] names, double[] ratings) {
+        RatingIndex index = new RatingIndex();
+        Node[] last = new Node[MAX_LEVEL];
+        int[] lastRank = new int[MAX_LEVEL];
+        Arrays.fill(last, index.head);
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0 && !before(last[0], ratings[i], names[i])) {
+                return null;
+            }
+            int lvl = randomLevel();
+            index.level = Math.max(index.level, lvl);
+            Node node = new Node(names[i], ratings[i], lvl);
+            for (int j = 0; j < lvl; j++) {
+                last[j].next[j] = node;
+                last[j].span[j] = i + 1 - lastRank[j];
+                last[j] = node;
+                lastRank[j] = i + 1;
+            }
+        }
+        index.size = names.length;
+        return index;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Afegeix un jugador. No comprova si ja hi era amb una altra puntuació. */
+    void insert(String name, double rating) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && before(x.next[i], rating, name)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int lvl = randomLevel();
+        if (lvl > level) {
+            for (int i = level; i < lvl; i++) {
+                rank[i] = 0;
+                update[i] = head;
+            }
+            level = lvl;
+        }
+
+        Node node = new Node(name, rating, lvl);
+        for (int i = 0; i < lvl; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            // el enlace de update[i] se parte en dos: hasta el nodo nuevo y desde el
+            if (node.next[i] != null) {
+                node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            }
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        // los enlaces mas altos que pasan por encima saltan una posicion mas
+        for (int i = lvl; i < level; i++) {
+            if (update[i].next[i] != null) {
+                update[i].span[i]++;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Treu un jugador.
+     *
+     * @return false si no hi era amb aquesta puntuació
+     */
+    boolean remove(String name, double rating) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && before(x.next[i], rating, name)) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        Node target = x.next[0];
+        if (target == null || target.rating != rating || !target.name.equals(name)) {
+            return false;
+        }
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == target) {
+                update[i].span[i] += target.span[i] - 1;
+                update[i].next[i] = target.next[i];
+            } else if (update[i].next[i] != null) {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Posició d'un jugador (1 és el primer).
+     *
+     * @return la posició, o 0 si no hi és amb aquesta puntuació
+     */
+    int rank(String name, double rating) {
+        Node x = head;
+        int r = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && !after(x.next[i], rating, name)) {
+                r += x.span[i];
+                x = x.next[i];
+            }
+            if (x != head && x.rating == rating && x.name.equals(name)) {
+                return r;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Recorre els jugadors a partir d'una posició.
+     *
+     * @param fromRank primera posició (1 és el primer)
+     * @param count nombre màxim de jugadors
+     * @param visitor rep el nom i la posició de cada jugador
+     */
+    void forEach(int fromRank, int count, ObjIntConsumer<String> visitor) {
+        if (fromRank < 1 || fromRank > size || count <= 0) {
+            return;
+        }
+        // bajar por los enlaces sin pasarse de la posicion
+        Node x = head;
+        int r = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && r + x.span[i] <= fromRank) {
+                r += x.span[i];
+                x = x.next[i];
+            }
+        }
+        for (int n = 0; n < count && x != null; n++) {
+            visitor.accept(x.name, r++);
+            x = x.next[0];
+        }
+    }
+
+    // a va antes que la clave (rating, name): mas puntuacion o, si empatan, nombre menor
+    private static boolean before(Node a, double rating, String name) {
+        return a.rating > rating || (a.rating == rating && a.name.compareTo(name) < 0);
+    }
+
+    private static boolean after(Node a, double rating, String name) {
+        return a.rating < rating || (a.rating == rating && a.name.compareTo(name) > 0);
+    }
+
+    private static int randomLevel() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lvl = 1;
+        while (lvl < MAX_LEVEL && random.nextDouble() < P) {
+            lvl++;
+        }
+        return lvl;
+    }
+}
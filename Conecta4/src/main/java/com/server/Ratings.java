@@ -0,0 +1,369 @@
+package com.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puntuació Elo de cada jugador i classificació.
+ *
+ * Quan acaba una partida, la sala crida {@link #recordGame} i les puntuacions dels dos
+ * jugadors s'actualitzen amb la fórmula d'Elo (K més alta durant les primeres partides,
+ * perquè els nous trobin aviat el seu lloc). Els jugadors es guarden a un
+ * {@link RatingIndex}, així que els primers de la classificació i la posició d'un
+ * jugador es responen en O(log n).
+ *
+ * Només puntuen els noms que identifiquen un jugador ({@link #isRated}): els del
+ * vestíbul i els dels bots. Els noms de la llista de les sales i els de convidat els
+ * fan servir jugadors diferents, així que no es guarden mai; una partida on en juga un
+ * no compta per a ningú.
+ *
+ * Cada {@code c4.ratingsSnapshotSeconds}, si hi ha hagut canvis, la classificació
+ * s'escriu sencera en un fitxer (per defecte {@code data/ratings.bin}) des d'un fil
+ * propi; en arrencar es torna a carregar d'aquest fitxer.
+ *
+ * Totes les operacions es poden cridar des de qualsevol fil (monitor de l'objecte).
+ */
+final class Ratings {
+
+    static final int MAGIC = 0x43345254;
+    static final int VERSION = 1;
+
+    /** Puntuació d'un jugador nou. */
+    static final double INITIAL_RATING = 1500;
+
+    // cuanto se mueve la puntuacion en cada partida (mas al principio)
+    private static final double K = 24;
+    private static final double K_PROVISIONAL = 40;
+    private static final int PROVISIONAL_GAMES = 20;
+
+    private static final long SNAPSHOT_SECONDS = Long.getLong("c4.ratingsSnapshotSeconds", 60);
+
+    /** Posició d'un jugador a la classificació, per a les consultes. */
+    static final class Standing {
+
+        final String name;
+
+        /** 1 és el primer. */
+        final int rank;
+
+        final double rating;
+        final int games;
+        final int wins;
+        final int draws;
+        final int losses;
+
+        Standing(String name, int rank, double rating, int games, int wins, int draws, int losses) {
+            this.name = name;
+            this.rank = rank;
+            this.rating = rating;
+            this.games = games;
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        @Override
+        public String toString() {
+            return rank + ". " + name + " " + Math.round(rating) + " (" + wins + "-" + draws + "-" + losses + ")";
+        }
+    }
+
+    // datos de un jugador (solo con el monitor)
+    private static final class Player {
+
+        final String name;
+        double rating = INITIAL_RATING;
+        int wins;
+        int draws;
+        int losses;
+
+        Player(String name) {
+            this.name = name;
+        }
+
+        int games() {
+            return wins + draws + losses;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Player> players = new HashMap<>();
+    private RatingIndex index = new RatingIndex();
+    private ScheduledThreadPoolExecutor snapshots = null;
+
+    // hay cambios que aun no estan en el fichero
+    private boolean dirty = false;
+
+    private Ratings(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Carrega la classificació d'un fitxer (si no existeix es comença de zero) i programa
+     * les còpies periòdiques.
+     *
+     * @param file fitxer de la classificació
+     */
+    static Ratings open(Path file) {
+        Ratings ratings = new Ratings(file);
+        if (Files.isRegularFile(file)) {
+            long start = System.nanoTime();
+            try {
+                ratings.load();
+                System.out.println(String.format("[SERVER] Ratings %s: %d players loaded in %.1f ms",
+                        file, ratings.size(), (System.nanoTime() - start) / 1e6));
+            } catch (IOException e) {
+                System.out.println("[SERVER] Ratings " + file + " ignored: " + e.getMessage());
+                ratings = new Ratings(file);
+            }
+        }
+        ratings.startSnapshots();
+        return ratings;
+    }
+
+    /**
+     * Actualitza les puntuacions quan acaba una partida.
+     *
+     * @param red jugador vermell
+     * @param yellow jugador groc
+     * @param winner "R", "Y" o null si és empat
+     */
+    synchronized void recordGame(String red, String yellow, String winner) {
+        if (!isRated(red) || !isRated(yellow) || red.equals(yellow)) {
+            return;
+        }
+        Player a = player(red);
+        Player b = player(yellow);
+        double expected = 1 / (1 + Math.pow(10, (b.rating - a.rating) / 400));
+        double score = winner == null ? 0.5 : "R".equals(winner) ? 1 : 0;
+
+        double newA = a.rating + kFactor(a) * (score - expected);
+        double newB = b.rating + kFactor(b) * (expected - score);
+        if (winner == null) {
+            a.draws++;
+            b.draws++;
+        } else if (score == 1) {
+            a.wins++;
+            b.losses++;
+        } else {
+            a.losses++;
+            b.wins++;
+        }
+        move(a, newA);
+        move(b, newB);
+        dirty = true;
+    }
+
+    /**
+     * Els primers de la classificació.
+     *
+     * @param count nombre màxim de jugadors
+     */
+    synchronized List<Standing> top(int count) {
+        return range(1, count);
+    }
+
+    /**
+     * Jugadors a partir d'una posició.
+     *
+     * @param fromRank primera posició (1 és el primer)
+     * @param count nombre màxim de jugadors
+     */
+    synchronized List<Standing> range(int fromRank, int count) {
+        List<Standing> list = new ArrayList<>(Math.max(0, Math.min(count, index.size())));
+        index.forEach(fromRank, count, (name, rank) -> list.add(standing(players.get(name), rank)));
+        return list;
+    }
+
+    /**
+     * Posició d'un jugador.
+     *
+     * @return la posició, o null si encara no ha jugat cap partida
+     */
+    synchronized Standing standing(String name) {
+        Player p = players.get(name);
+        return p == null ? null : standing(p, index.rank(p.name, p.rating));
+    }
+
+    /** Puntuació d'un jugador ({@link #INITIAL_RATING} si encara no ha jugat). */
+    synchronized double rating(String name) {
+        Player p = players.get(name);
+        return p == null ? INITIAL_RATING : p.rating;
+    }
+
+    synchronized int size() {
+        return players.size();
+    }
+
+    private Player player(String name) {
+        Player p = players.get(name);
+        if (p == null) {
+            p = new Player(name);
+            players.put(name, p);
+            index.insert(name, p.rating);
+        }
+        return p;
+    }
+
+    // cambiar la puntuacion y recolocar al jugador en la clasificacion
+    private void move(Player p, double rating) {
+        index.remove(p.name, p.rating);
+        p.rating = rating;
+        index.insert(p.name, rating);
+    }
+
+    private static double kFactor(Player p) {
+        return p.games() < PROVISIONAL_GAMES ? K_PROVISIONAL : K;
+    }
+
+    private static Standing standing(Player p, int rank) {
+        return new Standing(p.name, rank, p.rating, p.games(), p.wins, p.draws, p.losses);
+    }
+
+    // ----------------- fichero -----------------
+
+    private void startSnapshots() {
+        if (SNAPSHOT_SECONDS <= 0) {
+            return;
+        }
+        snapshots = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "RatingsSnapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshots.scheduleWithFixedDelay(this::snapshotQuietly, SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.out.println("[SERVER] Ratings snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escriu la classificació al fitxer si ha canviat. Es copia amb el monitor i
+     * s'escriu sense, en un fitxer temporal que després es mou al seu lloc.
+     */
+    void snapshot() throws IOException {
+        String[] names;
+        double[] ratings;
+        int[][] results;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            int n = index.size();
+            names = new String[n];
+            ratings = new double[n];
+            results = new int[n][];
+            index.forEach(1, n, (name, rank) -> {
+                Player p = players.get(name);
+                int i = rank - 1;
+                names[i] = name;
+                ratings[i] = p.rating;
+                results[i] = new int[] {p.wins, p.draws, p.losses};
+            });
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "ratings", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            // en orden de clasificacion
+            for (int i = 0; i < names.length; i++) {
+                out.writeUTF(names[i]);
+                out.writeDouble(ratings[i]);
+                out.writeInt(results[i][0]);
+                out.writeInt(results[i][1]);
+                out.writeInt(results[i][2]);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            markDirty();
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Si un nom pot tenir puntuació: no és de la llista de les sales ni de convidat.
+     *
+     * @param name nom del jugador
+     */
+    static boolean isRated(String name) {
+        return name != null && !name.isEmpty() && !GameRoom.PLAYER_NAMES.contains(name)
+                && !name.startsWith(Lobby.GUEST_PREFIX);
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    private synchronized void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a ratings file");
+            }
+            int total = in.readInt();
+            String[] names = new String[total];
+            double[] ratings = new double[total];
+            int n = 0;
+            for (int i = 0; i < total; i++) {
+                Player p = new Player(in.readUTF());
+                p.rating = in.readDouble();
+                p.wins = in.readInt();
+                p.draws = in.readInt();
+                p.losses = in.readInt();
+                // ficheros antiguos: los nombres compartidos no se cargan y el siguiente
+                // snapshot los borra
+                if (!isRated(p.name)) {
+                    dirty = true;
+                    continue;
+                }
+                if (players.putIfAbsent(p.name, p) != null) {
+                    throw new IOException("duplicate player " + p.name);
+                }
+                names[n] = p.name;
+                ratings[n] = p.rating;
+                n++;
+            }
+            names = Arrays.copyOf(names, n);
+            ratings = Arrays.copyOf(ratings, n);
+            // el fichero esta en orden de clasificacion: el indice se monta de una pasada
+            index = RatingIndex.ofSorted(names, ratings);
+            if (index == null) {
+                index = new RatingIndex();
+                for (int i = 0; i < n; i++) {
+                    index.insert(names[i], ratings[i]);
+                }
+            }
+        }
+    }
+
+    /** Atura les còpies periòdiques i escriu l'última. */
+    void close() {
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+        }
+        snapshotQuietly();
+    }
+}
@@ -0,0 +1,368 @@
+package com.server;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.server.WebSocketServer;
+
+import com.shared.ClientData;
+
+/**
+ * Gestor de sales: aparella les connexions de dues en dues i recorda a quina sala
+ * pertany cada connexió.
+ *
+ * Una connexió nova entra a la primera sala que espera un jugador; si no n'hi ha cap,
+ * se'n crea una de nova, fixada a un {@link RoomShard} (per id de sala). Quan algú
+ * marxa, la sala torna a la cua d'espera i, si queda buida, s'elimina.
+ *
+ * El gestor només compta places. L'alta i la baixa dins de la sala s'envien al fil del
+ * seu shard mentre es té el monitor del gestor, així arriben a la sala en el mateix
+ * ordre en què s'han repartit les places.
+ *
+ * Si un jugador espera sol més de {@code c4.botWaitSeconds}, la plaça lliure l'ocupa
+ * un bot ({@link BotPlayer}). Quan el jugador marxa, el bot també.
+ *
+ * Totes les sales comparteixen l'historial de partides ({@code c4.historyDir}) i la
+ * classificació ({@code c4.ratingsFile}).
+ *
+ * Els espectadors no ocupen plaça: s'afegeixen a una sala que ja existeix i, quan la
+ * sala s'elimina, se'ls tanca la connexió.
+ *
+ * Les parelles que fa el {@link Lobby} van a una sala privada ({@link #startMatch}): no
+ * entra a la cua d'espera i, si un dels dos marxa, no hi arriba ningú més ni cap bot;
+ * l'altre surt de la sala ({@link GameRoom#releasePlayers}) i torna al vestíbul.
+ */
+final class RoomManager {
+
+    /** Avís quan un jugador ha entrat a una sala, al fil de la sala. */
+    interface JoinListener {
+        void joined(WebSocket conn, GameRoom room, ClientData data);
+    }
+
+    /** Per a {@link #spectate}: la sala amb més jugadors. */
+    static final int ANY_ROOM = -1;
+
+    // precision y tamaño de la rueda de temporizadores (512 x 10 ms = una vuelta cada 5 s)
+    private static final long TIMER_TICK_MILLIS = 10;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    // cuanto espera un jugador solo antes de darle un bot (negativo = sin bots)
+    private static final long BOT_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(Integer.getInteger("c4.botWaitSeconds", 10));
+
+    // fuerza de los bots
+    private static final BotPlayer.Level BOT_LEVEL = BotPlayer.Level.parse(System.getProperty("c4.botLevel"), BotPlayer.Level.HARD);
+
+    // hilos para pensar las jugadas de los bots
+    private static final int BOT_THREADS = Integer.getInteger("c4.botThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    // directorio del historial de partidas
+    private static final Path HISTORY_DIR = Path.of(System.getProperty("c4.historyDir", "data/history"));
+
+    // fichero de la clasificacion
+    private static final Path RATINGS_FILE = Path.of(System.getProperty("c4.ratingsFile", "data/ratings.bin"));
+
+    private final WebSocketServer server;
+
+    /** Què es fa amb un jugador quan la seva sala ja no continua. */
+    private final BiConsumer<WebSocket, String> release;
+
+    /** Bucles d'esdeveniments; cada sala va sempre al mateix. */
+    private final RoomShard[] shards;
+
+    /** Temporitzadors de totes les sales (compte enrere, torns, revenja). */
+    private final TimerWheel timers = new TimerWheel(TIMER_TICK_MILLIS, TIMER_WHEEL_SIZE);
+
+    /** Fils on pensen els bots. */
+    private final BotPool bots = new BotPool(BOT_THREADS);
+
+    /** Historial de partides acabades (null si no s'ha pogut obrir). */
+    private final MatchHistory history = MatchHistory.open(HISTORY_DIR);
+
+    /** Puntuació Elo de cada jugador. */
+    private final Ratings ratings = Ratings.open(RATINGS_FILE);
+
+    /** Sala de cada connexió. */
+    private final Map<WebSocket, GameRoom> roomByConn = new ConcurrentHashMap<>();
+
+    /** Sala que mira cada espectador. */
+    private final Map<WebSocket, GameRoom> roomBySpectator = new ConcurrentHashMap<>();
+
+    /** Sales actives per identificador. */
+    private final Map<Integer, GameRoom> rooms = new ConcurrentHashMap<>();
+
+    /** Places ocupades de cada sala. Protegit pel monitor del gestor. */
+    private final Map<GameRoom, Integer> seats = new HashMap<>();
+
+    /** Sales amb lloc lliure, per ordre d'arribada. Protegida pel monitor del gestor. */
+    private final Deque<GameRoom> waiting = new ArrayDeque<>();
+
+    /** Sales amb un bot assegut. Protegit pel monitor del gestor. */
+    private final Set<GameRoom> botRooms = new HashSet<>();
+
+    /** Espera del bot de cada sala amb un sol jugador. Protegit pel monitor del gestor. */
+    private final Map<GameRoom, TimerWheel.Timeout> botTimers = new HashMap<>();
+
+    /** Sales de parelles del vestíbul. Protegit pel monitor del gestor. */
+    private final Set<GameRoom> privateRooms = new HashSet<>();
+
+    private int nextRoomId = 1;
+
+    /**
+     * @param release es crida al fil de la sala per a cada jugador quan la sala ja no
+     *                continua (amb el motiu): torna al vestíbul o es desconnecta
+     */
+    RoomManager(WebSocketServer server, int shardCount, BiConsumer<WebSocket, String> release) {
+        this.server = server;
+        this.release = release;
+        this.shards = new RoomShard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new RoomShard(i);
+        }
+    }
+
+    // arrancar los bucles
+    void start() {
+        for (RoomShard shard : shards) {
+            shard.start();
+        }
+    }
+
+    // parar los bucles
+    void stop() {
+        for (RoomShard shard : shards) {
+            shard.stop();
+        }
+        timers.stop();
+        bots.stop();
+        if (history != null) {
+            history.close();
+        }
+        ratings.close();
+    }
+
+    /**
+     * Reserva una plaça per a una connexió nova i l'afegeix a la sala des del fil del shard.
+     *
+     * @param conn connexió del client
+     * @param onJoined es crida al fil de la sala amb les dades del jugador
+     */
+    synchronized void join(WebSocket conn, BiConsumer<GameRoom, ClientData> onJoined) {
+        GameRoom room = waiting.peekFirst();
+        if (room == null) {
+            room = createRoom();
+            waiting.addLast(room);
+        }
+
+        int taken = seats.merge(room, 1, Integer::sum);
+        if (taken >= GameRoom.REQUIRED_CLIENTS) {
+            waiting.remove(room);
+            cancelBot(room);
+        } else {
+            scheduleBot(room);
+        }
+        roomByConn.put(conn, room);
+
+        GameRoom target = room;
+        room.execute(() -> onJoined.accept(target, target.join(conn)));
+    }
+
+    /**
+     * Crea una sala privada per a dos jugadors del vestíbul i els hi afegeix des del fil
+     * del shard, amb el nom que ja portaven.
+     *
+     * @param first jugador que porta les vermelles
+     * @param onJoined es crida al fil de la sala per a cada jugador
+     * @return la sala creada
+     */
+    synchronized GameRoom startMatch(WebSocket first, String firstName, WebSocket second, String secondName,
+            JoinListener onJoined) {
+        GameRoom room = createRoom();
+        seats.put(room, GameRoom.REQUIRED_CLIENTS);
+        privateRooms.add(room);
+        roomByConn.put(first, room);
+        roomByConn.put(second, room);
+        room.execute(() -> onJoined.joined(first, room, room.join(first, firstName)));
+        room.execute(() -> onJoined.joined(second, room, room.join(second, secondName)));
+        return room;
+    }
+
+    // sala nueva y vacia, fijada a su shard
+    private GameRoom createRoom() {
+        int id = nextRoomId++;
+        RoomShard shard = shards[id % shards.length];
+        GameRoom room = new GameRoom(id, server, shard, timers, bots, history, ratings, release);
+        rooms.put(id, room);
+        seats.put(room, 0);
+        shard.execute(() -> shard.add(room));
+        return room;
+    }
+
+    /**
+     * Allibera la plaça d'una connexió i la treu de la sala des del fil del shard.
+     *
+     * @param conn connexió del client
+     * @param onLeft es crida al fil de la sala amb el nom del jugador que ha sortit
+     */
+    synchronized void leave(WebSocket conn, BiConsumer<GameRoom, String> onLeft) {
+        GameRoom room = roomByConn.remove(conn);
+        if (room == null) {
+            return;
+        }
+
+        int taken = seats.merge(room, -1, Integer::sum);
+        // si solo queda el bot, la sala tambien esta vacia
+        boolean empty = taken <= 0 || botRooms.contains(room);
+        if (empty) {
+            // sala buida: ja no cal
+            rooms.remove(room.id());
+            seats.remove(room);
+            waiting.remove(room);
+            botRooms.remove(room);
+            privateRooms.remove(room);
+            cancelBot(room);
+        }
+        // en una sala privada nadie ocupa la plaza: el que queda sale de la sala
+        boolean abandoned = !empty && privateRooms.contains(room);
+        if (!empty && !abandoned) {
+            if (!waiting.contains(room)) {
+                // el jugador que queda espera un rival
+                waiting.addLast(room);
+            }
+            scheduleBot(room);
+        }
+
+        room.execute(() -> {
+            onLeft.accept(room, room.leave(conn));
+            if (empty) {
+                room.closeSpectators();
+                room.shard().remove(room);
+            } else if (abandoned) {
+                room.releasePlayers("opponent left");
+            }
+        });
+    }
+
+    /**
+     * Afegeix un espectador a una sala des del fil del shard.
+     *
+     * @param conn connexió de l'espectador
+     * @param roomId sala, o {@link #ANY_ROOM}
+     * @param onJoined es crida al fil de la sala
+     * @return false si la sala no existeix
+     */
+    synchronized boolean spectate(WebSocket conn, int roomId, Consumer<GameRoom> onJoined) {
+        GameRoom room = roomId == ANY_ROOM ? busiestRoom() : rooms.get(roomId);
+        if (room == null) {
+            return false;
+        }
+        roomBySpectator.put(conn, room);
+        room.execute(() -> {
+            room.addSpectator(conn);
+            onJoined.accept(room);
+        });
+        return true;
+    }
+
+    /**
+     * Treu un espectador de la seva sala.
+     *
+     * @return false si la connexió no era un espectador
+     */
+    boolean unspectate(WebSocket conn) {
+        GameRoom room = roomBySpectator.remove(conn);
+        if (room == null) {
+            return false;
+        }
+        room.execute(() -> room.removeSpectator(conn));
+        return true;
+    }
+
+    // la sala con mas jugadores segun el ultimo estado publicado (a igualdad, la mas antigua)
+    private GameRoom busiestRoom() {
+        GameRoom best = null;
+        int bestPlayers = -1;
+        for (GameRoom room : rooms.values()) {
+            int players = room.publishedPlayers();
+            if (players > bestPlayers || (players == bestPlayers && room.id() < best.id())) {
+                best = room;
+                bestPlayers = players;
+            }
+        }
+        return best;
+    }
+
+    // ----------------- bots (con el monitor del gestor) -----------------
+
+    // empezar a esperar para dar un bot al jugador que esta solo
+    private void scheduleBot(GameRoom room) {
+        if (BOT_WAIT_MILLIS < 0) {
+            return;
+        }
+        cancelBot(room);
+        botTimers.put(room, timers.schedule(() -> offerBot(room), BOT_WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void cancelBot(GameRoom room) {
+        TimerWheel.Timeout pending = botTimers.remove(room);
+        if (pending != null) {
+            pending.cancel();
+        }
+    }
+
+    // la espera ha terminado: si el jugador sigue solo, el bot ocupa la otra plaza
+    private synchronized void offerBot(GameRoom room) {
+        botTimers.remove(room);
+        Integer taken = seats.get(room);
+        if (taken == null || taken != 1 || botRooms.contains(room)) {
+            return;
+        }
+        seats.put(room, GameRoom.REQUIRED_CLIENTS);
+        waiting.remove(room);
+        botRooms.add(room);
+        room.execute(() -> room.addBot(BOT_LEVEL));
+    }
+
+    GameRoom roomOf(WebSocket conn) {
+        return roomByConn.get(conn);
+    }
+
+    int roomCount() {
+        return rooms.size();
+    }
+
+    int clientCount() {
+        return roomByConn.size();
+    }
+
+    int spectatorCount() {
+        return roomBySpectator.size();
+    }
+
+    Collection<GameRoom> rooms() {
+        return rooms.values();
+    }
+
+    TimerWheel timers() {
+        return timers;
+    }
+
+    Ratings ratings() {
+        return ratings;
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+}
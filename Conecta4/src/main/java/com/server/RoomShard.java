@@ -0,0 +1,285 @@
+package com.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.TextFrame;
+
+import com.shared.DeflateExtension;
+import com.shared.JsonUpdateWriter;
+import com.shared.ServerUpdate;
+
+/**
+ * Bucle d'esdeveniments d'un grup de sales.
+ *
+ * Cada shard té un sol fil que és l'únic que llegeix i modifica l'estat de les seves
+ * sales: els missatges dels clients hi arriben com a tasques, i el mateix fil fa els
+ * ticks (enviar els canvis) i els temporitzadors de les sales. Així l'estat d'una sala no necessita
+ * bloquejos i les sales de shards diferents avancen en paral·lel en nuclis diferents.
+ *
+ * El ritme dels ticks s'adapta a l'activitat del shard: ràpid mentre arriben missatges
+ * o hi ha canvis, lent quan tot està parat.
+ *
+ * Cada tick i cada estat enviat es compten a les {@link Metrics}, com també els errors
+ * que el bucle s'empassa per no aturar-se.
+ */
+final class RoomShard {
+
+    // cuantas veces por segundo enviar datos: rapido si hay cambios, lento si no
+    static final int ACTIVE_FPS = 60;
+    private static final int IDLE_FPS = 4;
+    private static final long ACTIVE_HOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int STATS_MAX_ROOMS = 10;
+
+    // metricas del bucle y de los estados enviados (de todos los shards)
+    private static final Metrics.Histogram TICK_SECONDS = Metrics.histogram("c4_tick_duration_seconds",
+            "Time to broadcast every room of a shard in one tick", "", Metrics.LATENCY_BUCKETS, Metrics.NANOS);
+    private static final Metrics.Counter TICK_ERRORS = Metrics.counter("c4_errors_total",
+            "Exceptions swallowed to keep the server running", Metrics.label("where", "tick"));
+    private static final Metrics.Counter TASK_ERRORS = Metrics.counter("c4_errors_total",
+            "Exceptions swallowed to keep the server running", Metrics.label("where", "room_task"));
+    static final Metrics.Counter STATE_MESSAGES = Metrics.counter("c4_broadcast_messages_total",
+            "Messages sent to clients", Metrics.label("kind", "state"));
+    static final Metrics.Counter STATE_BYTES = Metrics.counter("c4_broadcast_bytes_total",
+            "Payload bytes sent to clients", Metrics.label("kind", "state"));
+
+    private final int index;
+    private final ScheduledThreadPoolExecutor loop;
+
+    /** JSON dels estats, reutilitzat per totes les sales del shard. */
+    private final JsonUpdateWriter json = new JsonUpdateWriter();
+    private final TextFrame jsonFrame = new TextFrame();
+
+    /** Sales d'aquest shard (només les toca el fil del shard). */
+    private final List<GameRoom> rooms = new ArrayList<>();
+
+    // siguiente tick programado (solo lo toca el hilo del shard)
+    private ScheduledFuture<?> nextTick = null;
+    private long nextTickAt = 0;
+    private long lastTickAt = 0;
+    private long activeUntil = 0;
+    private volatile int tickHz = IDLE_FPS;
+    private long lastStatsAt = 0;
+
+    /** Per mesurar els bytes reservats per cada sala (null si la JVM no ho permet). */
+    private final com.sun.management.ThreadMXBean allocBean;
+
+    RoomShard(int index) {
+        this.index = index;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "RoomShard-" + index);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.loop = executor;
+        Metrics.gauge("c4_tick_hz", "Current tick rate of each room shard", Metrics.label("shard", Integer.toString(index)),
+                this::getTickHz);
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.allocBean = (com.sun.management.ThreadMXBean) bean;
+            this.allocBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            this.allocBean = null;
+        }
+    }
+
+    int index() {
+        return index;
+    }
+
+    /**
+     * Executa una tasca al fil del shard i torna al ritme ràpid.
+     * Es pot cridar des de qualsevol fil.
+     */
+    void execute(Runnable task) {
+        try {
+            loop.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    // un mensaje erroneo no puede parar el bucle
+                    TASK_ERRORS.inc();
+                }
+                wake();
+            });
+        } catch (Exception e) {
+            // el shard ya esta parado
+        }
+    }
+
+    /**
+     * Envia un estat en JSON a diverses connexions. El JSON s'escriu una sola vegada al
+     * buffer del shard i cada connexió en copia els bytes al seu frame; les que comprimeixen
+     * en tenen un de propi. Només des del fil del shard.
+     */
+    void sendJson(ServerUpdate update, Collection<WebSocket> targets) {
+        ByteBuffer payload = json.write(update);
+        STATE_MESSAGES.add(targets.size());
+        STATE_BYTES.add((long) payload.remaining() * targets.size());
+        jsonFrame.setPayload(payload);
+        for (WebSocket conn : targets) {
+            try {
+                if (DeflateExtension.isActive(conn)) {
+                    // comprimir cambia el frame y el contexto es de la conexion: uno propio
+                    TextFrame own = new TextFrame();
+                    own.setPayload(payload.duplicate());
+                    conn.sendFrame(own);
+                } else {
+                    conn.sendFrame(jsonFrame);
+                }
+            } catch (WebsocketNotConnectedException e) {
+                // la conexion ya esta cerrada, onClose la saca de su sala
+            }
+        }
+    }
+
+    // ----------------- sales (solo desde el hilo del shard) -----------------
+
+    void add(GameRoom room) {
+        rooms.add(room);
+    }
+
+    void remove(GameRoom room) {
+        rooms.remove(room);
+    }
+
+    // ----------------- ticker -----------------
+
+    // empezar a enviar datos
+    void start() {
+        loop.execute(() -> scheduleTick(0));
+    }
+
+    // un tick: enviar los cambios de cada sala y decidir cuando toca el siguiente
+    private void tick() {
+        nextTick = null;
+        long now = System.nanoTime();
+        lastTickAt = now;
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / ACTIVE_FPS;
+        for (GameRoom room : rooms) {
+            try {
+                long bytesBefore = allocatedBytes();
+                long start = System.nanoTime();
+                if (room.broadcastStatus(now, periodNanos)) {
+                    activeUntil = now + ACTIVE_HOLD_NANOS;
+                }
+                room.recordTick(System.nanoTime() - start, allocatedBytes() - bytesBefore);
+            } catch (Exception e) {
+                // error al enviar
+                TICK_ERRORS.inc();
+            }
+        }
+        TICK_SECONDS.observe(System.nanoTime() - now);
+        logStats(now);
+
+        // 60 Hz mientras hay cambios (arrastrar, mover el raton), pocos Hz si esta parado
+        tickHz = now < activeUntil ? ACTIVE_FPS : IDLE_FPS;
+        scheduleTick(TimeUnit.SECONDS.toNanos(1) / tickHz);
+    }
+
+    // programar el siguiente tick, si ya hay uno antes no se hace nada
+    private void scheduleTick(long delayNanos) {
+        if (loop.isShutdown()) {
+            return;
+        }
+        long at = System.nanoTime() + delayNanos;
+        if (nextTick != null) {
+            if (nextTickAt <= at) {
+                return;
+            }
+            nextTick.cancel(false);
+        }
+        nextTickAt = at;
+        nextTick = loop.schedule(this::tick, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // ha llegado un mensaje: volver al ritmo rapido sin pasar de ACTIVE_FPS
+    private void wake() {
+        long now = System.nanoTime();
+        activeUntil = now + ACTIVE_HOLD_NANOS;
+        long next = lastTickAt + TimeUnit.SECONDS.toNanos(1) / ACTIVE_FPS;
+        scheduleTick(Math.max(0, next - now));
+    }
+
+    // ritmo actual del ticker
+    int getTickHz() {
+        return tickHz;
+    }
+
+    // bytes reservados hasta ahora por el hilo actual
+    private long allocatedBytes() {
+        return allocBean == null ? 0 : allocBean.getCurrentThreadAllocatedBytes();
+    }
+
+    // mostrar de vez en cuando el ritmo del ticker, el coste de cada sala y de cada conexion
+    private void logStats(long now) {
+        if (now - lastStatsAt < STATS_INTERVAL_NANOS) {
+            return;
+        }
+        lastStatsAt = now;
+        if (rooms.isEmpty()) {
+            return;
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        long usedHeap = rt.totalMemory() - rt.freeMemory();
+        System.out.println(String.format("[SERVER] Shard %d: tick %d Hz | %d rooms | heap %d KB",
+                index, tickHz, rooms.size(), usedHeap / 1024));
+
+        int shown = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        int measured = 0;
+        for (GameRoom room : rooms) {
+            long[] cost = room.takeTickStats();
+            if (cost[0] > 0) {
+                totalNanos += cost[1];
+                totalBytes += cost[2];
+                measured++;
+            }
+            if (shown++ >= STATS_MAX_ROOMS) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(String.format("[SERVER]   room %d: %d ticks, %.1f us/tick, %d B/tick",
+                    room.id(), cost[0], cost[1] / 1000.0, cost[2]));
+            if (room.spectatorCount() > 0) {
+                sb.append(" | ").append(room.spectatorCount()).append(" spectators");
+            }
+            ClientRegistry.Members members = room.members();
+            for (int i = 0; i < members.size(); i++) {
+                ConnectionState state = members.socket(i).getAttachment();
+                if (state != null) {
+                    sb.append(String.format(" | %s %.0f Hz rtt %d ms", members.name(i), state.currentHz(), state.rttMillis()));
+                }
+            }
+            System.out.println(sb);
+        }
+        if (measured > 0) {
+            System.out.println(String.format("[SERVER]   average per room: %.1f us/tick, %d B/tick",
+                    totalNanos / 1000.0 / measured, totalBytes / measured));
+        }
+    }
+
+    // parar el bucle
+    void stop() {
+        try {
+            loop.shutdownNow();
+            loop.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
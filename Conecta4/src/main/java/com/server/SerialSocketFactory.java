@@ -0,0 +1,97 @@
+package com.server;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketListener;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.server.DefaultWebSocketServerFactory;
+
+/**
+ * Connexions que envien d'una en una: cada enviament comprimeix i encua el frame sense
+ * que un altre fil s'hi pugui posar al mig.
+ *
+ * {@link WebSocketImpl} crea el frame (i hi aplica l'extensió) fora del seu bloqueig i
+ * només encua amb el bloqueig. Amb {@link com.shared.DeflateExtension} el context del
+ * zlib és de la connexió i la sala, el vestíbul i els fils del WebSocket hi poden enviar
+ * alhora; sense aquest bloqueig es barrejaria el diccionari o s'encuarien els frames en
+ * un ordre diferent del que s'han comprimit.
+ *
+ * El bloqueig és un objecte propi i no el monitor de la connexió, que Java-WebSocket té
+ * agafat mentre avisa del tancament: qui envia amb un altre monitor agafat (el del
+ * vestíbul, per exemple) no pot quedar creuat amb un {@code onClose}.
+ */
+final class SerialSocketFactory extends DefaultWebSocketServerFactory {
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, Draft d) {
+        return new SerialSocket(a, d);
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter a, List<Draft> d) {
+        return new SerialSocket(a, d);
+    }
+
+    private static final class SerialSocket extends WebSocketImpl {
+
+        // un cerrojo propio: WebSocketImpl se bloquea a si mismo en closeConnection mientras
+        // llama a onClose, y alli se toman los monitores del vestibulo y de las salas
+        private final Object sendLock = new Object();
+
+        SerialSocket(WebSocketListener listener, Draft draft) {
+            super(listener, draft);
+        }
+
+        SerialSocket(WebSocketListener listener, List<Draft> drafts) {
+            super(listener, drafts);
+        }
+
+        @Override
+        public void send(String text) {
+            synchronized (sendLock) {
+                super.send(text);
+            }
+        }
+
+        @Override
+        public void send(ByteBuffer bytes) {
+            synchronized (sendLock) {
+                super.send(bytes);
+            }
+        }
+
+        @Override
+        public void send(byte[] bytes) {
+            synchronized (sendLock) {
+                super.send(bytes);
+            }
+        }
+
+        @Override
+        public void sendFrame(Framedata framedata) {
+            synchronized (sendLock) {
+                super.sendFrame(framedata);
+            }
+        }
+
+        @Override
+        public void sendFrame(Collection<Framedata> frames) {
+            synchronized (sendLock) {
+                super.sendFrame(frames);
+            }
+        }
+
+        @Override
+        public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) {
+            synchronized (sendLock) {
+                super.sendFragmentedFrame(op, buffer, fin);
+            }
+        }
+    }
+}
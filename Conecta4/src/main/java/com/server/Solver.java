@@ -0,0 +1,465 @@
+package com.server;
+
+import java.util.Arrays;
+
+/**
+ * Cercador de jugades de Connecta 4: negamax amb poda alfa-beta sobre bitboards.
+ *
+ * Les posicions són dos {@code long} amb la mateixa disposició que {@link Bitboard}:
+ * {@code current} (fitxes del jugador que mou) i {@code mask} (totes les fitxes). Jugar
+ * és {@code current ^ mask} i {@code mask | bit}, així que la cerca no crea objectes.
+ *
+ * La cerca és per aprofundiment iteratiu fins a la profunditat que es demana o fins
+ * que s'acaba el temps; quan s'acaba el temps es queda la millor jugada de l'última
+ * iteració completa. Sense límit de profunditat juga perfecte. Per ordenar les jugades
+ * fa servir primer la millor jugada guardada a la taula de transposicions, després les
+ * que creen més amenaces i, a igualtat, les més centrals. Les posicions que no es poden
+ * resoldre a la profunditat demanada es valoren per amenaces i control del centre.
+ *
+ * La taula de transposicions té mida fixa (potència de dos) i cada entrada guarda la
+ * clau exacta de la posició, així que no hi ha col·lisions falses. Una entrada només
+ * talla la cerca a la mateixa profunditat amb què es va guardar; així el valor d'una
+ * posició a una profunditat donada no depèn del que hi hagi a la taula, i el resultat
+ * és el mateix tant si la cerca és seqüencial com si és en paral·lel
+ * ({@link ParallelSearch}). Cada instància té la seva taula i no és segura per a
+ * diversos fils.
+ */
+final class Solver {
+
+    /** Profunditat màxima (tauler ple). */
+    static final int MAX_DEPTH = Bitboard.ROWS * Bitboard.COLS;
+
+    /** Valor d'una victòria; es resta el nombre de fitxes per preferir guanyar abans. */
+    static final int WIN = 1000;
+
+    static final int INF = WIN + 1;
+
+    private static final int ROWS = Bitboard.ROWS;
+    private static final int COLS = Bitboard.COLS;
+    private static final int H1 = ROWS + 1;
+
+    /** Columnes del centre cap als costats. */
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+
+    private static final long BOTTOM = bottomMask();
+    private static final long BOARD = BOTTOM * ((1L << ROWS) - 1);
+    private static final long CENTER = columnMask(COLS / 2);
+
+    // tipos de cota de la tabla
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+
+    // cada cuantos nodos se mira el reloj
+    private static final long CLOCK_MASK = 4095;
+
+    /** Claus de la taula de transposicions (0 = buida). */
+    private final long[] keys;
+
+    /** Valor, profunditat, tipus de cota i millor columna de cada entrada. */
+    private final int[] entries;
+
+    private final int shift;
+
+    // columnas ordenadas de cada nivel (por numero de fichas), se reutilizan
+    private final int[][] orderCols = new int[MAX_DEPTH + 1][COLS];
+    private final int[][] orderScores = new int[MAX_DEPTH + 1][COLS];
+
+    private long nodes;
+    private long deadline;
+    private boolean checkClock;
+    private boolean timedOut;
+
+    private int lastDepth;
+    private int lastScore;
+
+    /**
+     * Crea un cercador amb una taula de transposicions de {@code 2^tableBits} entrades
+     * (12 bytes per entrada).
+     *
+     * @param tableBits mida de la taula en bits
+     */
+    Solver(int tableBits) {
+        int bits = Math.max(4, Math.min(28, tableBits));
+        this.keys = new long[1 << bits];
+        this.entries = new int[1 << bits];
+        this.shift = 64 - bits;
+    }
+
+    /**
+     * Busca la millor columna per al jugador que mou.
+     *
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @param maxDepth profunditat màxima en jugades ({@link #MAX_DEPTH} per jugar perfecte)
+     * @param budgetNanos temps màxim; la primera iteració sempre s'acaba
+     * @return columna on jugar, o -1 si el tauler és ple
+     */
+    int bestMove(long current, long mask, int maxDepth, long budgetNanos) {
+        nodes = 0;
+        timedOut = false;
+        checkClock = false;
+        deadline = System.nanoTime() + budgetNanos;
+        lastDepth = 0;
+        lastScore = 0;
+
+        int moves = Long.bitCount(mask);
+        long possible = possible(mask);
+        if (possible == 0) {
+            return -1;
+        }
+
+        // si se puede ganar ya, no hace falta buscar
+        long win = winning(current, mask) & possible;
+        if (win != 0) {
+            lastScore = WIN - (moves + 1);
+            return columnOf(win);
+        }
+
+        // si todas pierden, cualquiera; si solo una no pierde, esa
+        long next = nonLosing(current, mask);
+        if (next == 0) {
+            lastScore = -(WIN - (moves + 2));
+            return centerMost(possible);
+        }
+        if ((next & (next - 1)) == 0) {
+            return columnOf(next);
+        }
+
+        int best = centerMost(next);
+        int depthLimit = Math.min(Math.max(1, maxDepth), MAX_DEPTH - moves);
+        for (int depth = 1; depth <= depthLimit; depth++) {
+            checkClock = depth > 1;
+            int[] cols = orderCols[moves];
+            int count = orderMoves(current, mask, next, best, cols, orderScores[moves]);
+
+            int alpha = -INF;
+            int bestThis = -1;
+            for (int i = 0; i < count; i++) {
+                int col = cols[i];
+                long move = next & columnMask(col);
+                int score = -negamax(current ^ mask, mask | move, moves + 1, depth - 1, -INF, -alpha);
+                if (timedOut) {
+                    break;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    bestThis = col;
+                }
+            }
+            if (timedOut) {
+                break;
+            }
+            best = bestThis;
+            lastDepth = depth;
+            lastScore = alpha;
+
+            // ya se sabe quien gana
+            if (Math.abs(alpha) > WIN - MAX_DEPTH - 1) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Profunditat de l'última iteració completa de {@link #bestMove}. */
+    int lastDepth() {
+        return lastDepth;
+    }
+
+    /** Valor de la jugada triada per {@link #bestMove} (positiu si guanya el que mou). */
+    int lastScore() {
+        return lastScore;
+    }
+
+    /** Nodes visitats a l'última cerca. */
+    long nodes() {
+        return nodes;
+    }
+
+    /**
+     * Valor exacte d'una posició amb joc perfecte dels dos jugadors, sense límit de
+     * profunditat ni de temps. Va estrenyent l'interval del valor amb cerques de
+     * finestra nul·la, que aprofiten la taula de transposicions entre elles.
+     *
+     * @param current fitxes del jugador que mou
+     * @param mask totes les fitxes
+     * @return {@code WIN - n} si el que mou guanya amb la fitxa número n, {@code -(WIN - n)}
+     *         si perd quan el rival posa la fitxa número n, o 0 si és empat
+     */
+    int solve(long current, long mask) {
+        nodes = 0;
+        timedOut = false;
+        checkClock = false;
+        int moves = Long.bitCount(mask);
+        long possible = possible(mask);
+        if (possible == 0) {
+            return 0;
+        }
+        if ((winning(current, mask) & possible) != 0) {
+            return WIN - (moves + 1);
+        }
+
+        int depth = MAX_DEPTH - moves;
+        int lo = -(WIN - (moves + 2));
+        int hi = WIN - (moves + 3);
+        while (lo < hi) {
+            // primero se prueba cerca de 0 (tablas), que es lo mas frecuente
+            int med = lo + (hi - lo) / 2;
+            if (med <= 0 && lo / 2 < med) {
+                med = lo / 2;
+            } else if (med >= 0 && hi / 2 > med) {
+                med = hi / 2;
+            }
+            int r = negamax(current, mask, moves, depth, med, med + 1);
+            if (r <= med) {
+                hi = r;
+            } else {
+                lo = r;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Valor d'una posició per al jugador que mou, amb la finestra alfa-beta donada.
+     * El jugador que mou no pot guanyar amb la primera jugada. Es fa servir per
+     * repartir les jugades de l'arrel entre diversos fils.
+     *
+     * @param deadline límit de temps (System.nanoTime); si s'hi arriba el valor no serveix
+     * @return valor de la posició (exacte si queda dins de la finestra)
+     */
+    int search(long current, long mask, int depth, int alpha, int beta, long deadline) {
+        nodes = 0;
+        timedOut = false;
+        checkClock = true;
+        this.deadline = deadline;
+        return negamax(current, mask, Long.bitCount(mask), depth, alpha, beta);
+    }
+
+    /** Indica si l'última cerca s'ha aturat per temps. */
+    boolean timedOut() {
+        return timedOut;
+    }
+
+    /** Buida la taula de transposicions. */
+    void clear() {
+        Arrays.fill(keys, 0L);
+    }
+
+    // ----------------- busqueda -----------------
+
+    // el jugador que mueve no puede ganar en esta jugada (lo comprueba quien llama)
+    private int negamax(long current, long mask, int moves, int depth, int alpha, int beta) {
+        nodes++;
+        if (checkClock && (nodes & CLOCK_MASK) == 0 && System.nanoTime() > deadline) {
+            timedOut = true;
+        }
+        if (timedOut) {
+            return 0;
+        }
+
+        long next = nonLosing(current, mask);
+        if (next == 0) {
+            // el rival gana en su siguiente jugada
+            return -(WIN - (moves + 2));
+        }
+        if (moves >= MAX_DEPTH - 2) {
+            return 0;
+        }
+        if (depth <= 0) {
+            return evaluate(current, mask);
+        }
+
+        // como mucho se gana en la siguiente jugada propia
+        int max = WIN - (moves + 3);
+        if (beta > max) {
+            beta = max;
+            if (alpha >= beta) {
+                return beta;
+            }
+        }
+
+        long key = current + mask;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        int ttMove = -1;
+        if (keys[slot] == key) {
+            int e = entries[slot];
+            ttMove = ((e >>> 20) & 0xF) - 1;
+            if (((e >>> 12) & 0x3F) == depth) {
+                int value = (e & 0xFFF) - 2048;
+                int flag = (e >>> 18) & 0x3;
+                if (flag == EXACT) {
+                    return value;
+                }
+                if (flag == LOWER) {
+                    alpha = Math.max(alpha, value);
+                } else {
+                    beta = Math.min(beta, value);
+                }
+                if (alpha >= beta) {
+                    return value;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int[] cols = orderCols[moves];
+        int count = orderMoves(current, mask, next, ttMove, cols, orderScores[moves]);
+        int best = -INF;
+        int bestCol = -1;
+        for (int i = 0; i < count; i++) {
+            int col = cols[i];
+            int score = -negamax(current ^ mask, mask | (next & columnMask(col)), moves + 1, depth - 1, -beta, -alpha);
+            if (score > best) {
+                best = score;
+                bestCol = col;
+            }
+            if (score > alpha) {
+                alpha = score;
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+
+        if (!timedOut) {
+            int flag = best <= alphaOrig ? UPPER : best >= beta ? LOWER : EXACT;
+            keys[slot] = key;
+            entries[slot] = (best + 2048) | (Math.min(depth, 63) << 12) | (flag << 18) | ((bestCol + 1) << 20);
+        }
+        return best;
+    }
+
+    // ordenar las jugadas posibles: primero first, luego las que crean mas amenazas y
+    // luego las del centro; devuelve cuantas hay
+    static int orderMoves(long current, long mask, long next, int first, int[] cols, int[] scores) {
+        int count = 0;
+        for (int col : ORDER) {
+            long move = next & columnMask(col);
+            if (move == 0) {
+                continue;
+            }
+            int score = col == first ? Integer.MAX_VALUE : Long.bitCount(winning(current | move, mask));
+            // insercion: los empates quedan en el orden del centro hacia fuera
+            int i = count++;
+            while (i > 0 && scores[i - 1] < score) {
+                cols[i] = cols[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            cols[i] = col;
+            scores[i] = score;
+        }
+        return count;
+    }
+
+    // valoracion de una posicion sin resolver: amenazas y fichas en el centro
+    private static int evaluate(long current, long mask) {
+        long opponent = current ^ mask;
+        int threats = Long.bitCount(winning(current, mask)) - Long.bitCount(winning(opponent, mask));
+        int center = Long.bitCount(current & CENTER) - Long.bitCount(opponent & CENTER);
+        return threats * 4 + center * 2;
+    }
+
+    // ----------------- bitboards -----------------
+
+    /**
+     * Jugada immediata sense cercar: guanyar si es pot, si no la més central que no
+     * deixi guanyar el rival. Per quan no hi ha temps de pensar.
+     *
+     * @return columna on jugar, o -1 si el tauler és ple
+     */
+    static int immediateMove(long current, long mask) {
+        long possible = possible(mask);
+        if (possible == 0) {
+            return -1;
+        }
+        long win = winning(current, mask) & possible;
+        if (win != 0) {
+            return columnOf(win);
+        }
+        long next = nonLosing(current, mask);
+        return centerMost(next != 0 ? next : possible);
+    }
+
+    // casillas donde se puede poner ficha ahora mismo
+    static long possible(long mask) {
+        return (mask + BOTTOM) & BOARD;
+    }
+
+    // jugadas que no dejan ganar al rival en su turno (0 si todas pierden)
+    static long nonLosing(long current, long mask) {
+        long possible = possible(mask);
+        long opponentWin = winning(current ^ mask, mask);
+        long forced = possible & opponentWin;
+        if (forced != 0) {
+            if ((forced & (forced - 1)) != 0) {
+                // dos amenazas a la vez: no se pueden tapar las dos
+                return 0;
+            }
+            possible = forced;
+        }
+        // no jugar justo debajo de una casilla ganadora del rival
+        return possible & ~(opponentWin >> 1);
+    }
+
+    // casillas vacias que harian cuatro en linea para las fichas de position
+    static long winning(long position, long mask) {
+        // vertical
+        long r = (position << 1) & (position << 2) & (position << 3);
+
+        // horizontal
+        long p = (position << H1) & (position << 2 * H1);
+        r |= p & (position << 3 * H1);
+        r |= p & (position >> H1);
+        p = (position >> H1) & (position >> 2 * H1);
+        r |= p & (position << H1);
+        r |= p & (position >> 3 * H1);
+
+        // diagonal descendente
+        p = (position << ROWS) & (position << 2 * ROWS);
+        r |= p & (position << 3 * ROWS);
+        r |= p & (position >> ROWS);
+        p = (position >> ROWS) & (position >> 2 * ROWS);
+        r |= p & (position << ROWS);
+        r |= p & (position >> 3 * ROWS);
+
+        // diagonal ascendente
+        p = (position << (ROWS + 2)) & (position << 2 * (ROWS + 2));
+        r |= p & (position << 3 * (ROWS + 2));
+        r |= p & (position >> (ROWS + 2));
+        p = (position >> (ROWS + 2)) & (position >> 2 * (ROWS + 2));
+        r |= p & (position << (ROWS + 2));
+        r |= p & (position >> 3 * (ROWS + 2));
+
+        return r & (BOARD ^ mask);
+    }
+
+    static long columnMask(int col) {
+        return ((1L << ROWS) - 1) << (col * H1);
+    }
+
+    // columna de la casilla mas baja de un conjunto
+    static int columnOf(long cells) {
+        return Long.numberOfTrailingZeros(cells) / H1;
+    }
+
+    // la columna mas central de un conjunto de jugadas
+    static int centerMost(long moves) {
+        for (int col : ORDER) {
+            if ((moves & columnMask(col)) != 0) {
+                return col;
+            }
+        }
+        return -1;
+    }
+
+    private static long bottomMask() {
+        long m = 0;
+        for (int c = 0; c < COLS; c++) {
+            m |= 1L << (c * H1);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,171 @@
+package com.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.shared.ClientData;
+import com.shared.GameObject;
+import com.shared.ServerUpdate;
+
+/**
+ * Seguiment de canvis de l'estat del joc entre ticks.
+ *
+ * Guarda una còpia del que s'ha enviat a l'últim tick (clients, fitxes, torn,
+ * puntuació i guanyadors) i, a cada tick, només retorna els camps que han canviat,
+ * indexats per nom de client o id de fitxa. Si no ha canviat res, el delta és buit
+ * i no cal enviar-lo.
+ *
+ * El tauler no s'envia als clients: qualsevol jugada mou una fitxa, així que els
+ * canvis del tauler ja queden reflectits a les fitxes.
+ *
+ * No és segura per a ús concurrent; només la crida el fil de la sala. Les còpies
+ * enviades no es modifiquen mai (cada canvi en fa una de nova), per això l'estat
+ * complet ({@link #keyframe()}) les pot compartir sense tornar-les a copiar.
+ *
+ * Sense cursors (per als espectadors), la posició del ratolí dels clients s'envia
+ * sempre a -1 i moure el ratolí no és cap canvi.
+ */
+final class StateTracker {
+
+    /** Si s'envia la posició del ratolí dels clients. */
+    private final boolean cursors;
+
+    /** Còpia dels clients tal com es van enviar a l'últim tick, en ordre d'arribada. */
+    private final Map<String, ClientData> sentClients = new LinkedHashMap<>();
+
+    /** Còpia de les fitxes tal com es van enviar a l'últim tick, sempre en el mateix ordre. */
+    private final Map<String, GameObject> sentObjects = new LinkedHashMap<>();
+
+    private String sentTurn = null;
+    private int sentScoreR = -1;
+    private int sentScoreY = -1;
+    private String sentRoundWinner = null;
+    private String sentGameWinner = null;
+
+    /** Delta que es torna a cada tick (es reutilitza per no crear-ne un de nou). */
+    private final ServerUpdate delta = new ServerUpdate(false);
+
+    StateTracker() {
+        this(true);
+    }
+
+    /**
+     * @param cursors false per no seguir la posició del ratolí dels clients
+     */
+    StateTracker(boolean cursors) {
+        this.cursors = cursors;
+    }
+
+    /**
+     * Calcula els canvis respecte a l'últim tick i actualitza la còpia enviada.
+     *
+     * @return delta amb només els camps modificats (buit si no ha canviat res); és vàlid
+     *         fins a la següent crida
+     */
+    ServerUpdate diff(Map<String, ClientData> clientsData, Map<String, GameObject> gameObjects,
+                      String currentTurn, int scoreR, int scoreY, String roundWinner, String gameWinner) {
+        delta.clear();
+
+        for (Map.Entry<String, ClientData> e : clientsData.entrySet()) {
+            ClientData sent = sentClients.get(e.getKey());
+            if (sent == null || !sameClient(sent, e.getValue())) {
+                ClientData copy = copyOf(e.getValue());
+                sentClients.put(e.getKey(), copy);
+                delta.clients.add(copy);
+            }
+        }
+        Iterator<String> it = sentClients.keySet().iterator();
+        while (it.hasNext()) {
+            String name = it.next();
+            if (!clientsData.containsKey(name)) {
+                it.remove();
+                delta.removedClients.add(name);
+            }
+        }
+
+        for (Map.Entry<String, GameObject> e : gameObjects.entrySet()) {
+            GameObject sent = sentObjects.get(e.getKey());
+            if (sent == null || !sameObject(sent, e.getValue())) {
+                GameObject copy = copyOf(e.getValue());
+                sentObjects.put(e.getKey(), copy);
+                delta.objects.add(copy);
+            }
+        }
+
+        if (!Objects.equals(sentTurn, currentTurn)) {
+            sentTurn = currentTurn;
+            delta.currentTurn = currentTurn;
+        }
+        if (sentScoreR != scoreR) {
+            sentScoreR = scoreR;
+            delta.scoreR = scoreR;
+        }
+        if (sentScoreY != scoreY) {
+            sentScoreY = scoreY;
+            delta.scoreY = scoreY;
+        }
+
+        String rw = roundWinner == null ? "" : roundWinner;
+        if (!rw.equals(sentRoundWinner)) {
+            sentRoundWinner = rw;
+            delta.roundWinner = rw;
+        }
+        String gw = gameWinner == null ? "" : gameWinner;
+        if (!gw.equals(sentGameWinner)) {
+            sentGameWinner = gw;
+            delta.gameWinner = gw;
+        }
+        return delta;
+    }
+
+    /**
+     * Estat complet amb el que s'ha enviat fins ara, per a les connexions noves (cal
+     * cridar-lo després de {@link #diff}). Comparteix les còpies enviades, que no es
+     * modifiquen, així que no s'han de tocar.
+     *
+     * @return keyframe amb els clients i les fitxes en el mateix ordre de sempre
+     */
+    ServerUpdate keyframe() {
+        ServerUpdate full = new ServerUpdate(true);
+        full.clients = new ArrayList<>(sentClients.values());
+        full.objects = new ArrayList<>(sentObjects.values());
+        full.currentTurn = sentTurn;
+        full.scoreR = sentScoreR;
+        full.scoreY = sentScoreY;
+        full.roundWinner = sentRoundWinner;
+        full.gameWinner = sentGameWinner;
+        return full;
+    }
+
+    private boolean sameClient(ClientData a, ClientData b) {
+        return Objects.equals(a.name, b.name)
+            && (!cursors || (a.mouseX == b.mouseX
+                && a.mouseY == b.mouseY
+                && a.row == b.row
+                && a.col == b.col))
+            && Objects.equals(a.role, b.role)
+            && Objects.equals(a.color, b.color);
+    }
+
+    private static boolean sameObject(GameObject a, GameObject b) {
+        return a.x == b.x
+            && a.y == b.y
+            && a.col == b.col
+            && a.row == b.row;
+    }
+
+    private ClientData copyOf(ClientData c) {
+        ClientData copy = cursors
+            ? new ClientData(c.name, c.color, c.mouseX, c.mouseY, c.row, c.col)
+            : new ClientData(c.name, c.color);
+        copy.role = c.role;
+        return copy;
+    }
+
+    private static GameObject copyOf(GameObject o) {
+        return new GameObject(o.id, o.x, o.y, o.col, o.row);
+    }
+}
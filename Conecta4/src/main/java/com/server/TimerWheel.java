@@ -0,0 +1,242 @@
+package com.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Temporitzador compartit per totes les sales (roda de temps amb hash).
+ *
+ * La roda té {@code wheelSize} caselles i avança una casella cada {@code tickMillis}.
+ * Cada temporitzador pendent és un node d'una llista doblement enllaçada dins de la
+ * casella on vencerà, amb el nombre de voltes que li falten. Programar i cancel·lar és
+ * O(1) i cada temporitzador ocupa sempre la mateixa memòria, tant si són deu com
+ * milers. Un sol fil fa girar la roda, en lloc d'un fil adormit per cada compte enrere.
+ *
+ * Les altes i les cancel·lacions que arriben d'altres fils passen per cues sense
+ * bloqueig i el fil de la roda les aplica a cada pas. Les tasques s'executen al fil de
+ * la roda, així que han de ser curtes: normalment només envien feina al fil de la sala.
+ *
+ * La precisió és d'un pas de roda ({@code tickMillis}), més que suficient per a comptes
+ * enrere i rellotges de torn.
+ */
+final class TimerWheel {
+
+    private static final int ST_PENDING = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    /**
+     * Un temporitzador programat. Es pot cancel·lar des de qualsevol fil.
+     */
+    static final class Timeout {
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+
+        /** Pas de la roda en què venç. */
+        private final long deadlineTick;
+
+        /** Voltes senceres que falten (només el fil de la roda). */
+        private long remainingRounds;
+
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+
+        // llista de la casella (solo el hilo de la rueda)
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancel·la el temporitzador si encara no ha vençut.
+         *
+         * @return true si s'ha cancel·lat, false si ja havia vençut o s'havia cancel·lat
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+    }
+
+    /** Una casella de la roda: llista doblement enllaçada de temporitzadors. */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = t;
+                tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                head = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            } else {
+                tail = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        /** Executa els temporitzadors d'aquesta volta i descompta una volta a la resta. */
+        void expire() {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.remainingRounds <= 0) {
+                    remove(t);
+                    if (t.state.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                        try {
+                            t.task.run();
+                        } catch (Exception e) {
+                            // una tarea erronea no puede parar la rueda
+                        }
+                    }
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    /** Altes pendents d'afegir a la roda. */
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    /** Cancel·lacions pendents de treure de la roda. */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean running = true;
+
+    /** Pas actual de la roda (només el fil de la roda). */
+    private long tick = 0;
+
+    /**
+     * Crea la roda i arrenca el seu fil.
+     *
+     * @param tickMillis durada d'un pas
+     * @param wheelSize nombre de caselles (s'arrodoneix a potència de dos)
+     */
+    TimerWheel(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, "TimerWheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Programa una tasca. Es pot cridar des de qualsevol fil.
+     *
+     * @param task tasca curta que s'executarà al fil de la roda
+     * @param delay temps d'espera
+     * @param unit unitat del temps d'espera
+     * @return el temporitzador, per poder-lo cancel·lar
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long elapsed = System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay));
+        // arrodonir cap amunt: mai abans d'hora
+        long deadlineTick = (elapsed + tickNanos - 1) / tickNanos;
+        Timeout t = new Timeout(this, task, deadlineTick);
+        added.add(t);
+        return t;
+    }
+
+    // el hilo de la rueda: avanzar una casilla en cada paso
+    private void run() {
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            tick++;
+            removeCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire();
+        }
+    }
+
+    // poner en su casilla los temporizadores nuevos
+    private void transferAdded() {
+        Timeout t;
+        while ((t = added.poll()) != null) {
+            if (t.state.get() != ST_PENDING) {
+                continue;
+            }
+            // si ya ha vencido, va a la casilla actual
+            long target = Math.max(t.deadlineTick, tick);
+            t.remainingRounds = (target - tick) / wheel.length;
+            wheel[(int) (target & mask)].add(t);
+        }
+    }
+
+    // sacar de la rueda los temporizadores cancelados
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    // parar la rueda (los temporizadores pendientes se descartan)
+    void stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
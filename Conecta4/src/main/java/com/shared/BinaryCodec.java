@@ -0,0 +1,365 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Codificació binària compacta dels missatges més freqüents.
+ *
+ * Es negocia al connectar amb el subprotocol WebSocket {@link #PROTOCOL}. Si el servidor
+ * o el client no el coneixen, la connexió continua amb JSON com fins ara.
+ *
+ * Format (big-endian), el primer byte és sempre el tipus:
+ * - Estat (keyframe o delta): flags, camps escalars presents, clients, clients eliminats i fitxes.
+ * - Moviment del ratolí: mouseX, mouseY, fila i columna.
+ * - Jugada: columna i id de la fitxa.
+ * - Fitxa arrossegada: id de la fitxa ({@link #NO_PIECE} si ja no se n'arrossega cap), x i y.
+ *   El mateix format en els dos sentits: el client l'envia i el servidor el passa al rival.
+ *
+ * Els enters van en varint amb zigzag (les coordenades caben en 2 bytes i el -1 en 1),
+ * els rols en 1 byte i els ids de fitxa ("R_05", "Y_12") com un enter.
+ * Els missatges poc freqüents (benvinguda, compte enrere, revenja...) continuen en JSON.
+ */
+public final class BinaryCodec {
+
+    /** Nom del subprotocol WebSocket que activa aquest format. */
+    public static final String PROTOCOL = "c4.bin";
+
+    // tipus de missatge
+    public static final byte T_KEYFRAME = 1;
+    public static final byte T_DELTA = 2;
+    public static final byte T_MOUSE = 10;
+    public static final byte T_PLAY = 11;
+    public static final byte T_PIECE_MOVING = 12;
+
+    /** Codi de fitxa quan no se n'arrossega cap. */
+    public static final int NO_PIECE = -1;
+
+    // camps escalars presents a l'estat
+    private static final int F_TURN = 1;
+    private static final int F_SCORE_R = 1 << 1;
+    private static final int F_SCORE_Y = 1 << 2;
+    private static final int F_ROUND_WINNER = 1 << 3;
+    private static final int F_GAME_WINNER = 1 << 4;
+
+    // ids de fitxa: les grogues comencen a partir d'aquest valor
+    private static final int PIECE_Y_BASE = 64;
+
+    // ids de fitxa ja creats, per codi: descodificar no crea cadenes
+    private static final String[] PIECE_IDS = new String[2 * PIECE_Y_BASE];
+
+    static {
+        for (int n = 0; n < PIECE_IDS.length; n++) {
+            char role = n >= PIECE_Y_BASE ? 'Y' : 'R';
+            int idx = n >= PIECE_Y_BASE ? n - PIECE_Y_BASE : n;
+            PIECE_IDS[n] = role + "_" + (idx < 10 ? "0" : "") + idx;
+        }
+    }
+
+    private BinaryCodec() {
+    }
+
+    /** Dades d'una jugada rebuda en binari. */
+    public static final class Play {
+        public int column;
+        public String pieceId;
+    }
+
+    // ----------------- estat del servidor -----------------
+
+    public static byte[] encodeUpdate(ServerUpdate su) {
+        Writer w = new Writer(64 + su.objects.size() * 6 + su.clients.size() * 24);
+        w.put(su.keyframe ? T_KEYFRAME : T_DELTA);
+
+        int flags = 0;
+        if (su.currentTurn != null) flags |= F_TURN;
+        if (su.scoreR >= 0) flags |= F_SCORE_R;
+        if (su.scoreY >= 0) flags |= F_SCORE_Y;
+        if (su.roundWinner != null) flags |= F_ROUND_WINNER;
+        if (su.gameWinner != null) flags |= F_GAME_WINNER;
+        w.put(flags);
+
+        if (su.currentTurn != null) w.put(roleToByte(su.currentTurn));
+        if (su.scoreR >= 0) w.varint(su.scoreR);
+        if (su.scoreY >= 0) w.varint(su.scoreY);
+        if (su.roundWinner != null) w.put(roleToByte(su.roundWinner));
+        if (su.gameWinner != null) w.put(roleToByte(su.gameWinner));
+
+        w.varint(su.clients.size());
+        for (ClientData c : su.clients) {
+            w.string(c.name);
+            w.string(c.color);
+            w.put(roleToByte(c.role));
+            w.zigzag(c.mouseX);
+            w.zigzag(c.mouseY);
+            w.zigzag(c.row);
+            w.zigzag(c.col);
+        }
+
+        w.varint(su.removedClients.size());
+        for (String name : su.removedClients) {
+            w.string(name);
+        }
+
+        // solo las fichas: otro id no tiene codigo y se confundiria con "R_00"
+        int pieces = 0;
+        for (GameObject o : su.objects) {
+            if (pieceCode(o.id) != NO_PIECE) {
+                pieces++;
+            }
+        }
+        w.varint(pieces);
+        for (GameObject o : su.objects) {
+            int code = pieceCode(o.id);
+            if (code == NO_PIECE) {
+                continue;
+            }
+            w.varint(code);
+            w.zigzag(o.x);
+            w.zigzag(o.y);
+            w.varint(o.col);
+            w.varint(o.row);
+        }
+        return w.toArray();
+    }
+
+    public static ServerUpdate decodeUpdate(ByteBuffer buf) {
+        byte type = buf.get();
+        ServerUpdate su = new ServerUpdate(type == T_KEYFRAME);
+
+        int flags = buf.get();
+        if ((flags & F_TURN) != 0) su.currentTurn = byteToRole(buf.get());
+        if ((flags & F_SCORE_R) != 0) su.scoreR = readVarint(buf);
+        if ((flags & F_SCORE_Y) != 0) su.scoreY = readVarint(buf);
+        if ((flags & F_ROUND_WINNER) != 0) su.roundWinner = byteToRole(buf.get());
+        if ((flags & F_GAME_WINNER) != 0) su.gameWinner = byteToRole(buf.get());
+
+        int clients = readVarint(buf);
+        for (int i = 0; i < clients; i++) {
+            String name = readString(buf);
+            String color = readString(buf);
+            String role = byteToRole(buf.get());
+            ClientData cd = new ClientData(name, color, readZigzag(buf), readZigzag(buf), readZigzag(buf), readZigzag(buf));
+            cd.role = role;
+            su.clients.add(cd);
+        }
+
+        int removed = readVarint(buf);
+        for (int i = 0; i < removed; i++) {
+            su.removedClients.add(readString(buf));
+        }
+
+        int objects = readVarint(buf);
+        for (int i = 0; i < objects; i++) {
+            String id = intToPiece(readVarint(buf));
+            int x = readZigzag(buf);
+            int y = readZigzag(buf);
+            int cols = readVarint(buf);
+            int rows = readVarint(buf);
+            su.objects.add(new GameObject(id, x, y, cols, rows));
+        }
+        return su;
+    }
+
+    // ----------------- missatges del client -----------------
+
+    public static byte[] encodeMouse(int mouseX, int mouseY, int row, int col) {
+        Writer w = new Writer(12);
+        w.put(T_MOUSE);
+        w.zigzag(mouseX);
+        w.zigzag(mouseY);
+        w.zigzag(row);
+        w.zigzag(col);
+        return w.toArray();
+    }
+
+    // llegeix el moviment del ratoli directament sobre les dades del client
+    public static void decodeMouse(ByteBuffer buf, ClientData into) {
+        buf.get();
+        into.mouseX = readZigzag(buf);
+        into.mouseY = readZigzag(buf);
+        into.row = readZigzag(buf);
+        into.col = readZigzag(buf);
+    }
+
+    // el mateix pero en un array (x, y, fila, columna), sense crear objectes
+    public static void decodeMouse(ByteBuffer buf, int[] into) {
+        buf.get();
+        into[0] = readZigzag(buf);
+        into[1] = readZigzag(buf);
+        into[2] = readZigzag(buf);
+        into[3] = readZigzag(buf);
+    }
+
+    public static byte[] encodePlay(int column, String pieceId) {
+        Writer w = new Writer(8);
+        w.put(T_PLAY);
+        w.zigzag(column);
+        // un id que no es de ficha viaja como -1 y se lee como ""
+        w.varint(pieceCode(pieceId));
+        return w.toArray();
+    }
+
+    public static Play decodePlay(ByteBuffer buf) {
+        buf.get();
+        Play play = new Play();
+        play.column = readZigzag(buf);
+        play.pieceId = intToPiece(readVarint(buf));
+        return play;
+    }
+
+    public static byte[] encodePieceMoving(int piece, int x, int y) {
+        Writer w = new Writer(8);
+        w.put(T_PIECE_MOVING);
+        w.zigzag(piece);
+        w.zigzag(x);
+        w.zigzag(y);
+        return w.toArray();
+    }
+
+    // llegeix la fitxa arrossegada en un array (codi, x, y), sense crear objectes
+    public static void decodePieceMoving(ByteBuffer buf, int[] into) {
+        buf.get();
+        into[0] = readZigzag(buf);
+        into[1] = readZigzag(buf);
+        into[2] = readZigzag(buf);
+    }
+
+    /** Tipus del missatge sense avançar la posició del buffer. */
+    public static byte peekType(ByteBuffer buf) {
+        return buf.get(buf.position());
+    }
+
+    // ----------------- conversions -----------------
+
+    private static int roleToByte(String role) {
+        if ("R".equals(role)) return 1;
+        if ("Y".equals(role)) return 2;
+        if (ServerUpdate.DRAW.equals(role)) return 3;
+        return 0;
+    }
+
+    private static String byteToRole(byte b) {
+        if (b == 1) return "R";
+        if (b == 2) return "Y";
+        if (b == 3) return ServerUpdate.DRAW;
+        return "";
+    }
+
+    /**
+     * Codi d'un id de fitxa: "R_05" és 5 i "Y_05" és 69.
+     *
+     * @return el codi, o {@link #NO_PIECE} si no és un id de fitxa
+     */
+    public static int pieceCode(String id) {
+        return id == null ? NO_PIECE : pieceCode(id, 0, id.length());
+    }
+
+    /** El mateix sobre un tros de text, sense crear cap cadena. */
+    public static int pieceCode(CharSequence s, int start, int len) {
+        if (len < 3 || len > 4 || s.charAt(start + 1) != '_') {
+            return NO_PIECE;
+        }
+        char role = s.charAt(start);
+        if (role != 'R' && role != 'Y') {
+            return NO_PIECE;
+        }
+        int n = 0;
+        for (int i = start + 2; i < start + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_PIECE;
+            }
+            n = n * 10 + (c - '0');
+        }
+        if (n >= PIECE_Y_BASE) {
+            return NO_PIECE;
+        }
+        return role == 'Y' ? PIECE_Y_BASE + n : n;
+    }
+
+    /** Id de la fitxa d'un codi, o null si no n'és cap ({@link #NO_PIECE}). */
+    public static String pieceId(int code) {
+        return code >= 0 && code < PIECE_IDS.length ? PIECE_IDS[code] : null;
+    }
+
+    // un codigo que no es de ninguna ficha no puede coincidir con una que exista
+    private static String intToPiece(int n) {
+        String id = pieceId(n);
+        return id != null ? id : "";
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int readZigzag(ByteBuffer buf) {
+        int v = readVarint(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = readVarint(buf);
+        if (len == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len - 1];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // buffer que creix segons cal
+    private static final class Writer {
+        private byte[] data;
+        private int size;
+
+        Writer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void put(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = (byte) b;
+        }
+
+        void varint(int v) {
+            while ((v & ~0x7F) != 0) {
+                put((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            put(v);
+        }
+
+        void zigzag(int v) {
+            varint((v << 1) ^ (v >> 31));
+        }
+
+        // longitud + 1 (el 0 indica null) i bytes UTF-8
+        void string(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1);
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
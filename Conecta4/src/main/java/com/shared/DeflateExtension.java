@@ -0,0 +1,315 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.CompressionExtension;
+import org.java_websocket.extensions.ExtensionRequestData;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+
+/**
+ * Compressió {@code permessage-deflate} (RFC 7692) per al servidor i el client.
+ *
+ * La de Java-WebSocket 1.5.3 no serveix: el servidor sempre reinicia el context a cada
+ * missatge, en copiar-se per a cada connexió perd el llindar i comprimeix tot l'array del
+ * buffer en lloc del que hi ha entre la posició i el límit. Aquesta:
+ * - Només comprimeix els missatges d'almenys {@code c4.deflateThreshold} bytes; els
+ *   petits (el ratolí) surten tal qual i no toquen el context.
+ * - Amb {@code c4.deflateContextTakeover} manté el diccionari entre missatges, així un
+ *   estat que s'assembla a l'anterior ocupa molt poc. Costa uns 256 KB de memòria nativa
+ *   per connexió (el del zlib); sense, es reinicia a cada missatge.
+ * - El zlib de cada sentit es crea amb el primer missatge que el fa servir i s'allibera
+ *   en tancar la connexió ({@link #reset()}): les còpies de la negociació i les
+ *   connexions que només envien missatges petits no en reserven.
+ * - {@code c4.deflateLevel} és el nivell del zlib (1 el més ràpid, 9 el més petit).
+ *
+ * Els valors per defecte (context, nivell 1, llindar de 64 bytes) surten de
+ * {@code DeflateBenchmark}: amb context, un delta JSON queda en una desena part per uns
+ * 2 µs i un estat complet JSON en una dissetena part; sense context, un delta gairebé no
+ * es redueix i costa cinc vegades més, perquè reiniciar el zlib és car.
+ *
+ * El context és de cada connexió: el frame comprimit no es pot compartir entre
+ * connexions ni enviar des de dos fils alhora (vegeu {@link #isActive(WebSocket)}).
+ * Els missatges fragmentats no es comprimeixen.
+ */
+public final class DeflateExtension extends CompressionExtension {
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("c4.deflate", "true"));
+    public static final boolean CONTEXT_TAKEOVER =
+            Boolean.parseBoolean(System.getProperty("c4.deflateContextTakeover", "true"));
+    // con contexto hasta un delta de raton en JSON baja a una decima parte; sin el, lo
+    // pequeño casi no se comprime y solo vale la pena con los estados completos
+    public static final int THRESHOLD = Integer.getInteger("c4.deflateThreshold", CONTEXT_TAKEOVER ? 64 : 512);
+    public static final int LEVEL = Integer.getInteger("c4.deflateLevel", Deflater.BEST_SPEED);
+
+    /** Bytes abans i després de comprimir, de tots els missatges comprimits. */
+    public static final LongAdder RAW_BYTES = new LongAdder();
+    public static final LongAdder DEFLATED_BYTES = new LongAdder();
+
+    private static final String NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    // lo que SYNC_FLUSH deja al final de cada mensaje y no viaja
+    private static final byte[] TAIL = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+    // un mensaje descomprimido no puede pasar de aqui (bombas de zip)
+    private static final int MAX_INFLATED = 1 << 20;
+
+    private final int threshold;
+    private final boolean contextTakeover;
+    private final int level;
+
+    // lo negociado: si cada lado mantiene el contexto entre mensajes
+    private boolean deflateTakeover;
+    private boolean inflateTakeover;
+
+    // se crean con el primer mensaje que los necesita y se liberan en reset()
+    private Deflater deflater;
+    private Inflater inflater;
+    // cada sentido tiene su buffer: se envia y se recibe desde hilos distintos
+    private byte[] deflated = new byte[1024];
+    private byte[] inflated = new byte[1024];
+    private boolean inflating = false;
+
+    public DeflateExtension(int threshold, boolean contextTakeover, int level) {
+        this.threshold = threshold;
+        this.contextTakeover = contextTakeover;
+        this.level = level;
+        this.deflateTakeover = contextTakeover;
+        this.inflateTakeover = contextTakeover;
+    }
+
+    /** Les extensions per al {@link Draft_6455} segons les propietats {@code c4.deflate*}. */
+    public static List<IExtension> fromProperties() {
+        if (!ENABLED) {
+            return List.of();
+        }
+        return List.of(new DeflateExtension(THRESHOLD, CONTEXT_TAKEOVER, LEVEL));
+    }
+
+    /** Si la connexió ha negociat aquesta compressió. */
+    public static boolean isActive(WebSocket conn) {
+        Draft draft = conn.getDraft();
+        return draft instanceof Draft_6455 && ((Draft_6455) draft).getExtension() instanceof DeflateExtension;
+    }
+
+    // ----------------- frames -----------------
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        // solo mensajes enteros de texto o binario, y no los pequeños
+        if (!(inputFrame instanceof DataFrame) || inputFrame.getOpcode() == Opcode.CONTINUOUS
+                || !inputFrame.isFin()) {
+            return;
+        }
+        ByteBuffer payload = inputFrame.getPayloadData();
+        int length = payload.remaining();
+        if (length < threshold) {
+            return;
+        }
+
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        deflater.setInput(payload.duplicate());
+        int count = 0;
+        do {
+            if (count == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            count += deflater.deflate(deflated, count, deflated.length - count, Deflater.SYNC_FLUSH);
+        } while (count == deflated.length);
+        if (!deflateTakeover) {
+            deflater.reset();
+        }
+        if (endsWithTail(deflated, count)) {
+            count -= TAIL.length;
+        }
+
+        RAW_BYTES.add(length);
+        DEFLATED_BYTES.add(count);
+        DataFrame frame = (DataFrame) inputFrame;
+        frame.setPayload(ByteBuffer.wrap(Arrays.copyOf(deflated, count)));
+        frame.setRSV1(true);
+    }
+
+    @Override
+    public void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        if (!(inputFrame instanceof DataFrame)) {
+            return;
+        }
+        // el primer frame del mensaje dice si viene comprimido; los de continuacion no
+        if (inputFrame.getOpcode() != Opcode.CONTINUOUS) {
+            inflating = inputFrame.isRSV1();
+        }
+        if (!inflating) {
+            return;
+        }
+
+        int count = inflate(inputFrame.getPayloadData(), 0);
+        if (inputFrame.isFin()) {
+            count = inflate(ByteBuffer.wrap(TAIL), count);
+            inflating = false;
+            if (!inflateTakeover) {
+                inflater.reset();
+            }
+        }
+        FramedataImpl1 frame = (FramedataImpl1) inputFrame;
+        frame.setPayload(ByteBuffer.wrap(Arrays.copyOf(inflated, count)));
+        frame.setRSV1(false);
+    }
+
+    // descomprimir un trozo detras de lo que ya hay en inflated
+    private int inflate(ByteBuffer input, int count) throws InvalidDataException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.setInput(input);
+        try {
+            while (true) {
+                if (count == inflated.length) {
+                    if (inflated.length >= MAX_INFLATED) {
+                        throw new InvalidDataException(CloseFrame.TOOBIG, "inflated message too big");
+                    }
+                    inflated = Arrays.copyOf(inflated, inflated.length * 2);
+                }
+                int n = inflater.inflate(inflated, count, inflated.length - count);
+                count += n;
+                if (n == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    return count;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, e.getMessage());
+        }
+    }
+
+    private static boolean endsWithTail(byte[] data, int count) {
+        if (count < TAIL.length) {
+            return false;
+        }
+        for (int i = 0; i < TAIL.length; i++) {
+            if (data[count - TAIL.length + i] != TAIL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ----------------- negociacion -----------------
+
+    @Override
+    public String getProvidedExtensionAsClient() {
+        return contextTakeover ? NAME
+                : NAME + "; " + SERVER_NO_CONTEXT_TAKEOVER + "; " + CLIENT_NO_CONTEXT_TAKEOVER;
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+        for (String offer : inputExtension.split(",")) {
+            ExtensionRequestData request = ExtensionRequestData.parseExtensionRequest(offer);
+            if (!NAME.equalsIgnoreCase(request.getExtensionName())) {
+                continue;
+            }
+            Map<String, String> params = request.getExtensionParameters();
+            // el Deflater de Java siempre usa la ventana de 15 bits
+            String serverBits = params.get(SERVER_MAX_WINDOW_BITS);
+            if (serverBits != null && !serverBits.isEmpty() && !serverBits.equals("15")) {
+                continue;
+            }
+            deflateTakeover = contextTakeover && !params.containsKey(SERVER_NO_CONTEXT_TAKEOVER);
+            inflateTakeover = contextTakeover && !params.containsKey(CLIENT_NO_CONTEXT_TAKEOVER);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String getProvidedExtensionAsServer() {
+        StringBuilder sb = new StringBuilder(NAME);
+        if (!deflateTakeover) {
+            sb.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (!inflateTakeover) {
+            sb.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsClient(String inputExtension) {
+        for (String answer : inputExtension.split(",")) {
+            ExtensionRequestData response = ExtensionRequestData.parseExtensionRequest(answer);
+            if (!NAME.equalsIgnoreCase(response.getExtensionName())) {
+                continue;
+            }
+            Map<String, String> params = response.getExtensionParameters();
+            String clientBits = params.get(CLIENT_MAX_WINDOW_BITS);
+            if (clientBits != null && !clientBits.isEmpty() && !clientBits.equals("15")) {
+                return false;
+            }
+            deflateTakeover = contextTakeover && !params.containsKey(CLIENT_NO_CONTEXT_TAKEOVER);
+            inflateTakeover = !params.containsKey(SERVER_NO_CONTEXT_TAKEOVER);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new DeflateExtension(threshold, contextTakeover, level);
+    }
+
+    // se llama al cerrar la conexion: liberar la memoria nativa del zlib en vez de esperar
+    // al recolector; si la extension se vuelve a usar, se crean de nuevo
+    @Override
+    public void reset() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        inflating = false;
+        deflateTakeover = contextTakeover;
+        inflateTakeover = contextTakeover;
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateExtension";
+    }
+
+    // cada conexion tiene su contexto: WebSocketServer.broadcast reparte los mismos frames
+    // a los drafts iguales, y con la igualdad de DefaultExtension (por clase) compartirian
+    // un frame ya comprimido con el contexto de otra conexion
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
@@ -0,0 +1,420 @@
+package com.shared;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * Escriu un {@link ServerUpdate} en JSON (UTF-8) directament sobre un buffer reutilitzable.
+ *
+ * El resultat és idèntic byte a byte a {@code update.toJSON().toString()}, però sense
+ * crear cap {@link JSONObject}, mapa ni cadena intermèdia: un cop el buffer ha crescut
+ * prou, escriure un estat no reserva memòria.
+ *
+ * L'ordre de les claus de {@link JSONObject} depèn del seu {@code HashMap} intern; per
+ * mantenir-lo exacte, es calcula una sola vegada creant un {@link JSONObject} amb les
+ * mateixes claus i en el mateix ordre que els {@code toJSON()} de cada classe.
+ *
+ * No és segur per a ús concurrent: cada fil ha de tenir el seu.
+ */
+public final class JsonUpdateWriter {
+
+    // camps de ServerUpdate
+    private static final int U_TYPE = 0;
+    private static final int U_CLIENTS = 1;
+    private static final int U_REMOVED = 2;
+    private static final int U_OBJECTS = 3;
+    private static final int U_TURN = 4;
+    private static final int U_SCORE_R = 5;
+    private static final int U_SCORE_Y = 6;
+    private static final int U_ROUND_WINNER = 7;
+    private static final int U_GAME_WINNER = 8;
+    private static final String[] UPDATE_KEYS = {
+        "type", "clientsList", "removedClients", "objectsList", "currentTurn",
+        "scoreR", "scoreY", "roundWinner", "gameWinner"
+    };
+
+    // camps de ClientData
+    private static final int C_NAME = 0;
+    private static final int C_COLOR = 1;
+    private static final int C_ROLE = 2;
+    private static final int C_MOUSE_X = 3;
+    private static final int C_MOUSE_Y = 4;
+    private static final int C_ROW = 5;
+    private static final int C_COL = 6;
+    private static final String[] CLIENT_KEYS = {
+        "name", "color", "role", "mouseX", "mouseY", "row", "col"
+    };
+
+    // camps de GameObject
+    private static final int O_ID = 0;
+    private static final int O_X = 1;
+    private static final int O_Y = 2;
+    private static final int O_COLS = 3;
+    private static final int O_ROWS = 4;
+    private static final int O_ROLE = 5;
+    private static final String[] OBJECT_KEYS = {
+        "id", "x", "y", "cols", "rows", "role"
+    };
+
+    // orden en que JSONObject escribe las claves
+    private static final int[] UPDATE_ORDER = keyOrder(UPDATE_KEYS);
+    private static final int[] CLIENT_ORDER = keyOrder(CLIENT_KEYS);
+    private static final int[] OBJECT_ORDER = keyOrder(OBJECT_KEYS);
+
+    // claves ya escritas como "clave": en UTF-8
+    private static final byte[][] UPDATE_NAMES = keyBytes(UPDATE_KEYS);
+    private static final byte[][] CLIENT_NAMES = keyBytes(CLIENT_KEYS);
+    private static final byte[][] OBJECT_NAMES = keyBytes(OBJECT_KEYS);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] data;
+    private int size;
+
+    // vista sobre data, se rehace solo cuando el buffer crece
+    private ByteBuffer view;
+
+    // para escribir enteros sin crear cadenas
+    private final byte[] digits = new byte[11];
+
+    public JsonUpdateWriter() {
+        this(4096);
+    }
+
+    public JsonUpdateWriter(int capacity) {
+        data = new byte[Math.max(16, capacity)];
+        view = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Escriu l'estat en JSON.
+     *
+     * @param su estat a escriure
+     * @return vista del buffer intern amb el JSON (vàlida fins a la següent crida)
+     */
+    public ByteBuffer write(ServerUpdate su) {
+        size = 0;
+        boolean first = true;
+        put('{');
+        for (int field : UPDATE_ORDER) {
+            if (!hasField(su, field)) {
+                continue;
+            }
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            put(UPDATE_NAMES[field]);
+            writeUpdateField(su, field);
+        }
+        put('}');
+        view.clear();
+        view.limit(size);
+        return view;
+    }
+
+    /** Mida en bytes de l'últim JSON escrit. */
+    public int size() {
+        return size;
+    }
+
+    // ----------------- ServerUpdate -----------------
+
+    // mismas condiciones que ServerUpdate.toJSON
+    private static boolean hasField(ServerUpdate su, int field) {
+        switch (field) {
+            case U_TYPE:
+                return true;
+            case U_CLIENTS:
+                return su.keyframe || !su.clients.isEmpty();
+            case U_REMOVED:
+                return !su.removedClients.isEmpty();
+            case U_OBJECTS:
+                return su.keyframe || !su.objects.isEmpty();
+            case U_TURN:
+                return su.currentTurn != null;
+            case U_SCORE_R:
+                return su.scoreR >= 0;
+            case U_SCORE_Y:
+                return su.scoreY >= 0;
+            case U_ROUND_WINNER:
+                return su.roundWinner != null && (!su.keyframe || !su.roundWinner.isEmpty());
+            case U_GAME_WINNER:
+                return su.gameWinner != null && (!su.keyframe || !su.gameWinner.isEmpty());
+            default:
+                return false;
+        }
+    }
+
+    private void writeUpdateField(ServerUpdate su, int field) {
+        switch (field) {
+            case U_TYPE:
+                string(su.keyframe ? ServerUpdate.T_SERVER_DATA : ServerUpdate.T_SERVER_DELTA);
+                break;
+            case U_CLIENTS:
+                put('[');
+                for (int i = 0; i < su.clients.size(); i++) {
+                    if (i > 0) {
+                        put(',');
+                    }
+                    writeClient(su.clients.get(i));
+                }
+                put(']');
+                break;
+            case U_REMOVED:
+                writeStrings(su.removedClients);
+                break;
+            case U_OBJECTS:
+                put('[');
+                for (int i = 0; i < su.objects.size(); i++) {
+                    if (i > 0) {
+                        put(',');
+                    }
+                    writeObject(su.objects.get(i));
+                }
+                put(']');
+                break;
+            case U_TURN:
+                string(su.currentTurn);
+                break;
+            case U_SCORE_R:
+                number(su.scoreR);
+                break;
+            case U_SCORE_Y:
+                number(su.scoreY);
+                break;
+            case U_ROUND_WINNER:
+                string(su.roundWinner);
+                break;
+            case U_GAME_WINNER:
+                string(su.gameWinner);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeStrings(List<String> list) {
+        put('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                put(',');
+            }
+            string(list.get(i));
+        }
+        put(']');
+    }
+
+    // ----------------- ClientData y GameObject -----------------
+
+    // mismo contenido que ClientData.toJSON (JSONObject no guarda los null)
+    private void writeClient(ClientData c) {
+        boolean first = true;
+        put('{');
+        for (int field : CLIENT_ORDER) {
+            String s = null;
+            int n = 0;
+            switch (field) {
+                case C_NAME: s = c.name; break;
+                case C_COLOR: s = c.color; break;
+                case C_ROLE: s = c.role; break;
+                case C_MOUSE_X: n = c.mouseX; break;
+                case C_MOUSE_Y: n = c.mouseY; break;
+                case C_ROW: n = c.row; break;
+                case C_COL: n = c.col; break;
+                default: break;
+            }
+            boolean isString = field == C_NAME || field == C_COLOR || field == C_ROLE;
+            if (isString && s == null) {
+                continue;
+            }
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            put(CLIENT_NAMES[field]);
+            if (isString) {
+                string(s);
+            } else {
+                number(n);
+            }
+        }
+        put('}');
+    }
+
+    // mismo contenido que GameObject.toJSON
+    private void writeObject(GameObject o) {
+        boolean first = true;
+        put('{');
+        for (int field : OBJECT_ORDER) {
+            String s = null;
+            int n = 0;
+            switch (field) {
+                case O_ID: s = o.id; break;
+                case O_ROLE: s = o.role; break;
+                case O_X: n = o.x; break;
+                case O_Y: n = o.y; break;
+                case O_COLS: n = o.col; break;
+                case O_ROWS: n = o.row; break;
+                default: break;
+            }
+            boolean isString = field == O_ID || field == O_ROLE;
+            if (isString && s == null) {
+                continue;
+            }
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            put(OBJECT_NAMES[field]);
+            if (isString) {
+                string(s);
+            } else {
+                number(n);
+            }
+        }
+        put('}');
+    }
+
+    // ----------------- escritura -----------------
+
+    private void ensure(int extra) {
+        if (size + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            view = ByteBuffer.wrap(data);
+        }
+    }
+
+    private void put(char c) {
+        ensure(1);
+        data[size++] = (byte) c;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, data, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void number(int v) {
+        if (v == Integer.MIN_VALUE) {
+            put(Integer.toString(v).getBytes());
+            return;
+        }
+        ensure(11);
+        if (v < 0) {
+            data[size++] = '-';
+            v = -v;
+        }
+        int len = 0;
+        do {
+            digits[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        while (len > 0) {
+            data[size++] = digits[--len];
+        }
+    }
+
+    // mismas reglas de escape que JSONObject.quote, y los caracteres en UTF-8
+    private void string(String s) {
+        ensure(s.length() * 6 + 2);
+        data[size++] = '"';
+        char prev = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    data[size++] = '\\';
+                    data[size++] = (byte) c;
+                    break;
+                case '/':
+                    if (prev == '<') {
+                        data[size++] = '\\';
+                    }
+                    data[size++] = '/';
+                    break;
+                case '\b':
+                    escape('b');
+                    break;
+                case '\t':
+                    escape('t');
+                    break;
+                case '\n':
+                    escape('n');
+                    break;
+                case '\f':
+                    escape('f');
+                    break;
+                case '\r':
+                    escape('r');
+                    break;
+                default:
+                    if (c < ' ' || (c >= 0x80 && c < 0xA0) || (c >= 0x2000 && c < 0x2100)) {
+                        data[size++] = '\\';
+                        data[size++] = 'u';
+                        data[size++] = HEX[(c >> 12) & 0xF];
+                        data[size++] = HEX[(c >> 8) & 0xF];
+                        data[size++] = HEX[(c >> 4) & 0xF];
+                        data[size++] = HEX[c & 0xF];
+                    } else if (c < 0x80) {
+                        data[size++] = (byte) c;
+                    } else if (c < 0x800) {
+                        data[size++] = (byte) (0xC0 | (c >> 6));
+                        data[size++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                            && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        data[size++] = (byte) (0xF0 | (cp >> 18));
+                        data[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        data[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        data[size++] = (byte) (0x80 | (cp & 0x3F));
+                        c = s.charAt(i);
+                    } else if (Character.isSurrogate(c)) {
+                        // surrogate sin pareja: igual que String.getBytes(UTF_8)
+                        data[size++] = '?';
+                    } else {
+                        data[size++] = (byte) (0xE0 | (c >> 12));
+                        data[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        data[size++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                    break;
+            }
+            prev = c;
+        }
+        data[size++] = '"';
+    }
+
+    private void escape(char c) {
+        data[size++] = '\\';
+        data[size++] = (byte) c;
+    }
+
+    // ----------------- orden de las claves -----------------
+
+    // el orden en que itera un JSONObject con esas claves (puestas en el mismo orden que toJSON)
+    private static int[] keyOrder(String[] keys) {
+        JSONObject probe = new JSONObject();
+        for (String key : keys) {
+            probe.put(key, 0);
+        }
+        int[] order = new int[keys.length];
+        int i = 0;
+        for (String key : probe.keySet()) {
+            order[i++] = Arrays.asList(keys).indexOf(key);
+        }
+        return order;
+    }
+
+    private static byte[][] keyBytes(String[] keys) {
+        byte[][] out = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = ('"' + keys[i] + "\":").getBytes();
+        }
+        return out;
+    }
+}
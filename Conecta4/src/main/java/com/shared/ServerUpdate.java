@@ -0,0 +1,210 @@
+package com.shared;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Estado del juego que envia el servidor: completo (keyframe) o solo los cambios (delta)
+public class ServerUpdate {
+
+    public static final String T_SERVER_DATA = "serverData";
+    public static final String T_SERVER_DELTA = "serverDelta";
+
+    // ganador de una ronda o partida que acaba en empate (tablero lleno)
+    public static final String DRAW = "D";
+
+    public boolean keyframe;
+    public List<ClientData> clients = new ArrayList<>();
+    public List<String> removedClients = new ArrayList<>();
+    public List<GameObject> objects = new ArrayList<>();
+    public String currentTurn = null; // null = sin cambios
+    public int scoreR = -1;           // -1 = sin cambios
+    public int scoreY = -1;
+    public String roundWinner = null; // null = sin cambios, "" = sin ganador
+    public String gameWinner = null;
+
+    public ServerUpdate(boolean keyframe) {
+        this.keyframe = keyframe;
+    }
+
+    // vaciar para volver a usarlo como delta
+    public void clear() {
+        keyframe = false;
+        clients.clear();
+        removedClients.clear();
+        objects.clear();
+        currentTurn = null;
+        scoreR = -1;
+        scoreY = -1;
+        roundWinner = null;
+        gameWinner = null;
+    }
+
+    // un delta sin nada dentro no hace falta enviarlo
+    public boolean isEmpty() {
+        return !keyframe
+            && clients.isEmpty()
+            && removedClients.isEmpty()
+            && objects.isEmpty()
+            && currentTurn == null
+            && scoreR < 0
+            && scoreY < 0
+            && roundWinner == null
+            && gameWinner == null;
+    }
+
+    public ClientData findClient(String name) {
+        for (ClientData c : clients) {
+            if (c.name != null && c.name.equals(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    public GameObject findObject(String id) {
+        for (GameObject o : objects) {
+            if (o.id != null && o.id.equals(id)) {
+                return o;
+            }
+        }
+        return null;
+    }
+
+    // Aplica otro update encima de este (el ultimo valor gana)
+    public void merge(ServerUpdate next) {
+        if (next.keyframe) {
+            keyframe = true;
+            clients = new ArrayList<>(next.clients);
+            removedClients = new ArrayList<>();
+            objects = new ArrayList<>(next.objects);
+            currentTurn = next.currentTurn;
+            scoreR = next.scoreR;
+            scoreY = next.scoreY;
+            roundWinner = next.roundWinner;
+            gameWinner = next.gameWinner;
+            return;
+        }
+
+        for (String name : next.removedClients) {
+            clients.removeIf(c -> name.equals(c.name));
+            if (!keyframe && !removedClients.contains(name)) {
+                removedClients.add(name);
+            }
+        }
+        // en su sitio: el orden de la lista no cambia cuando alguien mueve el raton
+        for (ClientData c : next.clients) {
+            ClientData old = findClient(c.name);
+            if (old != null) {
+                clients.set(clients.indexOf(old), c);
+            } else {
+                clients.add(c);
+            }
+            removedClients.remove(c.name);
+        }
+        for (GameObject o : next.objects) {
+            GameObject old = findObject(o.id);
+            if (old != null) {
+                objects.set(objects.indexOf(old), o);
+            } else {
+                objects.add(o);
+            }
+        }
+        if (next.currentTurn != null) {
+            currentTurn = next.currentTurn;
+        }
+        if (next.scoreR >= 0) {
+            scoreR = next.scoreR;
+        }
+        if (next.scoreY >= 0) {
+            scoreY = next.scoreY;
+        }
+        if (next.roundWinner != null) {
+            roundWinner = next.roundWinner;
+        }
+        if (next.gameWinner != null) {
+            gameWinner = next.gameWinner;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString();
+    }
+
+    // Converteix l'objecte a JSON (el keyframe tiene el mismo formato que serverData)
+    public JSONObject toJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", keyframe ? T_SERVER_DATA : T_SERVER_DELTA);
+
+        if (keyframe || !clients.isEmpty()) {
+            JSONArray arrClients = new JSONArray();
+            for (ClientData c : clients) {
+                arrClients.put(c.toJSON());
+            }
+            obj.put("clientsList", arrClients);
+        }
+        if (!removedClients.isEmpty()) {
+            obj.put("removedClients", new JSONArray(removedClients));
+        }
+        if (keyframe || !objects.isEmpty()) {
+            JSONArray arrObjects = new JSONArray();
+            for (GameObject o : objects) {
+                arrObjects.put(o.toJSON());
+            }
+            obj.put("objectsList", arrObjects);
+        }
+        if (currentTurn != null) {
+            obj.put("currentTurn", currentTurn);
+        }
+        if (scoreR >= 0) {
+            obj.put("scoreR", scoreR);
+        }
+        if (scoreY >= 0) {
+            obj.put("scoreY", scoreY);
+        }
+
+        // en el keyframe el ganador solo aparece si existe
+        if (roundWinner != null && (!keyframe || !roundWinner.isEmpty())) {
+            obj.put("roundWinner", roundWinner);
+        }
+        if (gameWinner != null && (!keyframe || !gameWinner.isEmpty())) {
+            obj.put("gameWinner", gameWinner);
+        }
+        return obj;
+    }
+
+    // Crea un ServerUpdate a partir de JSON
+    public static ServerUpdate fromJSON(JSONObject obj) {
+        boolean keyframe = T_SERVER_DATA.equals(obj.optString("type", ""));
+        ServerUpdate su = new ServerUpdate(keyframe);
+
+        JSONArray arrClients = obj.optJSONArray("clientsList");
+        if (arrClients != null) {
+            for (int i = 0; i < arrClients.length(); i++) {
+                su.clients.add(ClientData.fromJSON(arrClients.getJSONObject(i)));
+            }
+        }
+        JSONArray arrRemoved = obj.optJSONArray("removedClients");
+        if (arrRemoved != null) {
+            for (int i = 0; i < arrRemoved.length(); i++) {
+                su.removedClients.add(arrRemoved.getString(i));
+            }
+        }
+        JSONArray arrObjects = obj.optJSONArray("objectsList");
+        if (arrObjects != null) {
+            for (int i = 0; i < arrObjects.length(); i++) {
+                su.objects.add(GameObject.fromJSON(arrObjects.getJSONObject(i)));
+            }
+        }
+
+        su.currentTurn = obj.optString("currentTurn", keyframe ? "" : null);
+        su.scoreR = obj.optInt("scoreR", keyframe ? 0 : -1);
+        su.scoreY = obj.optInt("scoreY", keyframe ? 0 : -1);
+        su.roundWinner = obj.optString("roundWinner", keyframe ? "" : null);
+        su.gameWinner = obj.optString("gameWinner", keyframe ? "" : null);
+        return su;
+    }
+}
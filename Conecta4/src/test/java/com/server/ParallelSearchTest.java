@@ -0,0 +1,122 @@
+package com.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link ParallelSearch} ha de triar la mateixa columna amb el mateix valor que
+ * {@link Solver} sigui quin sigui el nombre de fils: obertures a profunditat fixa i
+ * posicions de mig joc aleatòries resoltes fins al final (victòria o derrota forçada).
+ */
+class ParallelSearchTest {
+
+    // posiciones de apertura: columnas jugadas desde el tablero vacio
+    private static final String[] OPENINGS = {"", "3", "33", "332", "3324", "33241", "332415", "2"};
+
+    private static final int OPENING_DEPTH = 14;
+
+    // jugadas que quedan en las posiciones de medio juego: se resuelven hasta el final
+    private static final int ENDGAME_PLIES = 18;
+
+    private static final int ENDGAMES = 40;
+
+    private static final int[] THREADS = {1, 2, 4};
+
+    private static final int TABLE_BITS = 16;
+
+    private static final long NO_LIMIT = Long.MAX_VALUE / 4;
+
+    private static final List<ParallelSearch> searches = new ArrayList<>();
+
+    @BeforeAll
+    static void startSearches() {
+        for (int threads : THREADS) {
+            searches.add(new ParallelSearch(threads, TABLE_BITS));
+        }
+    }
+
+    @AfterAll
+    static void stopSearches() {
+        for (ParallelSearch search : searches) {
+            search.stop();
+        }
+    }
+
+    @Test
+    void openingsMatchSequential() {
+        for (String moves : OPENINGS) {
+            assertSameMove(moves, position(moves), OPENING_DEPTH);
+        }
+    }
+
+    @Test
+    void endgamesMatchSequential() {
+        Random random = new Random(14);
+        int forced = 0;
+        int found = 0;
+        while (found < ENDGAMES) {
+            String moves = randomGame(random, Solver.MAX_DEPTH - ENDGAME_PLIES);
+            if (moves == null) {
+                continue;
+            }
+            found++;
+            if (Math.abs(assertSameMove(moves, position(moves), Solver.MAX_DEPTH)) > Solver.WIN - Solver.MAX_DEPTH - 1) {
+                forced++;
+            }
+        }
+        // que haya victorias y derrotas forzadas de verdad, no solo tablas
+        assertTrue(forced >= ENDGAMES / 4, "only " + forced + " forced results");
+    }
+
+    // compara cada busqueda en paralelo con la secuencial; devuelve el valor
+    private static int assertSameMove(String moves, long[] pos, int depth) {
+        Solver solver = new Solver(TABLE_BITS);
+        int column = solver.bestMove(pos[0], pos[1], depth, NO_LIMIT);
+        int score = solver.lastScore();
+        for (ParallelSearch search : searches) {
+            ParallelSearch.Result r = search.bestMove(pos[0], pos[1], depth, NO_LIMIT);
+            String where = "\"" + moves + "\" depth " + depth + " with " + search.threads() + " threads";
+            assertEquals(column, r.column, "column at " + where);
+            assertEquals(score, r.score, "score at " + where);
+        }
+        return score;
+    }
+
+    // partida aleatoria de plies jugadas sin que gane nadie, o null si alguien gana antes
+    private static String randomGame(Random random, int plies) {
+        Bitboard board = new Bitboard();
+        StringBuilder moves = new StringBuilder();
+        for (int i = 0; i < plies; i++) {
+            int col;
+            do {
+                col = random.nextInt(Bitboard.COLS);
+            } while (!board.canPlay(col));
+            int player = i % 2 == 0 ? Bitboard.RED : Bitboard.YELLOW;
+            board.play(col, player);
+            if (board.isWin(player)) {
+                return null;
+            }
+            moves.append(col);
+        }
+        return moves.toString();
+    }
+
+    // {fichas del que mueve, todas las fichas} despues de jugar las columnas
+    private static long[] position(String moves) {
+        Bitboard board = new Bitboard();
+        for (int i = 0; i < moves.length(); i++) {
+            board.play(moves.charAt(i) - '0', i % 2 == 0 ? Bitboard.RED : Bitboard.YELLOW);
+        }
+        int toMove = moves.length() % 2 == 0 ? Bitboard.RED : Bitboard.YELLOW;
+        long current = board.pieces(toMove);
+        return new long[] {current, current | board.pieces(1 - toMove)};
+    }
+}